@@ -0,0 +1,12 @@
+# Removes verbose and debug logging calls (Logger.v/d and TaggedLogger.v/d) from an app's minified build.
+# See strip-verbose.pro for usage.
+
+-assumenosideeffects class com.airg.android.logging.Logger {
+    public static void v(...);
+    public static void d(...);
+}
+
+-assumenosideeffects class com.airg.android.logging.TaggedLogger {
+    public void v(...);
+    public void d(...);
+}
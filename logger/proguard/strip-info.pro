@@ -0,0 +1,14 @@
+# Removes verbose, debug, and info logging calls (Logger.v/d/i and TaggedLogger.v/d/i) from an app's minified build.
+# See strip-verbose.pro for usage.
+
+-assumenosideeffects class com.airg.android.logging.Logger {
+    public static void v(...);
+    public static void d(...);
+    public static void i(...);
+}
+
+-assumenosideeffects class com.airg.android.logging.TaggedLogger {
+    public void v(...);
+    public void d(...);
+    public void i(...);
+}
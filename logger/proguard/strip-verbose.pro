@@ -0,0 +1,22 @@
+# Removes verbose logging calls (Logger.v and TaggedLogger.v) from an app's minified build.
+#
+# This file isn't packaged in the library's AAR. Copy it into the app module and add it to a build type of the app
+# (not the library):
+#
+#   release {
+#       minifyEnabled true
+#       proguardFiles getDefaultProguardFile('proguard-android-optimize.txt'), 'proguard-rules.pro',
+#               'strip-verbose.pro'
+#   }
+#
+# Optimization must be enabled (proguard-android-optimize.txt or R8) for the calls to be removed. Once a call is gone,
+# the optimizer also drops argument construction that has no side effects of its own: string concatenation, boxing,
+# and the varargs array. Arguments that call into app code are still evaluated.
+
+-assumenosideeffects class com.airg.android.logging.Logger {
+    public static void v(...);
+}
+
+-assumenosideeffects class com.airg.android.logging.TaggedLogger {
+    public void v(...);
+}
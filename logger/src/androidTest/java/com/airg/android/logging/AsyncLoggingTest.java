@@ -0,0 +1,158 @@
+/*
+ * ****************************************************************************
+ *   Copyright  2017 airG Inc.                                                 *
+ *                                                                             *
+ *   Licensed under the Apache License, Version 2.0 (the "License");           *
+ *   you may not use this file except in compliance with the License.          *
+ *   You may obtain a copy of the License at                                   *
+ *                                                                             *
+ *       http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                             *
+ *   Unless required by applicable law or agreed to in writing, software       *
+ *   distributed under the License is distributed on an "AS IS" BASIS,         *
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  *
+ *   See the License for the specific language governing permissions and       *
+ *   limitations under the License.                                            *
+ * ***************************************************************************
+ */
+
+package com.airg.android.logging;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+import static android.util.Log.ERROR;
+import static android.util.Log.INFO;
+import static android.util.Log.WARN;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class AsyncLoggingTest {
+    private final List<String> records = Collections.synchronizedList(new ArrayList<String>());
+    private final List<Thread> threads = Collections.synchronizedList(new ArrayList<Thread>());
+
+    private final LogSink sink = new LogSink() {
+        @Override
+        public void write(final int level, final String tag, final String message) {
+            records.add(level + "/" + tag + "/" + message);
+            threads.add(Thread.currentThread());
+        }
+    };
+
+    @Before
+    public void addSink() {
+        Logger.addSink(sink);
+    }
+
+    @After
+    public void removeSink() {
+        Logger.setAsyncQueueSize(0);
+        assertTrue(Logger.removeSink(sink));
+    }
+
+    @Test
+    public void queuedRecordsAreWrittenInOrder() throws Exception {
+        Logger.setAsyncQueueSize(64 * 1024);
+
+        final String uuid = UUID.randomUUID().toString();
+        final String tag = Integer.toHexString(uuid.hashCode());
+        final String text = "h\u00e9llo \u4e16\u754c \ud83d\ude00 ";
+        final List<String> expected = new ArrayList<>();
+
+        for (int i = 0; i < 100; i++) {
+            Logger.tag(tag).i("%s%s%d", text, uuid, i);
+            expected.add(INFO + "/" + tag + "/" + text + uuid + i);
+        }
+
+        assertTrue(Logger.flushAsync(5000));
+        assertEquals(expected, records);
+
+        for (final Thread thread : threads)
+            assertNotSame(Thread.currentThread(), thread);
+    }
+
+    @Test
+    public void droppedRecordsAreReported() throws Exception {
+        Logger.setAsyncQueueSize(Logger.MIN_ASYNC_QUEUE_SIZE);
+
+        final char[] filler = new char[500];
+        Arrays.fill(filler, 'x');
+        final String msg = new String(filler);
+
+        for (int i = 0; i < 1000; i++)
+            Logger.tag("ASYNC").i(msg);
+
+        assertTrue(Logger.flushAsync(5000));
+
+        final long dropped = Logger.getAsyncDropCount();
+        int written = 0;
+        boolean reported = false;
+
+        for (final String record : records) {
+            if (record.startsWith(INFO + "/"))
+                written++;
+            else
+                reported |= record.startsWith(WARN + "/LOG/") && record.contains("dropped");
+        }
+
+        assertEquals(1000, written + dropped);
+        assertTrue(dropped == 0 || reported);
+    }
+
+    @Test
+    public void errorsAreNotDroppedBehindVerboseRecords() throws Exception {
+        Logger.setAsyncQueueSize(Logger.MIN_ASYNC_QUEUE_SIZE);
+
+        final char[] filler = new char[500];
+        Arrays.fill(filler, 'x');
+        final String msg = new String(filler);
+
+        for (int i = 0; i < 1000; i++) {
+            Logger.tag("ASYNC").v(msg);
+
+            if (i % 100 == 0)
+                Logger.tag("ASYNC").e("error %d", i);
+        }
+
+        assertTrue(Logger.flushAsync(5000));
+
+        final List<String> errors = new ArrayList<>();
+
+        for (final String record : records) {
+            if (record.startsWith(ERROR + "/"))
+                errors.add(record);
+        }
+
+        assertEquals(10, errors.size());
+
+        for (int i = 0; i < errors.size(); i++)
+            assertEquals(ERROR + "/ASYNC/error " + (i * 100), errors.get(i));
+    }
+
+    @Test
+    public void turningAsyncOffWritesQueuedRecords() throws Exception {
+        Logger.setAsyncQueueSize(64 * 1024);
+
+        final String uuid = UUID.randomUUID().toString();
+        Logger.tag("ASYNC").i(uuid);
+        Logger.setAsyncQueueSize(0);
+
+        assertEquals(1, records.size());
+        assertEquals(INFO + "/ASYNC/" + uuid, records.get(0));
+
+        Logger.tag("ASYNC").i(uuid);
+        assertEquals(Thread.currentThread(), threads.get(1));
+    }
+}
@@ -26,6 +26,11 @@ import org.junit.runner.RunWith;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -33,6 +38,7 @@ import static com.airg.android.logging.util.LogTestUtils.containsLogLineThatCont
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 /**
  * Created by mahramf.
@@ -51,6 +57,111 @@ public class LogCatcherCaptureTest {
         captureAndVerify(false);
     }
 
+    @Test
+    public void awaitLineCompletesOnMatchingLine() throws Exception {
+        final String expected = UUID.randomUUID().toString();
+        final LogCatcher logCatcher = new LogCatcher(true, true);
+        logCatcher.waitForClearEnd();
+
+        final Future<String> line = logCatcher.awaitLineContaining(expected);
+        final Future<String> never = logCatcher.awaitLineContaining(UUID.randomUUID().toString());
+        final AtomicBoolean started = new AtomicBoolean(false);
+
+        logCatcher.startCapture(new LogCatcher.OnLogLinesListener() {
+            @Override
+            public void onLogLine(final String logLine) {
+            }
+
+            @Override
+            public void onStart() {
+                synchronized (started) {
+                    started.set(true);
+                    started.notifyAll();
+                }
+            }
+
+            @Override
+            public void onFinished() {
+            }
+
+            @Override
+            public void onError(final Throwable t) {
+                t.printStackTrace();
+            }
+        });
+
+        synchronized (started) {
+            while (!started.get())
+                started.wait();
+        }
+
+        Log.i(TAG, expected);
+
+        try {
+            assertTrue(line.get(10, TimeUnit.SECONDS).contains(expected));
+            assertTrue(line.isDone());
+
+            try {
+                never.get(500, TimeUnit.MILLISECONDS);
+                fail("Matched a line that was never logged");
+            } catch (TimeoutException expectedTimeout) {
+                // not logged
+            }
+
+            assertTrue(never.cancel(true));
+            assertTrue(never.isCancelled());
+
+            try {
+                never.get();
+                fail("Cancelled future returned a line");
+            } catch (CancellationException expectedCancellation) {
+                // cancelled
+            }
+        } finally {
+            logCatcher.endCapture();
+            logCatcher.waitForCaptureEnd();
+        }
+    }
+
+    @Test
+    public void cancelStopsQuietCapturePromptly() throws Exception {
+        final LogCatcher logCatcher = new LogCatcher(true, true);
+        logCatcher.waitForClearEnd();
+
+        final AtomicInteger finished = new AtomicInteger(0);
+        final LogCatcher.Capture capture = logCatcher.startCapture(new LogCatcher.OnLogLinesListener() {
+            @Override
+            public void onLogLine(final String logLine) {
+            }
+
+            @Override
+            public void onStart() {
+            }
+
+            @Override
+            public void onFinished() {
+                finished.incrementAndGet();
+            }
+
+            @Override
+            public void onError(final Throwable t) {
+                t.printStackTrace();
+            }
+        });
+
+        Thread.sleep(500);
+
+        // nothing else is logged, so the reader only notices because logcat is killed
+        capture.cancel();
+        assertTrue(capture.isCancelled());
+        assertTrue("Capture still running", capture.await(2000));
+        assertTrue(capture.isDone());
+
+        logCatcher.waitForCaptureEnd();
+        Thread.sleep(100);
+        assertEquals(1, finished.get());
+    }
+
     private void captureAndVerify(final boolean self) throws InterruptedException {
         final String dExpected = "This is expected log line 1";
         final String vExpected = "and this is line 2";
@@ -28,6 +28,7 @@ import org.junit.runner.RunWith;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -128,4 +129,183 @@ public class LogCatcherDumpTest {
         assertTrue("Missing expected entry", containsLogLineThatContains(lines, eExpected));
         assertFalse("Unexpected entry", containsLogLineThatContains(lines, unExpected));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void dumpWhileCapturing() throws Exception {
+        final String expected = "Dumped while a capture is running";
+        Log.i(TAG, expected);
+
+        final List<String> captured = new ArrayList<>();
+        final List<String> dumped = new ArrayList<>();
+
+        final LogCatcher catcher = new LogCatcher(false, true);
+        final LogCatcher.Capture capture = catcher.startCapture(collector(captured));
+        final LogCatcher.Capture dump = catcher.dump(collector(dumped));
+
+        assertTrue("Dump did not finish", dump.await(5000));
+        assertFalse("Capture ended", capture.isDone());
+
+        // lines are delivered on the callback executor, possibly after the reader is done
+        for (int i = 0; i < 50 && !containsLine(dumped, expected); i++)
+            Thread.sleep(100);
+
+        assertTrue("Missing expected entry", containsLine(dumped, expected));
+
+        catcher.endCapture();
+        assertTrue("Capture did not end", capture.await(5000));
+        catcher.waitForCaptureEnd();
+    }
+
+    @Test
+    public void warmCaptureServesRecentLinesFromMemory() throws Exception {
+        final LogCatcher catcher = new LogCatcher(false, true);
+        final LogCatcher.Capture cold = catcher.dump(collector(new ArrayList<String>()));
+        assertTrue("Dump did not finish", cold.await(5000));
+
+        catcher.startWarmCapture(1000);
+
+        try {
+            final String expected = "Logged while the warm capture is running";
+
+            // wait for the warm capture to pick it up
+            for (int i = 0; i < 50 && !containsLogLineThatContains(catcher.getRecentLines(60000), expected); i++) {
+                Log.i(TAG, expected);
+                Thread.sleep(100);
+            }
+
+            final List<String> dumped = new ArrayList<>();
+            final LogCatcher.Capture warm = catcher.dumpRecent(60000, collector(dumped));
+            assertTrue("Dump did not finish", warm.await(5000));
+
+            for (int i = 0; i < 50 && !containsLine(dumped, expected); i++)
+                Thread.sleep(100);
+
+            assertTrue("Missing expected entry", containsLine(dumped, expected));
+            Logger.i(TAG, "startup: cold %dms, warm %dms", cold.getStartupMillis(), warm.getStartupMillis());
+            assertTrue(warm.getStartupMillis() <= cold.getStartupMillis());
+        } finally {
+            catcher.stopWarmCapture();
+        }
+
+        assertFalse(catcher.isWarmCaptureRunning());
+    }
+
+    @Test
+    public void warmCaptureSkipsOlderLines() throws Exception {
+        final String old = "Logged before the warm capture started";
+        Log.i(TAG, old);
+        Thread.sleep(1500);
+
+        final LogCatcher catcher = new LogCatcher(false, true);
+        catcher.startWarmCapture(1000);
+
+        try {
+            final String expected = "Logged after the warm capture started";
+
+            for (int i = 0; i < 50 && !containsLogLineThatContains(catcher.getRecentLines(1000), expected); i++) {
+                Log.i(TAG, expected);
+                Thread.sleep(100);
+            }
+
+            final List<String> recent = catcher.getRecentLines(1000);
+            assertTrue("Missing expected entry", containsLogLineThatContains(recent, expected));
+            assertFalse("Older entry replayed as recent", containsLogLineThatContains(recent, old));
+        } finally {
+            catcher.stopWarmCapture();
+        }
+    }
+
+    @Test
+    public void readersRunOnTheTaskExecutor() throws Exception {
+        final AtomicInteger tasks = new AtomicInteger(0);
+        final Executor executor = new Executor() {
+            @Override
+            public void execute(final Runnable command) {
+                tasks.incrementAndGet();
+                LogCatcher.lightweightExecutor().execute(command);
+            }
+        };
+
+        final LogCatcher catcher = new LogCatcher(false, android.os.Process.myPid(), null, executor);
+        final LogCatcher.Capture dump = catcher.dump(collector(new ArrayList<String>()));
+
+        assertTrue("Dump did not finish", dump.await(5000));
+        assertEquals(1, tasks.get());
+    }
+
+    private static boolean containsLine(final List<String> lines, final String target) {
+        synchronized (lines) {
+            return containsLogLineThatContains(lines, target);
+        }
+    }
+
+    private static LogCatcher.OnLogLinesListener collector(final List<String> lines) {
+        return new LogCatcher.OnLogLinesListener() {
+            @Override
+            public void onLogLine(final String logLine) {
+                synchronized (lines) {
+                    lines.add(logLine);
+                }
+            }
+
+            @Override
+            public void onStart() {
+                // meh
+            }
+
+            @Override
+            public void onFinished() {
+                // meh
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                t.printStackTrace();
+            }
+        };
+    }
+
+    @Test
+    public void dumpBytes() throws Exception {
+        final String expected = "Raw bytes, decoded on demand: \u00e9\u00e8";
+        Log.i(TAG, expected);
+
+        final AtomicInteger errorCount = new AtomicInteger(0);
+        final AtomicBoolean finished = new AtomicBoolean(false);
+        final List<String> lines = new ArrayList<>();
+
+        final LogCatcher catcher = new LogCatcher(false, true);
+        catcher.dump(new LogCatcher.OnLogBytesListener() {
+            @Override
+            public void onLogLine(final LogLineBytes logLine) {
+                assertTrue("line terminator was not stripped",
+                        logLine.length() == 0 || logLine.byteAt(logLine.length() - 1) != '\n');
+                lines.add(logLine.toString());
+            }
+
+            @Override
+            public void onStart() {
+                // meh
+            }
+
+            @Override
+            public void onFinished() {
+                finished.set(true);
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                errorCount.incrementAndGet();
+            }
+        });
+
+        catcher.waitForCaptureEnd();
+
+        for (int i = 0; i < 50 && !finished.get(); i++)
+            Thread.sleep(100);
+
+        assertTrue("Dump did not finish", finished.get());
+        assertEquals(errorCount.get() + " errors encountered", 0, errorCount.get());
+        assertTrue("Missing expected entry", containsLogLineThatContains(lines, expected));
+    }
+}
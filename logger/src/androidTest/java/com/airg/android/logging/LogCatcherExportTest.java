@@ -0,0 +1,112 @@
+/*
+ * ****************************************************************************
+ *   Copyright  2017 airG Inc.                                                 *
+ *                                                                             *
+ *   Licensed under the Apache License, Version 2.0 (the "License");           *
+ *   you may not use this file except in compliance with the License.          *
+ *   You may obtain a copy of the License at                                   *
+ *                                                                             *
+ *       http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                             *
+ *   Unless required by applicable law or agreed to in writing, software       *
+ *   distributed under the License is distributed on an "AS IS" BASIS,         *
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  *
+ *   See the License for the specific language governing permissions and       *
+ *   limitations under the License.                                            *
+ * ***************************************************************************
+ */
+package com.airg.android.logging;
+
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import static com.airg.android.logging.util.LogTestUtils.containsLogLineThatContains;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class LogCatcherExportTest {
+    private static final String TAG = "EXPORT";
+
+    @Before
+    public void clearLog() {
+        LogCatcher.clearLog();
+    }
+
+    @Test
+    public void exportGzip() throws Exception {
+        exportAndVerify(LogCatcher.Compression.GZIP);
+    }
+
+    @Test
+    public void exportDeflate() throws Exception {
+        exportAndVerify(LogCatcher.Compression.DEFLATE);
+    }
+
+    private void exportAndVerify(final LogCatcher.Compression compression) throws Exception {
+        final String expected = UUID.randomUUID().toString();
+
+        for (int i = 0; i < 100; i++)
+            Log.i(TAG, expected + " line " + i);
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final AtomicReference<LogCatcher.ExportStats> stats = new AtomicReference<>();
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+
+        final LogCatcher catcher = new LogCatcher(false, true);
+        catcher.export(out, compression, new LogCatcher.OnExportListener() {
+            @Override
+            public void onExportFinished(final LogCatcher.ExportStats s) {
+                stats.set(s);
+            }
+
+            @Override
+            public void onError(final Throwable t) {
+                error.set(t);
+            }
+        });
+
+        catcher.waitForCaptureEnd();
+
+        // callbacks are delivered asynchronously
+        for (int i = 0; i < 50 && null == stats.get() && null == error.get(); i++)
+            Thread.sleep(100);
+
+        assertNull("export failed: " + error.get(), error.get());
+        assertNotNull("export did not finish", stats.get());
+        assertEquals("compressed byte count mismatch", out.size(), stats.get().bytesWritten);
+        assertTrue("log was not compressed: " + stats.get(), stats.get().compressionRatio() < 1);
+
+        final InputStream compressed = new ByteArrayInputStream(out.toByteArray());
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(compression == LogCatcher.Compression.GZIP
+                ? new GZIPInputStream(compressed)
+                : new InflaterInputStream(compressed)));
+
+        final List<String> lines = new ArrayList<>();
+        String line;
+
+        while ((line = reader.readLine()) != null)
+            lines.add(line);
+
+        assertTrue("Missing expected entry", containsLogLineThatContains(lines, expected + " line 0"));
+        assertTrue("Missing expected entry", containsLogLineThatContains(lines, expected + " line 99"));
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * ****************************************************************************
+ *   Copyright  2017 airG Inc.                                                 *
+ *                                                                             *
+ *   Licensed under the Apache License, Version 2.0 (the "License");           *
+ *   you may not use this file except in compliance with the License.          *
+ *   You may obtain a copy of the License at                                   *
+ *                                                                             *
+ *       http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                             *
+ *   Unless required by applicable law or agreed to in writing, software       *
+ *   distributed under the License is distributed on an "AS IS" BASIS,         *
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  *
+ *   See the License for the specific language governing permissions and       *
+ *   limitations under the License.                                            *
+ * ***************************************************************************
+ */
+package com.airg.android.logging;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import com.airg.android.logging.util.LogLine;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.UUID;
+
+import static android.util.Log.WARN;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class LogCollapseTest {
+    final long MAX_WAIT_FOR_LINE = 5000;
+    final long SHORT_WAIT_FOR_LINE = 1000;
+
+    private static LogTestHelper helper;
+
+    @BeforeClass
+    public static void beforeLogCollapseTest() throws Exception {
+        helper = new LogTestHelper();
+        assertTrue("Test helper not in the expected state", helper.start());
+    }
+
+    @AfterClass
+    public static void afterLogCollapseTest() throws Exception {
+        assertEquals("Log capture errors were encountered during test", 0, helper.stop());
+    }
+
+    @Before
+    public void enableCollapsing() throws Exception {
+        helper.clear();
+        assertTrue("Helper is not capturing log lines", helper.capturing());
+        Logger.setCollapseWindow(60000);
+    }
+
+    @After
+    public void disableCollapsing() {
+        Logger.setCollapseWindow(0);
+    }
+
+    @Test
+    public void repeatsAreCollapsed() throws Exception {
+        final String uuid = UUID.randomUUID().toString();
+        final String tag = Integer.toHexString(uuid.hashCode());
+        final String format = uuid + " retry failed with code %d";
+
+        for (int i = 0; i < 5; i++)
+            Logger.w(tag, format, 503);
+
+        final String first = helper.waitForLineContaining(uuid, MAX_WAIT_FOR_LINE);
+        assertNotNull("first line = null", first);
+
+        // a different record ends the run
+        Logger.w(tag, "%s done", uuid);
+
+        final String summary = helper.waitForLineContaining("repeated 4 times", MAX_WAIT_FOR_LINE);
+        assertNotNull("summary line = null", summary);
+
+        final LogLine log = new LogLine(summary, tag);
+        assertTrue("Unable to parse line: " + summary, log.valid());
+        assertTrue("Log level mismatch: " + summary, log.isLevel(WARN));
+
+        assertNotNull("record after the run was not logged", helper.waitForLineContaining(uuid + " done", MAX_WAIT_FOR_LINE));
+        assertNull("repeated record was logged", helper.waitForLineContaining(uuid + " retry", SHORT_WAIT_FOR_LINE));
+    }
+
+    @Test
+    public void differentArgumentsAreNotCollapsed() throws Exception {
+        final String uuid = UUID.randomUUID().toString();
+        final String tag = Integer.toHexString(uuid.hashCode());
+        final String format = uuid + " attempt %d";
+
+        Logger.i(tag, format, 1);
+        Logger.i(tag, format, 2);
+
+        assertNotNull("first attempt not logged", helper.waitForLineContaining(uuid + " attempt 1", MAX_WAIT_FOR_LINE));
+        assertNotNull("second attempt not logged", helper.waitForLineContaining(uuid + " attempt 2", MAX_WAIT_FOR_LINE));
+    }
+
+    @Test
+    public void flushWritesPendingSummary() throws Exception {
+        final String uuid = UUID.randomUUID().toString();
+        final String tag = Integer.toHexString(uuid.hashCode());
+        final TaggedLogger LOG = Logger.tag(tag);
+
+        LOG.e(uuid + " disk full");
+        LOG.e(uuid + " disk full");
+        Logger.flushCollapsed();
+
+        assertNotNull("first line not logged", helper.waitForLineContaining(uuid, MAX_WAIT_FOR_LINE));
+        assertNotNull("summary not logged", helper.waitForLineContaining("repeated 1 time", MAX_WAIT_FOR_LINE));
+    }
+
+    @Test
+    public void summaryIsWrittenWhenTheWindowExpires() throws Exception {
+        final String uuid = UUID.randomUUID().toString();
+        final String tag = Integer.toHexString(uuid.hashCode());
+
+        Logger.setCollapseWindow(200);
+        Logger.w(tag, "%s burst", uuid);
+        Logger.w(tag, "%s burst", uuid);
+        Logger.w(tag, "%s burst", uuid);
+
+        // nothing else is logged: the expired window alone writes the summary
+        assertNotNull("first line not logged", helper.waitForLineContaining(uuid, MAX_WAIT_FOR_LINE));
+        assertNotNull("summary not logged", helper.waitForLineContaining("repeated 2 times", MAX_WAIT_FOR_LINE));
+    }
+
+    @Test
+    public void rethrownFailuresAreCollapsed() throws Exception {
+        final String uuid = UUID.randomUUID().toString();
+        final String tag = Integer.toHexString(uuid.hashCode());
+
+        for (int i = 0; i < 3; i++)
+            Logger.e(tag, fail(uuid), uuid + " attempt failed");
+
+        Logger.flushCollapsed();
+
+        assertNotNull("first line not logged", helper.waitForLineContaining(uuid + " attempt", MAX_WAIT_FOR_LINE));
+        assertNotNull("summary not logged", helper.waitForLineContaining("repeated 2 times", MAX_WAIT_FOR_LINE));
+    }
+
+    @Test
+    public void repeatsWithBoxedAndEnumArgumentsAreCollapsed() throws Exception {
+        final String uuid = UUID.randomUUID().toString();
+        final String tag = Integer.toHexString(uuid.hashCode());
+
+        for (int i = 0; i < 3; i++)
+            Logger.w(tag, "%s worker %s after %d ms (%.1f%%)", uuid, Thread.State.BLOCKED, 250L, 12.5);
+
+        Logger.w(tag, "%s worker %s after %d ms (%.1f%%)", uuid, Thread.State.WAITING, 250L, 12.5);
+
+        final String blocked = uuid + " worker BLOCKED after 250 ms (12.5%)";
+        final String waiting = uuid + " worker WAITING after 250 ms (12.5%)";
+        assertNotNull("first line not logged", helper.waitForLineContaining(blocked, MAX_WAIT_FOR_LINE));
+        assertNotNull("summary not logged", helper.waitForLineContaining("repeated 2 times", MAX_WAIT_FOR_LINE));
+        assertNotNull("different argument not logged", helper.waitForLineContaining(waiting, MAX_WAIT_FOR_LINE));
+        assertNull("repeated record was logged", helper.waitForLineContaining(blocked, SHORT_WAIT_FOR_LINE));
+    }
+
+    @Test
+    public void mutatedArgumentsAreNotCollapsed() throws Exception {
+        final String uuid = UUID.randomUUID().toString();
+        final String tag = Integer.toHexString(uuid.hashCode());
+        final StringBuilder progress = new StringBuilder(uuid).append(" step 1");
+
+        Logger.i(tag, "%s", progress);
+        progress.setLength(uuid.length());
+        progress.append(" step 2");
+        Logger.i(tag, "%s", progress);
+
+        assertNotNull("first step not logged", helper.waitForLineContaining(uuid + " step 1", MAX_WAIT_FOR_LINE));
+        assertNotNull("second step not logged", helper.waitForLineContaining(uuid + " step 2", MAX_WAIT_FOR_LINE));
+    }
+
+    @Test
+    public void failuresWithCollidingMessagesAreNotCollapsed() throws Exception {
+        final String uuid = UUID.randomUUID().toString();
+        final String tag = Integer.toHexString(uuid.hashCode());
+
+        // "Aa" and "BB" have the same hash code
+        for (final String message : new String[]{"Aa", "BB"})
+            Logger.e(tag, fail(message), uuid + " attempt failed");
+
+        assertNotNull("first failure not logged", helper.waitForLineContaining("Exception: Aa", MAX_WAIT_FOR_LINE));
+        assertNotNull("second failure not logged", helper.waitForLineContaining("Exception: BB", MAX_WAIT_FOR_LINE));
+    }
+
+    private static Exception fail(final String message) {
+        // a new instance per call, thrown from the same place
+        return new IllegalStateException(message);
+    }
+}
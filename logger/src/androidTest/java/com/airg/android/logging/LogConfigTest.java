@@ -0,0 +1,165 @@
+/*
+ * ****************************************************************************
+ *   Copyright  2017 airG Inc.                                                 *
+ *                                                                             *
+ *   Licensed under the Apache License, Version 2.0 (the "License");           *
+ *   you may not use this file except in compliance with the License.          *
+ *   You may obtain a copy of the License at                                   *
+ *                                                                             *
+ *       http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                             *
+ *   Unless required by applicable law or agreed to in writing, software       *
+ *   distributed under the License is distributed on an "AS IS" BASIS,         *
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  *
+ *   See the License for the specific language governing permissions and       *
+ *   limitations under the License.                                            *
+ * ***************************************************************************
+ */
+
+package com.airg.android.logging;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+import static android.util.Log.DEBUG;
+import static android.util.Log.ERROR;
+import static android.util.Log.VERBOSE;
+import static android.util.Log.WARN;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@RunWith(AndroidJUnit4.class)
+public class LogConfigTest {
+    private final List<String> records = new ArrayList<>();
+
+    private final LogSink sink = new RecordingSink();
+
+    private class RecordingSink implements LogSink {
+        @Override
+        public void write(final int level, final String tag, final String message) {
+            records.add(tag + ":" + message);
+        }
+    }
+
+    private int rootLevel;
+    private String root;
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        rootLevel = Logger.getRootLevel();
+        root = "T" + Integer.toHexString(UUID.randomUUID().hashCode());
+        file = File.createTempFile("logconfig", ".properties");
+        Logger.addSink(sink);
+    }
+
+    @After
+    public void tearDown() {
+        Logger.stopWatchingConfig();
+        TagRegistry.configure(rootLevel,
+                Collections.<String, Integer>emptyMap(),
+                Collections.<String, Integer>emptyMap());
+        Logger.setDisabledSinks(Collections.<String>emptySet());
+        Logger.setLogcatEnabled(true);
+        assertTrue(Logger.removeSink(sink));
+        assertTrue(file.delete());
+    }
+
+    @Test
+    public void configIsApplied() throws Exception {
+        write("root=WARN\n"
+                + "level." + root + ".NET=ERROR\n"
+                + "level." + root + ".NET.HTTP=verbose\n"
+                + "logcat=false\n");
+        Logger.loadConfig(file);
+
+        assertEquals(WARN, Logger.getRootLevel());
+        assertEquals(ERROR, Logger.getTagLevel(root + ".NET.CACHE"));
+        assertEquals(VERBOSE, Logger.getTagLevel(root + ".NET.HTTP"));
+        assertFalse(Logger.isLogcatEnabled());
+    }
+
+    @Test
+    public void invalidConfigIsNotApplied() throws Exception {
+        Logger.setRootLevel(DEBUG);
+        write("root=ERROR\nlevel." + root + "=LOUD\n");
+
+        try {
+            Logger.loadConfig(file);
+            fail("invalid level accepted");
+        } catch (IllegalArgumentException expected) {
+            // expected
+        }
+
+        assertEquals(DEBUG, Logger.getRootLevel());
+        assertEquals(DEBUG, Logger.getTagLevel(root));
+    }
+
+    @Test
+    public void sinksCanBeDisabled() throws Exception {
+        write("sink.RecordingSink=false\n");
+        Logger.loadConfig(file);
+        Logger.tag(root).e("disabled");
+
+        write("sink.RecordingSink=true\n");
+        Logger.loadConfig(file);
+        Logger.tag(root).e("enabled");
+
+        assertEquals(1, records.size());
+        assertEquals(root + ":enabled", records.get(0));
+    }
+
+    @Test
+    public void samplingIsInherited() throws Exception {
+        write("sample." + root + "=0.25\n");
+        Logger.loadConfig(file);
+
+        final TaggedLogger logger = Logger.tag(root + ".CHILD");
+
+        for (int i = 0; i < 8; i++)
+            logger.e("record %d", i);
+
+        assertEquals(2, records.size());
+        assertEquals(root + ".CHILD:record 0", records.get(0));
+        assertEquals(root + ".CHILD:record 4", records.get(1));
+    }
+
+    @Test
+    public void watchedConfigIsApplied() throws Exception {
+        write("level." + root + "=ERROR\n");
+        Logger.watchConfig(file, 50);
+
+        final long start = System.currentTimeMillis();
+
+        while (Logger.getTagLevel(root) != ERROR) {
+            if (System.currentTimeMillis() - start > 5000)
+                fail("config not applied");
+
+            Thread.sleep(50);
+        }
+    }
+
+    private void write(final String config) throws IOException {
+        final FileWriter writer = new FileWriter(file);
+
+        try {
+            writer.write(config);
+        } finally {
+            writer.close();
+        }
+    }
+}
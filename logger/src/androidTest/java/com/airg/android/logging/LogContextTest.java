@@ -0,0 +1,127 @@
+/*
+ * ****************************************************************************
+ *   Copyright  2017 airG Inc.                                                 *
+ *                                                                             *
+ *   Licensed under the Apache License, Version 2.0 (the "License");           *
+ *   you may not use this file except in compliance with the License.          *
+ *   You may obtain a copy of the License at                                   *
+ *                                                                             *
+ *       http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                             *
+ *   Unless required by applicable law or agreed to in writing, software       *
+ *   distributed under the License is distributed on an "AS IS" BASIS,         *
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  *
+ *   See the License for the specific language governing permissions and       *
+ *   limitations under the License.                                            *
+ * ***************************************************************************
+ */
+package com.airg.android.logging;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class LogContextTest {
+    private static final String TAG = "CONTEXT";
+
+    private final List<String> records = new ArrayList<>();
+
+    private final LogSink sink = new LogSink() {
+        @Override
+        public void write(final int level, final String tag, final String message) {
+            synchronized (records) {
+                if (TAG.equals(tag))
+                    records.add(message);
+            }
+        }
+    };
+
+    @Before
+    public void addSink() {
+        LogContext.clear();
+        Logger.addSink(sink);
+    }
+
+    @After
+    public void removeSink() {
+        Logger.removeSink(sink);
+        LogContext.clear();
+    }
+
+    @Test
+    public void contextIsPrependedToRecords() throws Exception {
+        Logger.i(TAG, "no context");
+        LogContext.put("session", "s1");
+        LogContext.put("screen", "feed");
+        Logger.i(TAG, "with context %d", 2);
+        LogContext.remove("screen");
+        Logger.i(TAG, "less context");
+
+        assertEquals("no context", records.get(0));
+        assertEquals("[screen=feed session=s1] with context 2", records.get(1));
+        assertEquals("[session=s1] less context", records.get(2));
+    }
+
+    @Test
+    public void snapshotsAreSharedUntilChanged() throws Exception {
+        LogContext.put("request", "42");
+        final LogContext.Snapshot first = LogContext.current();
+
+        assertSame(first, LogContext.current());
+        assertSame(first.prefix(), LogContext.current().prefix());
+
+        LogContext.put("request", "42");
+        assertSame("setting the same value replaced the snapshot", first, LogContext.current());
+
+        LogContext.put("request", "43");
+        assertEquals("42", first.get("request"));
+        assertEquals("43", LogContext.get("request"));
+    }
+
+    @Test
+    public void contextFollowsWrappedTasks() throws Exception {
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+        try {
+            LogContext.put("request", "r7");
+            executor.execute(LogContext.wrap(new Runnable() {
+                @Override
+                public void run() {
+                    Logger.d(TAG, "handed off");
+                }
+            }));
+
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    // the worker's own context is restored after the wrapped task
+                    assertNull(LogContext.get("request"));
+                    Logger.d(TAG, "not wrapped");
+                }
+            });
+        } finally {
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        }
+
+        synchronized (records) {
+            assertEquals("[request=r7] handed off", records.get(0));
+            assertEquals("not wrapped", records.get(1));
+        }
+    }
+}
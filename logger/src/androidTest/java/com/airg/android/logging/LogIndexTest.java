@@ -0,0 +1,120 @@
+/*
+ * ****************************************************************************
+ *   Copyright  2017 airG Inc.                                                 *
+ *                                                                             *
+ *   Licensed under the Apache License, Version 2.0 (the "License");           *
+ *   you may not use this file except in compliance with the License.          *
+ *   You may obtain a copy of the License at                                   *
+ *                                                                             *
+ *       http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                             *
+ *   Unless required by applicable law or agreed to in writing, software       *
+ *   distributed under the License is distributed on an "AS IS" BASIS,         *
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  *
+ *   See the License for the specific language governing permissions and       *
+ *   limitations under the License.                                            *
+ * ***************************************************************************
+ */
+package com.airg.android.logging;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+import static android.util.Log.ERROR;
+import static android.util.Log.WARN;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class LogIndexTest {
+    private static final String[] LINES = {
+            "I/Upload( 1234): upload started: photo.jpg",
+            "W/Upload( 1234): upload slow, retrying",
+            "E/Upload( 1234): upload failed: timeout",
+            "D/Cache( 1234): cache miss photo.jpg",
+            "E/Cache( 1234): Cache write FAILED",
+            "--------- beginning of main",
+    };
+
+    @Test
+    public void findsLinesByTagLevelAndWords() {
+        final LogIndex index = new LogIndex(100);
+
+        for (final String line : LINES)
+            index.add(line);
+
+        assertEquals(Arrays.asList(LINES[0], LINES[1], LINES[2]), find(index, new LogIndex.Query().tag("Upload")));
+        assertEquals(Arrays.asList(LINES[2], LINES[4]), find(index, new LogIndex.Query().level(ERROR)));
+        assertEquals(Arrays.asList(LINES[1], LINES[2], LINES[4]), find(index, new LogIndex.Query().level(WARN)));
+        assertEquals(Arrays.asList(LINES[2], LINES[4]), find(index, new LogIndex.Query().words("failed")));
+        assertEquals(Collections.singletonList(LINES[4]),
+                find(index, new LogIndex.Query().tag("Cache").words("Failed")));
+        assertEquals(Arrays.asList(LINES[0], LINES[3]), find(index, new LogIndex.Query().words("photo jpg")));
+        assertEquals(Collections.singletonList(LINES[3]), find(index, new LogIndex.Query().contains("miss")));
+        assertEquals(Collections.singletonList(LINES[5]), find(index, new LogIndex.Query().words("beginning")));
+        assertEquals(0, find(index, new LogIndex.Query().words("nowhere")).size());
+        assertEquals(0, find(index, new LogIndex.Query().tag("Upload").contains("Upload")).size());
+    }
+
+    @Test
+    public void limitReturnsNewestMatches() {
+        final LogIndex index = new LogIndex(100);
+
+        for (int i = 0; i < 10; i++)
+            index.add("I/Counter( 1234): count " + i);
+
+        assertEquals(Arrays.asList("I/Counter( 1234): count 8", "I/Counter( 1234): count 9"),
+                index.find(new LogIndex.Query().words("count"), 2));
+    }
+
+    @Test
+    public void filtersThreadtimeLinesByTimeWindow() {
+        final SimpleDateFormat format = new SimpleDateFormat("MM-dd HH:mm:ss.SSS", Locale.ENGLISH);
+        final long base = (System.currentTimeMillis() - 60000) / 1000 * 1000;
+        final LogIndex index = new LogIndex(100);
+
+        for (int i = 0; i < 10; i++)
+            index.add(format.format(new Date(base + i * 1000 + 500)) + "  1234  5678 I Clock   : tick " + i);
+
+        final List<String> window = find(index, new LogIndex.Query().between(base + 3000, base + 6000));
+        assertEquals(3, window.size());
+        assertTrue(window.get(0).endsWith("Clock   : tick 3"));
+        assertTrue(window.get(2).endsWith("Clock   : tick 5"));
+
+        assertEquals(1, find(index, new LogIndex.Query().tag("Clock").words("tick 7")
+                .between(base, base + 60000)).size());
+    }
+
+    @Test
+    public void evictsWithTheRing() {
+        final LogIndex index = new LogIndex(1000);
+
+        for (int i = 0; i < 100000; i++)
+            index.add((i % 100 == 0 ? "E" : "V") + "/Flood( 1234): line " + i + (i % 100 == 0 ? " boom" : ""));
+
+        assertEquals(1000, index.size());
+        assertEquals(10, find(index, new LogIndex.Query().level(ERROR)).size());
+        assertEquals(10, find(index, new LogIndex.Query().words("boom")).size());
+        assertEquals(0, find(index, new LogIndex.Query().words("0")).size());
+        assertEquals(1, find(index, new LogIndex.Query().words("99999")).size());
+        assertEquals("E/Flood( 1234): line 99000 boom",
+                index.find(new LogIndex.Query().tag("Flood").level(ERROR), 10).get(0));
+
+        index.clear();
+        assertEquals(0, index.size());
+        assertEquals(0, find(index, new LogIndex.Query()).size());
+    }
+
+    private static List<String> find(final LogIndex index, final LogIndex.Query query) {
+        return index.find(query, Integer.MAX_VALUE);
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * ****************************************************************************
+ *   Copyright  2017 airG Inc.                                                 *
+ *                                                                             *
+ *   Licensed under the Apache License, Version 2.0 (the "License");           *
+ *   you may not use this file except in compliance with the License.          *
+ *   You may obtain a copy of the License at                                   *
+ *                                                                             *
+ *       http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                             *
+ *   Unless required by applicable law or agreed to in writing, software       *
+ *   distributed under the License is distributed on an "AS IS" BASIS,         *
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  *
+ *   See the License for the specific language governing permissions and       *
+ *   limitations under the License.                                            *
+ * ***************************************************************************
+ */
+package com.airg.android.logging;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+import static android.util.Log.ERROR;
+import static android.util.Log.INFO;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class LogMergerTest {
+    private static final long WINDOW = 60000;
+
+    private final long base = System.currentTimeMillis() - 3600000;
+
+    @Test
+    public void mergesInterleavedSourcesByTimestamp() {
+        final Collector output = new Collector();
+        final LogMerger merger = new LogMerger(output, WINDOW, 1000);
+        final LogMerger.Source main = merger.source("main");
+        final LogMerger.Source system = merger.source("system");
+
+        main.onStart();
+        system.onStart();
+        main.onLogLine(line(0, "main zero"));
+        main.onLogLine(line(20, "main twenty"));
+        main.onLogLine(line(30, "main thirty"));
+        system.onLogLine(line(10, "system ten"));
+        system.onLogLine(line(25, "system twenty five"));
+
+        // main is at 30, system at 25: everything up to 25 can go
+        assertEquals(Arrays.asList(line(0, "main zero"), line(10, "system ten"), line(20, "main twenty"),
+                line(25, "system twenty five")), output.lines);
+
+        system.onLogLine(line(40, "system forty"));
+        assertEquals(line(30, "main thirty"), output.lines.get(4));
+
+        main.onFinished();
+        assertEquals(0, output.finished);
+        system.onFinished();
+
+        assertEquals(6, output.lines.size());
+        assertEquals(line(40, "system forty"), output.lines.get(5));
+        assertEquals(1, output.started);
+        assertEquals(1, output.finished);
+        assertEquals(6, merger.getMergedCount());
+        assertEquals(2, merger.getOutOfOrderCount());
+        assertEquals(0, merger.getLateCount());
+        assertEquals(0, merger.getPendingCount());
+    }
+
+    @Test
+    public void boundedWindowCountsLateLines() {
+        final Collector output = new Collector();
+        final LogMerger merger = new LogMerger(output, WINDOW, 2);
+        final LogMerger.Source events = merger.source("events");
+        final LogMerger.Source crash = merger.source("crash");
+
+        events.onLogLine(line(10, "one"));
+        events.onLogLine(line(20, "two"));
+        events.onLogLine(line(30, "three"));
+
+        // crash has nothing yet, but only two lines may be held
+        assertEquals(Collections.singletonList(line(10, "one")), output.lines);
+
+        crash.onLogLine(line(5, "crash"));
+        merger.close();
+
+        assertEquals(Arrays.asList(line(10, "one"), line(5, "crash"), line(20, "two"), line(30, "three")),
+                output.lines);
+        assertEquals(1, merger.getOutOfOrderCount());
+        assertEquals(1, merger.getLateCount());
+        assertEquals(1, output.finished);
+    }
+
+    @Test
+    public void mergesFileRecordsWithLogcatLines() {
+        final Collector output = new Collector();
+        final LogMerger merger = new LogMerger(output, WINDOW, 1000);
+        final LogMerger.Source logcat = merger.source("logcat");
+        final LogMerger.Source file = merger.source("file");
+
+        logcat.onLogLine(line(0, "first"));
+        logcat.onLogLine("undated line");
+        logcat.onLogLine(line(20, "third"));
+        file.onRecord(base + 10000, ERROR, "Upload", "upload failed");
+        file.finish();
+        logcat.onFinished();
+
+        assertEquals(Arrays.asList(line(0, "first"), "undated line", time(10) + " E/Upload(    0): upload failed",
+                line(20, "third")), output.lines);
+        assertEquals(1, merger.getOutOfOrderCount());
+        assertEquals(0, merger.getLateCount());
+    }
+
+    @Test
+    public void fileRecordsCanBeIndexed() {
+        final LogIndex index = new LogIndex(100);
+        final LogMerger merger = new LogMerger(index, WINDOW, 1000);
+        final LogMerger.Source file = merger.source("file");
+
+        file.onRecord(base + 10000, ERROR, "Upload", "upload failed");
+        file.onRecord(base + 11000, INFO, "Upload", "upload started");
+        file.finish();
+
+        final List<String> found = index.find(new LogIndex.Query().tag("Upload").level(ERROR), 10);
+        assertEquals(Collections.singletonList(time(10) + " E/Upload(    0): upload failed"), found);
+    }
+
+    @Test
+    public void quietSourcesAreNotWaitedFor() throws InterruptedException {
+        final Collector output = new Collector();
+        final LogMerger merger = new LogMerger(output, 100, 1000);
+        final LogMerger.Source main = merger.source("main");
+        merger.source("crash");
+
+        main.onLogLine(line(0, "main"));
+        assertEquals(0, output.size());
+
+        final long deadline = System.currentTimeMillis() + 5000;
+
+        while (output.size() == 0 && System.currentTimeMillis() < deadline)
+            Thread.sleep(20);
+
+        assertEquals(Collections.singletonList(line(0, "main")), output.snapshot());
+        merger.close();
+        assertTrue(output.finished == 1);
+    }
+
+    private String line(final int seconds, final String message) {
+        return time(seconds) + "  1234  1234 I Merge   : " + message;
+    }
+
+    private String time(final int seconds) {
+        return new SimpleDateFormat("MM-dd HH:mm:ss.SSS", Locale.US).format(new Date(base + seconds * 1000L));
+    }
+
+    private static final class Collector implements LogCatcher.OnLogLinesListener {
+        private final List<String> lines = new ArrayList<>();
+        private int started = 0;
+        private int finished = 0;
+
+        @Override
+        public synchronized void onLogLine(final String logLine) {
+            lines.add(logLine);
+        }
+
+        @Override
+        public synchronized void onStart() {
+            started++;
+        }
+
+        @Override
+        public synchronized void onFinished() {
+            finished++;
+        }
+
+        @Override
+        public void onError(final Throwable t) {
+            throw new AssertionError(t);
+        }
+
+        private synchronized int size() {
+            return lines.size();
+        }
+
+        private synchronized List<String> snapshot() {
+            return new ArrayList<>(lines);
+        }
+    }
+}
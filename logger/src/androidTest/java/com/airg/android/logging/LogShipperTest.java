@@ -0,0 +1,308 @@
+/*
+ * ****************************************************************************
+ *   Copyright  2017 airG Inc.                                                 *
+ *                                                                             *
+ *   Licensed under the Apache License, Version 2.0 (the "License");           *
+ *   you may not use this file except in compliance with the License.          *
+ *   You may obtain a copy of the License at                                   *
+ *                                                                             *
+ *       http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                             *
+ *   Unless required by applicable law or agreed to in writing, software       *
+ *   distributed under the License is distributed on an "AS IS" BASIS,         *
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  *
+ *   See the License for the specific language governing permissions and       *
+ *   limitations under the License.                                            *
+ * ***************************************************************************
+ */
+
+package com.airg.android.logging;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.util.Locale;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+import static android.util.Log.ERROR;
+import static android.util.Log.INFO;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class LogShipperTest {
+    private Collector collector;
+    private File spool;
+
+    @Before
+    public void setUp() throws IOException {
+        collector = new Collector();
+        spool = File.createTempFile("spool", "");
+        assertTrue(spool.delete());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        collector.close();
+        final File[] files = spool.listFiles();
+
+        if (null != files) {
+            for (final File file : files)
+                assertTrue(file.delete());
+        }
+
+        assertTrue(spool.delete());
+    }
+
+    @Test
+    public void batchesAreCompressedAndPosted() throws Exception {
+        final LogShipper shipper = new LogShipper(collector.url(), spool);
+        shipper.start();
+
+        try {
+            shipper.write(INFO, "TAG", "from a sink");
+            shipper.onLogLine("from logcat");
+            shipper.flush();
+
+            final String body = collector.batches.poll(10, TimeUnit.SECONDS);
+            assertNotNull(body);
+            assertTrue(body, body.matches("\\d+ I/TAG: from a sink\nfrom logcat\n"));
+        } finally {
+            shipper.close();
+        }
+
+        assertEquals(1, shipper.getSentBatchCount());
+    }
+
+    @Test
+    public void batchesAreSpooledWhileOfflineAndDeliveredInOrder() throws Exception {
+        final LogShipper shipper = new LogShipper(collector.url(), spool);
+        shipper.setBackoff(50, 200);
+        shipper.start();
+
+        try {
+            collector.status = 503;
+
+            for (int i = 0; i < 10; i++) {
+                shipper.write(ERROR, "TAG", "record " + i);
+                shipper.flush();
+                Thread.sleep(20);
+            }
+
+            collector.status = 200;
+            final StringBuilder received = new StringBuilder();
+
+            while (!received.toString().contains("record 9")) {
+                final String body = collector.batches.poll(10, TimeUnit.SECONDS);
+                assertNotNull(body);
+                received.append(body);
+            }
+
+            final String[] lines = received.toString().split("\n");
+            assertEquals(10, lines.length);
+
+            for (int i = 0; i < lines.length; i++)
+                assertTrue(lines[i], lines[i].endsWith("E/TAG: record " + i));
+        } finally {
+            shipper.close();
+        }
+    }
+
+    @Test
+    public void spooledBatchesAreSentAfterRestart() throws Exception {
+        final LogShipper first = new LogShipper(collector.url(), spool);
+        first.setBatchLimits(1024, 60000);
+        first.start();
+        first.write(INFO, "TAG", "left over");
+        first.close();
+
+        assertEquals(0, first.getSentBatchCount());
+
+        final LogShipper second = new LogShipper(collector.url(), spool);
+        second.start();
+
+        try {
+            final String body = collector.batches.poll(10, TimeUnit.SECONDS);
+            assertNotNull(body);
+            assertTrue(body, body.endsWith("I/TAG: left over\n"));
+        } finally {
+            second.close();
+        }
+    }
+
+    @Test
+    public void deliveredRecordsAreNotSentAgain() throws Exception {
+        final LogShipper first = new LogShipper(collector.url(), spool);
+        first.start();
+
+        try {
+            first.write(INFO, "TAG", "delivered");
+            first.flush();
+            assertNotNull(collector.batches.poll(10, TimeUnit.SECONDS));
+        } finally {
+            first.close();
+        }
+
+        final LogShipper second = new LogShipper(collector.url(), spool);
+        second.start();
+
+        try {
+            second.write(INFO, "TAG", "new");
+            second.flush();
+
+            final String body = collector.batches.poll(10, TimeUnit.SECONDS);
+            assertNotNull(body);
+            assertTrue(body, body.matches("\\d+ I/TAG: new\n"));
+        } finally {
+            second.close();
+        }
+    }
+
+    @Test
+    public void batchesStayWithinTheCharacterLimit() throws Exception {
+        final StringBuilder big = new StringBuilder();
+
+        while (big.length() < 500)
+            big.append("oversized ");
+
+        // spooled before the shipper runs, so the whole backlog is there to be read at once
+        final LogShipper first = new LogShipper(collector.url(), spool);
+
+        for (int i = 0; i < 40; i++)
+            first.write(INFO, "TAG", i == 20 ? big.toString() : "record " + i);
+
+        first.close();
+
+        final LogShipper second = new LogShipper(collector.url(), spool);
+        second.setBatchLimits(300, 60000);
+        second.start();
+
+        try {
+            final StringBuilder received = new StringBuilder();
+
+            while (!received.toString().contains("record 39")) {
+                final String body = collector.batches.poll(10, TimeUnit.SECONDS);
+                assertNotNull(body);
+
+                if (body.contains("oversized"))
+                    assertEquals(body, 1, body.split("\n").length);
+                else
+                    assertTrue("batch too long: " + body.length(), body.length() <= 300);
+
+                received.append(body);
+            }
+
+            assertEquals(40, received.toString().split("\n").length);
+        } finally {
+            second.close();
+        }
+    }
+
+    /**
+     * Minimal HTTP server standing in for a log collector
+     */
+    private static class Collector implements Runnable {
+        private final ServerSocket server;
+        private final BlockingQueue<String> batches = new LinkedBlockingQueue<>();
+        private volatile int status = 200;
+
+        private Collector() throws IOException {
+            server = new ServerSocket(0, 8, InetAddress.getByName("127.0.0.1"));
+            new Thread(this, "Collector").start();
+        }
+
+        private URL url() throws IOException {
+            return new URL("http://127.0.0.1:" + server.getLocalPort() + "/logs");
+        }
+
+        private void close() throws IOException {
+            server.close();
+        }
+
+        @Override
+        public void run() {
+            while (!server.isClosed()) {
+                try {
+                    final Socket socket = server.accept();
+
+                    try {
+                        handle(socket);
+                    } finally {
+                        socket.close();
+                    }
+                } catch (IOException e) {
+                    // closed
+                }
+            }
+        }
+
+        private void handle(final Socket socket) throws IOException {
+            final DataInputStream in = new DataInputStream(socket.getInputStream());
+            int length = 0;
+            String line;
+
+            while (!(line = readLine(in)).isEmpty()) {
+                final String header = line.toLowerCase(Locale.ENGLISH);
+
+                if (header.startsWith("content-length:"))
+                    length = Integer.parseInt(header.substring(header.indexOf(':') + 1).trim());
+            }
+
+            final byte[] body = new byte[length];
+            in.readFully(body);
+
+            final int code = status;
+
+            if (code == 200)
+                batches.add(gunzip(body));
+
+            final OutputStream out = socket.getOutputStream();
+            out.write(("HTTP/1.1 " + code + " Status\r\nContent-Length: 0\r\nConnection: close\r\n\r\n")
+                    .getBytes("US-ASCII"));
+            out.flush();
+        }
+
+        private static String readLine(final InputStream in) throws IOException {
+            final StringBuilder sb = new StringBuilder();
+            int c;
+
+            while ((c = in.read()) >= 0 && c != '\n') {
+                if (c != '\r')
+                    sb.append((char) c);
+            }
+
+            return sb.toString();
+        }
+
+        private static String gunzip(final byte[] body) throws IOException {
+            final InputStream in = new GZIPInputStream(new ByteArrayInputStream(body));
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[4096];
+            int read;
+
+            while ((read = in.read(buffer)) > 0)
+                out.write(buffer, 0, read);
+
+            return out.toString("UTF-8");
+        }
+    }
+}
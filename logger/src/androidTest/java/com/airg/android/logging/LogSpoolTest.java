@@ -0,0 +1,193 @@
+/*
+ * ****************************************************************************
+ *   Copyright  2017 airG Inc.                                                 *
+ *                                                                             *
+ *   Licensed under the Apache License, Version 2.0 (the "License");           *
+ *   you may not use this file except in compliance with the License.          *
+ *   You may obtain a copy of the License at                                   *
+ *                                                                             *
+ *       http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                             *
+ *   Unless required by applicable law or agreed to in writing, software       *
+ *   distributed under the License is distributed on an "AS IS" BASIS,         *
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  *
+ *   See the License for the specific language governing permissions and       *
+ *   limitations under the License.                                            *
+ * ***************************************************************************
+ */
+
+package com.airg.android.logging;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static android.util.Log.INFO;
+import static android.util.Log.WARN;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class LogSpoolTest {
+    private final List<String> records = new ArrayList<>();
+
+    private final MappedLogSink.RecordListener listener = new MappedLogSink.RecordListener() {
+        @Override
+        public void onRecord(final long timestamp, final int level, final String tag, final String message) {
+            records.add(level + "/" + tag + ":" + message);
+        }
+    };
+
+    private File directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = File.createTempFile("spool", "");
+        assertTrue(directory.delete());
+    }
+
+    @After
+    public void tearDown() {
+        for (final File file : directory.listFiles())
+            assertTrue(file.delete());
+
+        assertTrue(directory.delete());
+    }
+
+    @Test
+    public void recordsAreReadBackInBatches() throws Exception {
+        final LogSpool spool = new LogSpool(directory, 64 * 1024, 1024);
+
+        try {
+            for (int i = 0; i < 100; i++)
+                spool.write(INFO, "TAG", "record \u00e9 " + i);
+
+            long position = spool.getAckedPosition();
+
+            while (position < spool.getEndPosition())
+                position = spool.read(position, 7, listener);
+
+            assertEquals(100, records.size());
+
+            for (int i = 0; i < 100; i++)
+                assertEquals(INFO + "/TAG:record \u00e9 " + i, records.get(i));
+        } finally {
+            spool.close();
+        }
+    }
+
+    @Test
+    public void readsStopAtTheByteBudget() throws Exception {
+        final LogSpool spool = new LogSpool(directory, 64 * 1024, 1024);
+
+        try {
+            for (int i = 0; i < 10; i++)
+                spool.write(INFO, "TAG", "record " + i);
+
+            final long start = spool.getAckedPosition();
+            final long record = (spool.getEndPosition() - start) / 10;
+
+            // room for three records and a half
+            final long position = spool.read(start, 100, record * 7 / 2, listener);
+            assertEquals(3, records.size());
+            assertEquals(start + 3 * record, position);
+
+            // nothing fits
+            assertEquals(position, spool.read(position, 100, record - 1, listener));
+            assertEquals(3, records.size());
+        } finally {
+            spool.close();
+        }
+    }
+
+    @Test
+    public void acknowledgedSegmentsAreDeleted() throws Exception {
+        final LogSpool spool = new LogSpool(directory, 64 * 1024, 1024);
+
+        try {
+            for (int i = 0; i < 100; i++)
+                spool.write(INFO, "TAG", "record " + i);
+
+            final int segments = directory.listFiles().length;
+            final long position = spool.read(spool.getAckedPosition(), 90, listener);
+            spool.ack(position);
+
+            assertTrue(directory.listFiles().length < segments);
+
+            records.clear();
+            spool.read(spool.getAckedPosition(), 100, listener);
+            assertEquals(10, records.size());
+            assertEquals(INFO + "/TAG:record 90", records.get(0));
+        } finally {
+            spool.close();
+        }
+    }
+
+    @Test
+    public void oldestSegmentsAreEvicted() throws Exception {
+        final LogSpool spool = new LogSpool(directory, 4 * 1024, 1024);
+
+        try {
+            for (int i = 0; i < 1000; i++)
+                spool.write(WARN, "TAG", "record " + i);
+
+            assertTrue(spool.getSize() <= 4 * 1024);
+            assertTrue(spool.getEvictedSegmentCount() > 0);
+
+            spool.read(spool.getAckedPosition(), 1000, listener);
+            assertEquals(WARN + "/TAG:record 999", records.get(records.size() - 1));
+        } finally {
+            spool.close();
+        }
+    }
+
+    @Test
+    public void cursorAndRecordsSurviveReopening() throws Exception {
+        LogSpool spool = new LogSpool(directory, 64 * 1024, 1024);
+
+        for (int i = 0; i < 10; i++)
+            spool.write(INFO, "TAG", "record " + i);
+
+        spool.ack(spool.read(spool.getAckedPosition(), 4, listener));
+        final long end = spool.getEndPosition();
+        spool.close();
+
+        // a torn record at the end
+        final File[] files = directory.listFiles();
+        File newest = null;
+
+        for (final File file : files) {
+            if (file.getName().endsWith(".seg") && (null == newest || file.getName().compareTo(newest.getName()) > 0))
+                newest = file;
+        }
+
+        final FileOutputStream out = new FileOutputStream(newest, true);
+        out.write(new byte[]{0, 0, 0, 40, 1, 2, 3});
+        out.close();
+
+        spool = new LogSpool(directory, 64 * 1024, 1024);
+
+        try {
+            assertEquals(end, spool.getEndPosition());
+            spool.write(INFO, "TAG", "after reopening");
+
+            records.clear();
+            spool.read(spool.getAckedPosition(), 100, listener);
+
+            assertEquals(7, records.size());
+            assertEquals(INFO + "/TAG:record 4", records.get(0));
+            assertEquals(INFO + "/TAG:after reopening", records.get(6));
+        } finally {
+            spool.close();
+        }
+    }
+}
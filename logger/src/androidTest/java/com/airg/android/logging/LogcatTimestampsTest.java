@@ -0,0 +1,69 @@
+/*
+ * ****************************************************************************
+ *   Copyright  2017 airG Inc.                                                 *
+ *                                                                             *
+ *   Licensed under the Apache License, Version 2.0 (the "License");           *
+ *   you may not use this file except in compliance with the License.          *
+ *   You may obtain a copy of the License at                                   *
+ *                                                                             *
+ *       http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                             *
+ *   Unless required by applicable law or agreed to in writing, software       *
+ *   distributed under the License is distributed on an "AS IS" BASIS,         *
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  *
+ *   See the License for the specific language governing permissions and       *
+ *   limitations under the License.                                            *
+ * ***************************************************************************
+ */
+package com.airg.android.logging;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(AndroidJUnit4.class)
+public class LogcatTimestampsTest {
+    private static final long HOUR_MILLIS = 60 * 60 * 1000L;
+    private static final long DAY_MILLIS = 24 * HOUR_MILLIS;
+
+    @Test
+    public void parsesTimesAcrossDaylightSavingChanges() {
+        final TimeZone original = TimeZone.getDefault();
+        final TimeZone zone = TimeZone.getTimeZone("America/Vancouver");
+        TimeZone.setDefault(zone);
+
+        try {
+            final SimpleDateFormat format = new SimpleDateFormat("MM-dd HH:mm:ss.SSS", Locale.US);
+            final LogcatTimestamps timestamps = new LogcatTimestamps();
+            final long now = System.currentTimeMillis();
+
+            // every 20 minutes over (most of) the past year, which takes in both changes
+            for (long time = now - 362 * DAY_MILLIS; time < now - 2 * DAY_MILLIS; time += 20 * 60 * 1000L + 7) {
+                // the hour that repeats when the clocks go back is ambiguous
+                if (zone.getOffset(time - HOUR_MILLIS) != zone.getOffset(time + HOUR_MILLIS))
+                    continue;
+
+                final String line = format.format(new Date(time)) + "  1234  5678 I Clock   : tick";
+                assertEquals(line, time, timestamps.parse(line));
+            }
+        } finally {
+            TimeZone.setDefault(original);
+        }
+    }
+
+    @Test
+    public void rejectsLinesWithoutATimestamp() {
+        final LogcatTimestamps timestamps = new LogcatTimestamps();
+        assertEquals(Long.MIN_VALUE, timestamps.parse("--------- beginning of main"));
+        assertEquals(Long.MIN_VALUE, timestamps.parse("I/Upload( 1234): upload started"));
+        assertEquals(Long.MIN_VALUE, timestamps.parse("01-02 03:04:05.0x6 I/Upload( 1234): upload started"));
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * ****************************************************************************
+ *   Copyright  2017 airG Inc.                                                 *
+ *                                                                             *
+ *   Licensed under the Apache License, Version 2.0 (the "License");           *
+ *   you may not use this file except in compliance with the License.          *
+ *   You may obtain a copy of the License at                                   *
+ *                                                                             *
+ *       http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                             *
+ *   Unless required by applicable law or agreed to in writing, software       *
+ *   distributed under the License is distributed on an "AS IS" BASIS,         *
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  *
+ *   See the License for the specific language governing permissions and       *
+ *   limitations under the License.                                            *
+ * ***************************************************************************
+ */
+package com.airg.android.logging;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import static android.util.Log.INFO;
+import static android.util.Log.WARN;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class MappedLogSinkTest {
+    private static final int CAPACITY = 8 * 1024;
+
+    private File file;
+
+    @Before
+    public void createFile() throws Exception {
+        file = File.createTempFile("mapped", ".log");
+        assertTrue(file.delete());
+    }
+
+    @After
+    public void deleteFile() {
+        file.delete();
+    }
+
+    @Test
+    public void recordsSurviveWithoutClose() throws Exception {
+        final MappedLogSink sink = new MappedLogSink(file, CAPACITY);
+        sink.write(INFO, "MAPPED", "first");
+        sink.write(WARN, "MAPPED", "second \u00e9");
+
+        // no close(): the process "died"
+        final List<String> records = recover();
+        assertEquals(2, records.size());
+        assertEquals(INFO + "/MAPPED: first", records.get(0));
+        assertEquals(WARN + "/MAPPED: second \u00e9", records.get(1));
+    }
+
+    @Test
+    public void oldestRecordsAreOverwritten() throws Exception {
+        final MappedLogSink sink = new MappedLogSink(file, CAPACITY);
+
+        for (int i = 0; i < 1000; i++)
+            sink.write(INFO, "MAPPED", "record " + i);
+
+        sink.close();
+
+        final List<String> records = recover();
+        assertTrue("too few records recovered: " + records.size(), records.size() > 10);
+        assertEquals(INFO + "/MAPPED: record 999", records.get(records.size() - 1));
+
+        // in order, no gaps
+        final int first = 1000 - records.size();
+
+        for (int i = 0; i < records.size(); i++)
+            assertEquals(INFO + "/MAPPED: record " + (first + i), records.get(i));
+    }
+
+    @Test
+    public void reopeningKeepsRecords() throws Exception {
+        new MappedLogSink(file, CAPACITY).write(INFO, "MAPPED", "before");
+
+        final MappedLogSink reopened = new MappedLogSink(file, CAPACITY);
+        reopened.write(INFO, "MAPPED", "after");
+        reopened.close();
+
+        final List<String> records = recover();
+        assertEquals(2, records.size());
+        assertEquals(INFO + "/MAPPED: before", records.get(0));
+        assertEquals(INFO + "/MAPPED: after", records.get(1));
+    }
+
+    private List<String> recover() throws Exception {
+        final List<String> records = new ArrayList<>();
+
+        MappedLogSink.recover(file, new MappedLogSink.RecordListener() {
+            @Override
+            public void onRecord(final long timestamp, final int level, final String tag, final String message) {
+                records.add(level + "/" + tag + ": " + message);
+            }
+        });
+
+        return records;
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * ****************************************************************************
+ *   Copyright  2017 airG Inc.                                                 *
+ *                                                                             *
+ *   Licensed under the Apache License, Version 2.0 (the "License");           *
+ *   you may not use this file except in compliance with the License.          *
+ *   You may obtain a copy of the License at                                   *
+ *                                                                             *
+ *       http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                             *
+ *   Unless required by applicable law or agreed to in writing, software       *
+ *   distributed under the License is distributed on an "AS IS" BASIS,         *
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  *
+ *   See the License for the specific language governing permissions and       *
+ *   limitations under the License.                                            *
+ * ***************************************************************************
+ */
+package com.airg.android.logging;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class MessageChunkerTest {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final String TAG = "CHUNK";
+    private static final String HEADER = "D/" + TAG + "( 1234): ";
+
+    @Test
+    public void shortMessagesAreNotSplit() throws Exception {
+        assertNull(MessageChunker.split(TAG, "A short message"));
+        assertNull(MessageChunker.split(TAG, repeat('x', 4000)));
+    }
+
+    @Test
+    public void chunksFitInOneEntry() throws Exception {
+        final String msg = repeat('\u00e9', 5000) + repeat('x', 5000);
+        final List<String> chunks = chunk(msg);
+
+        assertTrue("message was not split", chunks.size() > 1);
+
+        for (final String chunk : chunks)
+            assertTrue("chunk too long: " + chunk.getBytes(UTF8).length,
+                    chunk.getBytes(UTF8).length + TAG.length() + 3 <= MessageChunker.MAX_PAYLOAD);
+    }
+
+    @Test
+    public void surrogatePairsAreNotSplit() throws Exception {
+        final StringBuilder sb = new StringBuilder();
+
+        for (int i = 0; i < 3000; i++)
+            sb.append("x\uD83D\uDE00");
+
+        for (final String chunk : chunk(sb.toString())) {
+            assertFalse("chunk starts with a low surrogate", Character.isLowSurrogate(chunk.charAt(chunk.indexOf(' ') + 1)));
+            assertFalse("chunk ends with a high surrogate", Character.isHighSurrogate(chunk.charAt(chunk.length() - 1)));
+        }
+    }
+
+    @Test
+    public void newlinesArePreferred() throws Exception {
+        final String line = repeat('y', 99);
+        final StringBuilder sb = new StringBuilder();
+
+        for (int i = 0; i < 100; i++)
+            sb.append(line).append('\n');
+
+        final int[] ends = MessageChunker.split(TAG, sb.toString());
+        assertNotNull("message was not split", ends);
+
+        for (int i = 0; i < ends.length - 1; i++)
+            assertEquals("split in the middle of a line", '\n', sb.charAt(ends[i]));
+    }
+
+    @Test
+    public void reassemblesChunks() throws Exception {
+        final StringBuilder sb = new StringBuilder("{\"items\": [");
+
+        for (int i = 0; i < 1000; i++)
+            sb.append(i % 50 == 0 ? "\n" : "").append("{\"id\": ").append(i).append("}, ");
+
+        final String msg = sb.append("]}").toString();
+        final List<String> lines = new ArrayList<>();
+
+        for (final String chunk : chunk(msg)) {
+            for (final String line : chunk.split("\n", -1))
+                lines.add(HEADER + line);
+
+            lines.add("I/OTHER( 4321): interleaved");
+        }
+
+        final List<String> reassembled = new ArrayList<>();
+        final ChunkReassembler reassembler = new ChunkReassembler(new ChunkReassembler.Output() {
+            @Override
+            public void onLine(final String line) {
+                if (line.startsWith(HEADER))
+                    reassembled.add(line.substring(HEADER.length()));
+            }
+        });
+
+        for (final String line : lines)
+            reassembler.feed(line);
+
+        reassembler.flush();
+        assertEquals(Arrays.asList(msg.split("\n", -1)), reassembled);
+    }
+
+    @Test
+    public void orphanedChunkIsNotHeldBack() throws Exception {
+        final List<String> output = new CopyOnWriteArrayList<>();
+        final ChunkReassembler reassembler = new ChunkReassembler(new ChunkReassembler.Output() {
+            @Override
+            public void onLine(final String line) {
+                output.add(line);
+            }
+        }, 50);
+
+        // looks like the first of three chunks, but nothing follows
+        reassembler.feed(HEADER + "[1/3] steps done");
+
+        for (int i = 0; i < 100 && output.isEmpty(); i++)
+            Thread.sleep(50);
+
+        assertEquals(Collections.singletonList(HEADER + "steps done"), output);
+
+        // the same again, this time followed by other lines before the timer fires
+        output.clear();
+        reassembler.feed(HEADER + "[1/3] steps done");
+        Thread.sleep(100);
+        reassembler.feed("I/OTHER( 4321): unrelated");
+        reassembler.flush();
+
+        assertEquals(Arrays.asList(HEADER + "steps done", "I/OTHER( 4321): unrelated"), output);
+    }
+
+    private static List<String> chunk(final String msg) {
+        final int[] ends = MessageChunker.split(TAG, msg);
+        final List<String> chunks = new ArrayList<>();
+        int start = 0;
+
+        for (int i = 0; i < ends.length; i++) {
+            final StringBuilder sb = new StringBuilder();
+            chunks.add(MessageChunker.marker(sb, i + 1, ends.length).append(msg, start, ends[i]).toString());
+            start = ends[i];
+        }
+
+        return chunks;
+    }
+
+    private static String repeat(final char c, final int count) {
+        final char[] chars = new char[count];
+        Arrays.fill(chars, c);
+        return new String(chars);
+    }
+}
@@ -19,6 +19,7 @@
 package com.airg.android.logging;
 
 import android.text.TextUtils;
+import android.util.Log;
 
 import com.airg.android.logging.util.LogLine;
 
@@ -27,7 +28,9 @@ import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import java.io.ByteArrayOutputStream;
 import java.io.EOFException;
+import java.io.PrintStream;
 import java.util.Locale;
 import java.util.UUID;
 
@@ -505,6 +508,55 @@ public class StaticLoggerTest {
         assertTrue("formatted exception does not contain exception message", formatted.contains(exception.getMessage()));
     }
 
+    @Test
+    public void throwableFormatterReusesCachedTrace() throws Exception {
+        final Exception first = new EOFException("Same site");
+        final String trace = Logger.stackTrace(first);
+
+        assertTrue("cached trace was not reused", trace == Logger.stackTrace(first));
+        assertEquals("formatted trace differs from the platform trace", Log.getStackTraceString(first), trace);
+
+        final Exception other = new EOFException("Different message");
+        assertFalse("different exception served from the cache", trace.equals(Logger.stackTrace(other)));
+    }
+
+    @Test
+    public void throwableFormatterTellsCollidingMessagesApart() throws Exception {
+        // "Aa" and "BB" have the same hash code
+        final String[] messages = {"Aa", "BB"};
+        final String[] traces = new String[messages.length];
+
+        for (int i = 0; i < messages.length; i++)
+            traces[i] = Logger.stackTrace(new EOFException(messages[i]));
+
+        assertTrue("wrong trace for the first message: " + traces[0], traces[0].contains("EOFException: Aa"));
+        assertTrue("wrong trace for the second message: " + traces[1], traces[1].contains("EOFException: BB"));
+    }
+
+    @Test
+    public void stderrTracesCanBeTurnedOff() throws Exception {
+        final String uuid = UUID.randomUUID().toString();
+        final String tag = Integer.toHexString(uuid.hashCode());
+        final PrintStream stderr = System.err;
+        final ByteArrayOutputStream printed = new ByteArrayOutputStream();
+
+        System.setErr(new PrintStream(printed, true, "UTF-8"));
+
+        try {
+            Logger.setStderrTraces(false);
+            Logger.e(tag, new IllegalStateException(uuid + " not printed"), uuid);
+            Logger.setStderrTraces(true);
+            Logger.e(tag, new IllegalStateException(uuid + " printed"), uuid);
+        } finally {
+            Logger.setStderrTraces(true);
+            System.setErr(stderr);
+        }
+
+        final String output = printed.toString("UTF-8");
+        assertFalse("trace printed to stderr: " + output, output.contains(uuid + " not printed"));
+        assertTrue("trace not printed to stderr: " + output, output.contains(uuid + " printed"));
+    }
+
     /*
     These don't need to be tested too rigorously as they just use platform methods to perform the formatting
      */
@@ -0,0 +1,191 @@
+/*
+ * ****************************************************************************
+ *   Copyright  2017 airG Inc.                                                 *
+ *                                                                             *
+ *   Licensed under the Apache License, Version 2.0 (the "License");           *
+ *   you may not use this file except in compliance with the License.          *
+ *   You may obtain a copy of the License at                                   *
+ *                                                                             *
+ *       http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                             *
+ *   Unless required by applicable law or agreed to in writing, software       *
+ *   distributed under the License is distributed on an "AS IS" BASIS,         *
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  *
+ *   See the License for the specific language governing permissions and       *
+ *   limitations under the License.                                            *
+ * ***************************************************************************
+ */
+package com.airg.android.logging;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static android.util.Log.DEBUG;
+import static android.util.Log.INFO;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class StructuredLoggingTest {
+    private final List<String> textRecords = new ArrayList<>();
+    private final List<String> structuredRecords = new ArrayList<>();
+
+    private final LogSink textSink = new LogSink() {
+        @Override
+        public void write(final int level, final String tag, final String message) {
+            textRecords.add(message);
+        }
+    };
+
+    private final StructuredLogSink structuredSink = new StructuredLogSink() {
+        @Override
+        public void write(final int level, final String tag, final LogEvent event) {
+            final StringBuilder sb = new StringBuilder(event.message());
+
+            for (int i = 0; i < event.size(); i++) {
+                sb.append('|').append(event.key(i)).append(':');
+
+                switch (event.type(i)) {
+                    case LogEvent.TYPE_LONG:
+                        sb.append(event.longValue(i));
+                        break;
+                    case LogEvent.TYPE_DOUBLE:
+                        sb.append(event.doubleValue(i));
+                        break;
+                    case LogEvent.TYPE_BOOLEAN:
+                        sb.append(event.booleanValue(i));
+                        break;
+                    default:
+                        sb.append(event.stringValue(i));
+                        break;
+                }
+            }
+
+            structuredRecords.add(sb.toString());
+        }
+
+        @Override
+        public void write(final int level, final String tag, final String message) {
+            structuredRecords.add(message);
+        }
+    };
+
+    private int rootLevel;
+
+    @Before
+    public void addSinks() {
+        rootLevel = Logger.getRootLevel();
+        Logger.addSink(textSink);
+        Logger.addSink(structuredSink);
+    }
+
+    @After
+    public void removeSinks() {
+        Logger.setRootLevel(rootLevel);
+        assertTrue(Logger.removeSink(textSink));
+        assertTrue(Logger.removeSink(structuredSink));
+    }
+
+    @Test
+    public void eventFieldsAreRenderedForTextSinks() throws Exception {
+        final String uuid = UUID.randomUUID().toString();
+        final TaggedLogger LOG = Logger.tag(Integer.toHexString(uuid.hashCode()));
+
+        LOG.event(INFO, uuid)
+                .put("bytes", 1024L)
+                .put("ratio", 0.5)
+                .put("cached", false)
+                .put("host", "example.com")
+                .put("reason", "timed out")
+                .log();
+
+        assertEquals(1, textRecords.size());
+        assertEquals(uuid + " bytes=1024 ratio=0.5 cached=false host=example.com reason=\"timed out\"",
+                textRecords.get(0));
+    }
+
+    @Test
+    public void eventFieldsArePassedToStructuredSinks() throws Exception {
+        final String uuid = UUID.randomUUID().toString();
+        final TaggedLogger LOG = Logger.tag(Integer.toHexString(uuid.hashCode()));
+
+        LOG.event(INFO, uuid).put("count", 3).put("ok", true).log();
+
+        assertEquals(1, structuredRecords.size());
+        assertEquals(uuid + "|count:3|ok:true", structuredRecords.get(0));
+    }
+
+    @Test
+    public void plainRecordsReachAllSinks() throws Exception {
+        final String uuid = UUID.randomUUID().toString();
+        Logger.tag(Integer.toHexString(uuid.hashCode())).i("%s plain", uuid);
+
+        assertEquals(1, textRecords.size());
+        assertEquals(1, structuredRecords.size());
+        assertEquals(uuid + " plain", textRecords.get(0));
+        assertEquals(uuid + " plain", structuredRecords.get(0));
+    }
+
+    @Test
+    public void filteredEventsAreDropped() throws Exception {
+        Logger.setRootLevel(INFO);
+        Logger.tag("STRUCTURED").event(DEBUG, "dropped").put("n", 1).log();
+
+        assertTrue(textRecords.isEmpty());
+        assertTrue(structuredRecords.isEmpty());
+    }
+
+    @Test
+    public void repeatedEventsAreCollapsed() throws Exception {
+        final String uuid = UUID.randomUUID().toString();
+        final TaggedLogger LOG = Logger.tag(Integer.toHexString(uuid.hashCode()));
+
+        Logger.setCollapseWindow(60000);
+
+        try {
+            for (int i = 0; i < 3; i++)
+                LOG.event(INFO, uuid).put("code", 503).log();
+
+            Logger.flushCollapsed();
+        } finally {
+            Logger.setCollapseWindow(0);
+        }
+
+        assertEquals(2, textRecords.size());
+        assertEquals(uuid + " code=503", textRecords.get(0));
+        assertEquals("Last message repeated 2 times", textRecords.get(1));
+        assertEquals(2, structuredRecords.size());
+    }
+
+    @Test
+    public void eventsAreCollapsedByFieldsNotText() throws Exception {
+        final String uuid = UUID.randomUUID().toString();
+        final TaggedLogger LOG = Logger.tag(Integer.toHexString(uuid.hashCode()));
+
+        Logger.setCollapseWindow(60000);
+
+        try {
+            // both render as "code=503"
+            LOG.event(INFO, uuid).put("code", 503).log();
+            LOG.event(INFO, uuid).put("code", "503").log();
+            LOG.event(INFO, uuid).put("code", "503").log();
+            Logger.flushCollapsed();
+        } finally {
+            Logger.setCollapseWindow(0);
+        }
+
+        assertEquals(3, textRecords.size());
+        assertEquals(uuid + " code=503", textRecords.get(0));
+        assertEquals(uuid + " code=503", textRecords.get(1));
+        assertEquals("Last message repeated 1 time", textRecords.get(2));
+        assertEquals(3, structuredRecords.size());
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * ****************************************************************************
+ *   Copyright  2017 airG Inc.                                                 *
+ *                                                                             *
+ *   Licensed under the Apache License, Version 2.0 (the "License");           *
+ *   you may not use this file except in compliance with the License.          *
+ *   You may obtain a copy of the License at                                   *
+ *                                                                             *
+ *       http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                             *
+ *   Unless required by applicable law or agreed to in writing, software       *
+ *   distributed under the License is distributed on an "AS IS" BASIS,         *
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  *
+ *   See the License for the specific language governing permissions and       *
+ *   limitations under the License.                                            *
+ * ***************************************************************************
+ */
+
+package com.airg.android.logging;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static android.util.Log.DEBUG;
+import static android.util.Log.ERROR;
+import static android.util.Log.INFO;
+import static android.util.Log.VERBOSE;
+import static android.util.Log.WARN;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class TagLevelTest {
+    private final List<String> records = new ArrayList<>();
+
+    private final LogSink sink = new LogSink() {
+        @Override
+        public void write(final int level, final String tag, final String message) {
+            records.add(tag + ":" + message);
+        }
+    };
+
+    private int rootLevel;
+    private String root;
+
+    @Before
+    public void setUp() {
+        rootLevel = Logger.getRootLevel();
+        root = "T" + Integer.toHexString(UUID.randomUUID().hashCode());
+        Logger.addSink(sink);
+    }
+
+    @After
+    public void tearDown() {
+        Logger.setRootLevel(rootLevel);
+        Logger.clearTagLevels();
+        assertTrue(Logger.removeSink(sink));
+    }
+
+    @Test
+    public void childrenInheritParentLevel() throws Exception {
+        final TaggedLogger http = Logger.tag(root + ".NET.HTTP");
+        final TaggedLogger cache = Logger.tag(root + ".NET.CACHE");
+        final TaggedLogger feed = Logger.tag(root + ".UI.FEED");
+
+        Logger.setTagLevel(root + ".NET", WARN);
+
+        http.i("http info");
+        http.w("http warn");
+        cache.d("cache debug");
+        feed.d("feed debug");
+
+        assertEquals(2, records.size());
+        assertEquals(root + ".NET.HTTP:http warn", records.get(0));
+        assertEquals(root + ".UI.FEED:feed debug", records.get(1));
+    }
+
+    @Test
+    public void childLevelOverridesParent() throws Exception {
+        Logger.setTagLevel(root + ".NET", ERROR);
+        Logger.setTagLevel(root + ".NET.HTTP", DEBUG);
+
+        assertEquals(DEBUG, Logger.getTagLevel(root + ".NET.HTTP.RETRY"));
+        assertEquals(ERROR, Logger.getTagLevel(root + ".NET.CACHE"));
+        assertTrue(Logger.tag(root + ".NET.HTTP").isLoggable(DEBUG));
+        assertFalse(Logger.tag(root + ".NET.CACHE").isLoggable(WARN));
+
+        Logger.clearTagLevel(root + ".NET.HTTP");
+        assertFalse(Logger.tag(root + ".NET.HTTP").isLoggable(WARN));
+    }
+
+    @Test
+    public void tagLevelOverridesRootLevel() throws Exception {
+        Logger.setRootLevel(WARN);
+        Logger.setTagLevel(root, VERBOSE);
+
+        Logger.v(root + ".CHILD", "verbose");
+        Logger.i(root + "X", "not a child");
+
+        assertEquals(1, records.size());
+        assertEquals(root + ".CHILD:verbose", records.get(0));
+    }
+
+    @Test
+    public void rootLevelAppliesToUnconfiguredTags() throws Exception {
+        final TaggedLogger logger = Logger.tag(root + ".A.B.C");
+
+        Logger.setRootLevel(INFO);
+        assertFalse(logger.isLoggable(DEBUG));
+
+        Logger.setRootLevel(VERBOSE);
+        assertTrue(logger.isLoggable(VERBOSE));
+    }
+
+    @Test
+    public void levelsApplyToLoggersCreatedLater() throws Exception {
+        Logger.setTagLevel(root, ERROR);
+        assertFalse(Logger.tag(root + ".LATER").isLoggable(WARN));
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * ****************************************************************************
+ *   Copyright  2017 airG Inc.                                                 *
+ *                                                                             *
+ *   Licensed under the Apache License, Version 2.0 (the "License");           *
+ *   you may not use this file except in compliance with the License.          *
+ *   You may obtain a copy of the License at                                   *
+ *                                                                             *
+ *       http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                             *
+ *   Unless required by applicable law or agreed to in writing, software       *
+ *   distributed under the License is distributed on an "AS IS" BASIS,         *
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  *
+ *   See the License for the specific language governing permissions and       *
+ *   limitations under the License.                                            *
+ * ***************************************************************************
+ */
+
+package com.airg.android.logging;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static android.util.Log.INFO;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class TagRegistryTest {
+    @Test
+    public void loggersAreCachedPerTag() throws Exception {
+        final String tag = UUID.randomUUID().toString();
+        final TaggedLogger logger = Logger.tag(tag);
+
+        assertSame(logger, Logger.tag(tag));
+        assertSame(logger, Logger.tag(new String(tag)));
+        assertEquals(tag, logger.tag());
+    }
+
+    @Test
+    public void idsMapBackToTags() throws Exception {
+        final String first = UUID.randomUUID().toString();
+        final String second = UUID.randomUUID().toString();
+        final int firstId = TagRegistry.id(first);
+        final int secondId = TagRegistry.id(second);
+
+        assertNotEquals(firstId, secondId);
+        assertEquals(firstId, Logger.tag(first).id());
+        assertEquals(first, TagRegistry.tag(firstId));
+        assertEquals(second, TagRegistry.tag(secondId));
+        assertTrue(secondId < TagRegistry.size());
+    }
+
+    @Test
+    public void nullTagHasAnId() throws Exception {
+        final int id = TagRegistry.id(null);
+
+        assertEquals(id, TagRegistry.id(null));
+        assertNotEquals(id, TagRegistry.id("null"));
+        assertNull(TagRegistry.tag(id));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownIdsAreRejected() throws Exception {
+        TagRegistry.tag(TagRegistry.size());
+    }
+
+    @Test
+    public void tagIdSinksReceiveIds() throws Exception {
+        final List<Integer> ids = new ArrayList<>();
+        final TagIdLogSink sink = new TagIdLogSink() {
+            @Override
+            public void write(final int level, final int tagId, final String message) {
+                ids.add(tagId);
+            }
+
+            @Override
+            public void write(final int level, final String tag, final String message) {
+                throw new AssertionError("called with tag " + tag);
+            }
+        };
+
+        final String tag = UUID.randomUUID().toString();
+        Logger.addSink(sink);
+
+        try {
+            Logger.tag(tag).i("by logger");
+            Logger.i(tag, "by tag");
+            Logger.tag(tag).event(INFO, "event").put("n", 1).log();
+        } finally {
+            assertTrue(Logger.removeSink(sink));
+        }
+
+        final int id = TagRegistry.id(tag);
+        assertEquals(3, ids.size());
+
+        for (final int received : ids)
+            assertEquals(id, received);
+    }
+
+    @Test
+    public void adHocTagsAreNotRegistered() throws Exception {
+        final List<String> tags = new ArrayList<>();
+        final TagIdLogSink sink = new TagIdLogSink() {
+            @Override
+            public void write(final int level, final int tagId, final String message) {
+                // other tests' records
+            }
+
+            @Override
+            public void write(final int level, final String tag, final String message) {
+                synchronized (tags) {
+                    tags.add(tag);
+                }
+            }
+        };
+
+        final String direct = UUID.randomUUID().toString();
+        final String queued = UUID.randomUUID().toString();
+        Logger.addSink(sink);
+        Logger.setAsyncQueueSize(Logger.MIN_ASYNC_QUEUE_SIZE);
+
+        final int size;
+
+        try {
+            size = TagRegistry.size();
+            Logger.i(queued, "ad hoc, queued");
+            assertTrue(Logger.flushAsync(5000));
+
+            Logger.setAsyncQueueSize(0);
+            Logger.i(direct, "ad hoc");
+        } finally {
+            Logger.setAsyncQueueSize(0);
+            assertTrue(Logger.removeSink(sink));
+        }
+
+        assertEquals(size, TagRegistry.size());
+
+        synchronized (tags) {
+            assertTrue(tags.contains(direct));
+            assertTrue(tags.contains(queued));
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * ****************************************************************************
+ *   Copyright  2017 airG Inc.                                                 *
+ *                                                                             *
+ *   Licensed under the Apache License, Version 2.0 (the "License");           *
+ *   you may not use this file except in compliance with the License.          *
+ *   You may obtain a copy of the License at                                   *
+ *                                                                             *
+ *       http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                             *
+ *   Unless required by applicable law or agreed to in writing, software       *
+ *   distributed under the License is distributed on an "AS IS" BASIS,         *
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  *
+ *   See the License for the specific language governing permissions and       *
+ *   limitations under the License.                                            *
+ * ***************************************************************************
+ */
+package com.airg.android.logging;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class TaskExecutorsTest {
+    // a thread per task, quietly dropping whatever the task throws
+    private static final Executor THREAD_PER_TASK = new Executor() {
+        @Override
+        public void execute(final Runnable command) {
+            final Thread thread = new Thread(command);
+            thread.setUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
+                @Override
+                public void uncaughtException(final Thread t, final Throwable e) {
+                    // expected
+                }
+            });
+            thread.start();
+        }
+    };
+
+    @Test
+    public void serialExecutorKeepsGoingAfterAnError() throws Exception {
+        final Executor serial = TaskExecutors.serial(THREAD_PER_TASK);
+        final CountDownLatch before = new CountDownLatch(1);
+        final CountDownLatch after = new CountDownLatch(1);
+
+        serial.execute(new Runnable() {
+            @Override
+            public void run() {
+                throw new StackOverflowError("thrown on purpose");
+            }
+        });
+        serial.execute(new Runnable() {
+            @Override
+            public void run() {
+                before.countDown();
+            }
+        });
+
+        assertTrue("Task queued before the error never ran", before.await(5, TimeUnit.SECONDS));
+
+        serial.execute(new Runnable() {
+            @Override
+            public void run() {
+                after.countDown();
+            }
+        });
+
+        assertTrue("Task queued after the error never ran", after.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void serialExecutorKeepsGoingAfterAnException() throws Exception {
+        final Executor serial = TaskExecutors.serial(THREAD_PER_TASK);
+        final CountDownLatch done = new CountDownLatch(1);
+
+        serial.execute(new Runnable() {
+            @Override
+            public void run() {
+                throw new IllegalStateException("thrown on purpose");
+            }
+        });
+        serial.execute(new Runnable() {
+            @Override
+            public void run() {
+                done.countDown();
+            }
+        });
+
+        assertTrue("Task queued after the exception never ran", done.await(5, TimeUnit.SECONDS));
+    }
+}
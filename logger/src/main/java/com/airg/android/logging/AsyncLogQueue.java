@@ -0,0 +1,442 @@
+/*
+ * ****************************************************************************
+ *   Copyright  2017 airG Inc.                                                 *
+ *                                                                             *
+ *   Licensed under the Apache License, Version 2.0 (the "License");           *
+ *   you may not use this file except in compliance with the License.          *
+ *   You may obtain a copy of the License at                                   *
+ *                                                                             *
+ *       http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                             *
+ *   Unless required by applicable law or agreed to in writing, software       *
+ *   distributed under the License is distributed on an "AS IS" BASIS,         *
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  *
+ *   See the License for the specific language governing permissions and       *
+ *   limitations under the License.                                            *
+ * ***************************************************************************
+ */
+
+package com.airg.android.logging;
+
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Queues log records in preallocated direct {@link ByteBuffer} arenas and writes them out on a background thread.
+ * <p>
+ * Records are serialized into an arena (<code>[length:int][flags:byte][level:byte][tag id:int][timestamp:long]
+ * [message length:int][message]</code>, message UTF-8 encoded) rather than held as objects, so a burst of logging
+ * doesn't leave the heap full of queued records. Tag ids are {@link TagRegistry} ids. Tags that aren't registered are
+ * written inline instead: the record is flagged, and the tag id field holds the length of the UTF-8 tag that precedes
+ * the message. Records never wrap around the end of an arena: if the space left at the end is too small, the producer
+ * skips to the start (marking the skip if there's room for the marker). Producers serialize under a lock; the
+ * consumer decodes the committed region in place outside of it and only then gives the space back. Records that don't
+ * fit are dropped and counted.
+ * <p>
+ * The queue is split into two lanes of equal size: {@link Log#WARN} and above, and everything else. Verbose traffic
+ * can only fill (and drop records from) its own lane, and the consumer drains the high priority lane before each
+ * batch of the low priority one, so warnings and errors are neither evicted nor held up by it.
+ */
+final class AsyncLogQueue implements Runnable {
+    /**
+     * The record was logged from a {@link LogEvent} and {@link StructuredLogSink}s have already seen it
+     */
+    static final int FLAG_STRUCTURED_DONE = 1;
+
+    /**
+     * The record's tag isn't registered and is written ahead of the message
+     */
+    private static final int FLAG_INLINE_TAG = 2;
+
+    private static final TaggedLogger TAG = TagRegistry.logger("LOG");
+
+    private static final int WRAP = -1;
+    private static final int HEADER_SIZE = 4 + 1 + 1 + 4 + 8 + 4;
+    private static final int BATCH_SIZE = 64;
+
+    private final Object lock = new Object();
+    private final int capacity;
+    private final Lane high;
+    private final Lane low;
+
+    // guarded by lock
+    private boolean consumerWaiting = false;
+    private boolean running = true;
+
+    // consumer state
+    private final Consumer consumer;
+    private char[] chars = new char[256];
+    private final int[] batchFlags = new int[BATCH_SIZE];
+    private final int[] batchLevels = new int[BATCH_SIZE];
+    private final long[] batchTimes = new long[BATCH_SIZE];
+    private final TaggedLogger[] batchLoggers = new TaggedLogger[BATCH_SIZE];
+    private final String[] batchMessages = new String[BATCH_SIZE];
+    private long reportedHighDrops = 0;
+    private long reportedLowDrops = 0;
+
+    AsyncLogQueue(final int arenaBytes) {
+        capacity = arenaBytes;
+        high = new Lane(arenaBytes / 2);
+        low = new Lane(arenaBytes - arenaBytes / 2);
+
+        consumer = new Consumer(this);
+        consumer.start();
+    }
+
+    int capacity() {
+        return capacity;
+    }
+
+    long dropped() {
+        synchronized (lock) {
+            return high.dropped + low.dropped;
+        }
+    }
+
+    /**
+     * The time at which the record being written out was logged
+     *
+     * @return the logging time when called by the consumer thread, the current time otherwise.
+     */
+    static long recordTime() {
+        final Thread current = Thread.currentThread();
+        return current instanceof Consumer ? ((Consumer) current).recordTime : System.currentTimeMillis();
+    }
+
+    /**
+     * Queue a record in the lane for its level. If the lane is full, the record is dropped.
+     *
+     * @return <code>false</code> if the queue has been shut down and the record must be written by the caller,
+     * <code>true</code> otherwise.
+     */
+    boolean offer(final int flags, final int level, final TaggedLogger logger, final String msg) {
+        final Lane lane = level >= Log.WARN ? high : low;
+        int length = msg.length();
+        int bytes = MessageChunker.utf8Length(msg, 0, length);
+
+        if (bytes > lane.maxMessageBytes) {
+            length = MessageChunker.utf8Prefix(msg, lane.maxMessageBytes);
+            bytes = MessageChunker.utf8Length(msg, 0, length);
+        }
+
+        final int tagId = logger.id();
+        final String inlineTag = tagId < 0 ? logger.tag() : null;
+        final int tagBytes = null == inlineTag ? 0 : MessageChunker.utf8Length(inlineTag, 0, inlineTag.length());
+        final int maxSize = HEADER_SIZE + tagBytes + bytes;
+
+        synchronized (lock) {
+            if (!running)
+                return false;
+
+            long pos = lane.writePos;
+            int index = (int) (pos % lane.capacity);
+            final int contiguous = lane.capacity - index;
+            final int skip = contiguous < maxSize ? contiguous : 0;
+
+            if (pos + skip + maxSize - lane.readPos > lane.capacity) {
+                lane.dropped++;
+                return true;
+            }
+
+            final ByteBuffer arena = lane.arena;
+
+            if (skip > 0) {
+                if (skip >= 4)
+                    arena.putInt(index, WRAP);
+
+                pos += skip;
+                index = 0;
+            }
+
+            final int start = null == inlineTag
+                    ? index + HEADER_SIZE
+                    : encode(arena, inlineTag, inlineTag.length(), index + HEADER_SIZE);
+            final int end = encode(arena, msg, length, start);
+            arena.putInt(index, end - index);
+            arena.put(index + 4, (byte) (null == inlineTag ? flags : flags | FLAG_INLINE_TAG));
+            arena.put(index + 5, (byte) level);
+            arena.putInt(index + 6, null == inlineTag ? tagId : start - index - HEADER_SIZE);
+            arena.putLong(index + 10, System.currentTimeMillis());
+            arena.putInt(index + 18, end - start);
+
+            lane.writePos = pos + end - index;
+
+            if (consumerWaiting)
+                lock.notifyAll();
+
+            return true;
+        }
+    }
+
+    /**
+     * Wait until everything queued so far has been written out
+     *
+     * @param timeoutMillis maximum time to wait
+     * @return <code>true</code> if the queue was flushed, <code>false</code> on timeout or interruption.
+     */
+    boolean flush(final long timeoutMillis) {
+        final long deadline = System.currentTimeMillis() + timeoutMillis;
+
+        synchronized (lock) {
+            final long highTarget = high.writePos;
+            final long lowTarget = low.writePos;
+
+            while ((high.dispatchedPos < highTarget || low.dispatchedPos < lowTarget) && running) {
+                final long remaining = deadline - System.currentTimeMillis();
+
+                if (remaining <= 0)
+                    return false;
+
+                try {
+                    lock.wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+
+            return high.dispatchedPos >= highTarget && low.dispatchedPos >= lowTarget;
+        }
+    }
+
+    /**
+     * Stop accepting records, write out the queued ones, and stop the consumer thread.
+     */
+    void shutdown() {
+        synchronized (lock) {
+            running = false;
+            lock.notifyAll();
+        }
+
+        if (Thread.currentThread() == consumer)
+            return;
+
+        try {
+            consumer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            final long highCommitted;
+            final long lowCommitted;
+            final long highDrops;
+            final long lowDrops;
+
+            synchronized (lock) {
+                while (high.isEmpty() && low.isEmpty() && running) {
+                    consumerWaiting = true;
+
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException ignore) {
+                        // keep going until shut down
+                    }
+
+                    consumerWaiting = false;
+                }
+
+                if (high.isEmpty() && low.isEmpty())
+                    return;
+
+                highCommitted = high.writePos;
+                lowCommitted = low.writePos;
+                highDrops = high.dropped;
+                lowDrops = low.dropped;
+            }
+
+            long highPos = high.readPos;
+            long lowPos = low.readPos;
+
+            while (highPos < highCommitted)
+                highPos = dispatchBatch(high, highPos, highCommitted);
+
+            while (lowPos < lowCommitted && !hasPending(high))
+                lowPos = dispatchBatch(low, lowPos, lowCommitted);
+
+            if (highDrops != reportedHighDrops || lowDrops != reportedLowDrops) {
+                final long total = highDrops - reportedHighDrops + lowDrops - reportedLowDrops;
+                final StringBuilder sb = new StringBuilder().append(total).append(" log records dropped");
+
+                if (highDrops != reportedHighDrops)
+                    sb.append(" (").append(highDrops - reportedHighDrops).append(" warnings or errors)");
+
+                consumer.recordTime = System.currentTimeMillis();
+                Logger.write(Log.WARN, TAG, sb.append(": async queue full").toString(), false);
+                reportedHighDrops = highDrops;
+                reportedLowDrops = lowDrops;
+            }
+
+            synchronized (lock) {
+                high.dispatchedPos = highPos;
+                low.dispatchedPos = lowPos;
+                lock.notifyAll();
+            }
+        }
+    }
+
+    private boolean hasPending(final Lane lane) {
+        synchronized (lock) {
+            return !lane.isEmpty();
+        }
+    }
+
+    // consumer thread only. Decodes and writes out up to BATCH_SIZE records, returns the position after them.
+    private long dispatchBatch(final Lane lane, final long from, final long committed) {
+        final ByteBuffer arena = lane.arena;
+        long pos = from;
+        int count = 0;
+
+        while (pos < committed && count < BATCH_SIZE) {
+            final int index = (int) (pos % lane.capacity);
+            final int contiguous = lane.capacity - index;
+
+            if (contiguous < 4 || arena.getInt(index) == WRAP) {
+                pos += contiguous;
+                continue;
+            }
+
+            final int flags = arena.get(index + 4);
+            int start = index + HEADER_SIZE;
+
+            if ((flags & FLAG_INLINE_TAG) != 0) {
+                final int tagBytes = arena.getInt(index + 6);
+                batchLoggers[count] = TagRegistry.find(decode(arena, start, tagBytes));
+                start += tagBytes;
+            } else {
+                batchLoggers[count] = TagRegistry.logger(arena.getInt(index + 6));
+            }
+
+            batchFlags[count] = flags;
+            batchLevels[count] = arena.get(index + 5);
+            batchTimes[count] = arena.getLong(index + 10);
+            batchMessages[count] = decode(arena, start, arena.getInt(index + 18));
+            count++;
+            pos += arena.getInt(index);
+        }
+
+        // the records are decoded, give the space back before writing them out
+        synchronized (lock) {
+            lane.readPos = pos;
+        }
+
+        for (int i = 0; i < count; i++) {
+            consumer.recordTime = batchTimes[i];
+            Logger.write(batchLevels[i],
+                    batchLoggers[i],
+                    batchMessages[i],
+                    (batchFlags[i] & FLAG_STRUCTURED_DONE) != 0);
+        }
+
+        Arrays.fill(batchMessages, 0, count, null);
+        Arrays.fill(batchLoggers, 0, count, null);
+        return pos;
+    }
+
+    // guarded by lock
+    private static int encode(final ByteBuffer arena, final String msg, final int length, final int start) {
+        int index = start;
+
+        for (int i = 0; i < length; i++) {
+            final char c = msg.charAt(i);
+
+            if (c < 0x80) {
+                arena.put(index++, (byte) c);
+            } else if (c < 0x800) {
+                arena.put(index++, (byte) (0xc0 | (c >> 6)));
+                arena.put(index++, (byte) (0x80 | (c & 0x3f)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(msg.charAt(i + 1))) {
+                final int cp = Character.toCodePoint(c, msg.charAt(++i));
+                arena.put(index++, (byte) (0xf0 | (cp >> 18)));
+                arena.put(index++, (byte) (0x80 | ((cp >> 12) & 0x3f)));
+                arena.put(index++, (byte) (0x80 | ((cp >> 6) & 0x3f)));
+                arena.put(index++, (byte) (0x80 | (cp & 0x3f)));
+            } else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+                // unpaired surrogate
+                arena.put(index++, (byte) '?');
+            } else {
+                arena.put(index++, (byte) (0xe0 | (c >> 12)));
+                arena.put(index++, (byte) (0x80 | ((c >> 6) & 0x3f)));
+                arena.put(index++, (byte) (0x80 | (c & 0x3f)));
+            }
+        }
+
+        return index;
+    }
+
+    // consumer thread only. Decodes what encode() wrote.
+    private String decode(final ByteBuffer arena, final int start, final int length) {
+        if (chars.length < length)
+            chars = new char[Math.max(length, chars.length * 2)];
+
+        final int end = start + length;
+        int count = 0;
+        int index = start;
+
+        while (index < end) {
+            final int b = arena.get(index++) & 0xff;
+
+            if (b < 0x80) {
+                chars[count++] = (char) b;
+            } else if (b < 0xe0) {
+                chars[count++] = (char) (((b & 0x1f) << 6) | (arena.get(index++) & 0x3f));
+            } else if (b < 0xf0) {
+                chars[count++] = (char) (((b & 0x0f) << 12)
+                        | ((arena.get(index++) & 0x3f) << 6)
+                        | (arena.get(index++) & 0x3f));
+            } else {
+                final int cp = ((b & 0x07) << 18)
+                        | ((arena.get(index++) & 0x3f) << 12)
+                        | ((arena.get(index++) & 0x3f) << 6)
+                        | (arena.get(index++) & 0x3f);
+                count += Character.toChars(cp, chars, count);
+            }
+        }
+
+        final String msg = new String(chars, 0, count);
+
+        // don't pin a huge buffer
+        if (chars.length > ScratchBuffer.MAX_RETAINED_CAPACITY)
+            chars = new char[256];
+
+        return msg;
+    }
+
+    private static final class Lane {
+        final ByteBuffer arena;
+        final int capacity;
+        // a single record may take up to half the lane
+        final int maxMessageBytes;
+
+        // guarded by the queue lock
+        long writePos = 0;
+        long readPos = 0;
+        long dispatchedPos = 0;
+        long dropped = 0;
+
+        Lane(final int bytes) {
+            capacity = bytes;
+            arena = ByteBuffer.allocateDirect(bytes);
+            maxMessageBytes = bytes / 2 - HEADER_SIZE;
+        }
+
+        boolean isEmpty() {
+            return readPos == writePos;
+        }
+    }
+
+    private static final class Consumer extends Thread {
+        // time at which the record being written was logged
+        long recordTime;
+
+        Consumer(final Runnable queue) {
+            super(queue, "Logger-async");
+            setDaemon(true);
+        }
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * ****************************************************************************
+ *   Copyright  2017 airG Inc.                                                 *
+ *                                                                             *
+ *   Licensed under the Apache License, Version 2.0 (the "License");           *
+ *   you may not use this file except in compliance with the License.          *
+ *   You may obtain a copy of the License at                                   *
+ *                                                                             *
+ *       http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                             *
+ *   Unless required by applicable law or agreed to in writing, software       *
+ *   distributed under the License is distributed on an "AS IS" BASIS,         *
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  *
+ *   See the License for the specific language governing permissions and       *
+ *   limitations under the License.                                            *
+ * ***************************************************************************
+ */
+
+package com.airg.android.logging;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Splits a stream into lines without decoding them. Lines are returned as slices of a recycled buffer which only grows
+ * if a single line doesn't fit.
+ */
+final class ByteLineReader {
+    static final int DEFAULT_BUFFER_SIZE = 16 * 1024;
+
+    private final InputStream in;
+    private final LogLineBytes line = new LogLineBytes();
+
+    private byte[] buffer;
+    // unconsumed bytes are in [start, end)
+    private int start = 0;
+    private int end = 0;
+
+    ByteLineReader(final InputStream stream, final int bufferSize) {
+        in = stream;
+        buffer = new byte[bufferSize];
+    }
+
+    /**
+     * Read the next line
+     *
+     * @return the next line, valid until the next call, or <code>null</code> at the end of the stream.
+     * @throws IOException on read errors
+     */
+    LogLineBytes next() throws IOException {
+        int scan = start;
+
+        while (true) {
+            for (int i = scan; i < end; i++) {
+                if (buffer[i] == '\n') {
+                    slice(start, i);
+                    start = i + 1;
+                    return line;
+                }
+            }
+
+            // no terminator in the buffered bytes: make room and read more
+            if (start > 0) {
+                System.arraycopy(buffer, start, buffer, 0, end - start);
+                end -= start;
+                start = 0;
+            }
+
+            if (end == buffer.length)
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+
+            scan = end;
+            final int count = in.read(buffer, end, buffer.length - end);
+
+            if (count == -1) {
+                if (start == end)
+                    return null;
+
+                // last line without a terminator
+                slice(start, end);
+                start = end;
+                return line;
+            }
+
+            end += count;
+        }
+    }
+
+    void close() throws IOException {
+        in.close();
+    }
+
+    private void slice(final int from, final int to) {
+        final int length = to > from && buffer[to - 1] == '\r' ? to - from - 1 : to - from;
+        line.set(buffer, from, length);
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * ****************************************************************************
+ *   Copyright  2017 airG Inc.                                                 *
+ *                                                                             *
+ *   Licensed under the Apache License, Version 2.0 (the "License");           *
+ *   you may not use this file except in compliance with the License.          *
+ *   You may obtain a copy of the License at                                   *
+ *                                                                             *
+ *       http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                             *
+ *   Unless required by applicable law or agreed to in writing, software       *
+ *   distributed under the License is distributed on an "AS IS" BASIS,         *
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  *
+ *   See the License for the specific language governing permissions and       *
+ *   limitations under the License.                                            *
+ * ***************************************************************************
+ */
+
+package com.airg.android.logging;
+
+import android.os.SystemClock;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Stitches the chunks written by {@link MessageChunker} back together as log lines are read from logcat.
+ * <p>
+ * A chunk's text continues the last line of the previous chunk, so that line is held back until it's known whether
+ * the next chunk continues it. Lines are matched to a chunk sequence by their logcat header (minus the timestamp),
+ * and lines that belong to other sources pass straight through.
+ * <p>
+ * The chunks of a message are written back to back, so a sequence that hasn't moved on for a short while (e.g. a
+ * message that merely starts with <code>[1/3]</code>, or one whose later chunks were dropped) is given up on: the
+ * held line is written out on a shared timer thread, or before the next line if that comes first. Feed lines from a
+ * single thread.
+ */
+final class ChunkReassembler {
+    /**
+     * How long a chunk sequence waits for its next line before the held line is written out as is
+     */
+    static final long DEFAULT_HOLD_MILLIS = 250;
+
+    // the date and time columns of the "time" and "threadtime" logcat formats
+    private static final Pattern TIMESTAMP = Pattern.compile("^\\d+-\\d+\\s+\\d+:\\d+:\\d+\\.\\d+\\s+");
+
+    private static final int GROUP_HEADER = 1;
+    private static final int GROUP_INDEX = 2;
+    private static final int GROUP_TOTAL = 3;
+    private static final int GROUP_TEXT = 4;
+
+    interface Output {
+        void onLine(final String line);
+    }
+
+    private final Output output;
+    private final long hold;
+
+    // current chunk sequence. Guarded by this, as is everything below: the timer gives up on sequences.
+    private String key = null;
+    private int next;
+    private int total;
+    private long progress;
+
+    // the line that the next chunk may continue
+    private String held = null;
+
+    // bumped for every new sequence, so a stale timer doesn't give up on the next one
+    private long generation = 0;
+    private ScheduledFuture<?> timeout = null;
+
+    ChunkReassembler(final Output out) {
+        this(out, DEFAULT_HOLD_MILLIS);
+    }
+
+    ChunkReassembler(final Output out, final long holdMillis) {
+        output = out;
+        hold = holdMillis;
+    }
+
+    synchronized void feed(final String line) {
+        final Matcher marker = MessageChunker.MARKER.matcher(line);
+
+        if (marker.matches() && chunk(marker))
+            return;
+
+        if (null != key && key.equals(key(line, line.indexOf(": ")))) {
+            // a line break inside the current chunk
+            release();
+            held = line;
+            progress = SystemClock.elapsedRealtime();
+            return;
+        }
+
+        // don't let a line that's past waiting for fall behind this one
+        if (null != key && SystemClock.elapsedRealtime() - progress >= hold)
+            flush();
+
+        output.onLine(line);
+    }
+
+    /**
+     * Emit any line that's being held back. Call at the end of the stream.
+     */
+    synchronized void flush() {
+        release();
+        key = null;
+
+        if (null != timeout) {
+            timeout.cancel(false);
+            timeout = null;
+        }
+    }
+
+    private synchronized void expire(final long expected) {
+        if (expected != generation || null == key)
+            return;
+
+        final long remaining = progress + hold - SystemClock.elapsedRealtime();
+
+        if (remaining > 0)
+            schedule(remaining);
+        else
+            flush();
+    }
+
+    // call with the lock held
+    private void schedule(final long delayMillis) {
+        final long expected = generation;
+
+        timeout = TaskExecutors.scheduler().schedule(new Runnable() {
+            @Override
+            public void run() {
+                expire(expected);
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private boolean chunk(final Matcher marker) {
+        final String header = marker.group(GROUP_HEADER);
+        final String k = key(header, header.length());
+        final int index;
+        final int count;
+
+        try {
+            index = Integer.parseInt(marker.group(GROUP_INDEX));
+            count = Integer.parseInt(marker.group(GROUP_TOTAL));
+        } catch (NumberFormatException e) {
+            return false;
+        }
+
+        final String text = marker.group(GROUP_TEXT);
+
+        if (index == 1 && count > 1) {
+            flush();
+            key = k;
+            next = 2;
+            total = count;
+            held = header + ": " + text;
+            progress = SystemClock.elapsedRealtime();
+            generation++;
+            schedule(hold);
+            return true;
+        }
+
+        if (null == key || index != next || count != total || !key.equals(k))
+            return false;
+
+        // continuation of the held line. An empty chunk line means the chunk started with a line break.
+        held = null == held ? header + ": " + text : held + text;
+        progress = SystemClock.elapsedRealtime();
+
+        if (++next > total)
+            flush();
+
+        return true;
+    }
+
+    private void release() {
+        if (null == held)
+            return;
+
+        final String line = held;
+        held = null;
+        output.onLine(line);
+    }
+
+    private static String key(final String line, final int headerEnd) {
+        if (headerEnd < 0)
+            return null;
+
+        final Matcher timestamp = TIMESTAMP.matcher(line);
+        final int start = timestamp.lookingAt() ? timestamp.end() : 0;
+        return start <= headerEnd ? line.substring(start, headerEnd) : null;
+    }
+}
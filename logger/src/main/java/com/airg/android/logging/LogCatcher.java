@@ -18,17 +18,40 @@
 
 package com.airg.android.logging;
 
+import android.os.SystemClock;
 import android.support.annotation.Nullable;
 
 import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
-import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * Allows for capturing the android system log.
@@ -38,6 +61,7 @@ import java.util.concurrent.atomic.AtomicBoolean;
  * <li>This is an experimental class and most definitely full of bugs. Approach with caution!</li>
  * <li>If you have any services in your android manifest that run in their own process, filtering the log by pid will only capture the log output from the process that instantiates the <code>LogCatcher</code> instance. If you need to capture the output from <i>all</i> your processes, you will have to instantiate one LogCatcher instance per process and capture the logs separately.</li>
  * <li>The capture and clear tasks run asynchronously (as you can tell from the callbacks). There is a noticeable delay between when you write to log and when it actually appears in the log. If certain log entries <i>MUST</i> be captured, you'd want to hold off on ending a capture session until everything has been 'seen' in {@link OnLogLinesListener#onLogLine(String)}. If it's not there, it's not captured yet.</li>
+ * <li>Dumps, exports, and captures may run concurrently (e.g. a dump for a bug report while a long-lived capture is active). None of the methods that start them block: if {@link #clear()} is still running, they are queued and started once the log is cleared.</li>
  * </ul>
  * <p>
  *
@@ -50,32 +74,69 @@ public final class LogCatcher {
     private static final String ARG_DUMP = "-d";
     private static final String ARG_CLEAR = "-c";
     private static final String ARG_PID = "--pid";
+    private static final String ARG_BUFFER = "-b";
+    private static final String ARG_FORMAT = "-v";
+    private static final String FORMAT_THREADTIME = "threadtime";
 
     private static final int PID_NONE = -1;
 
+    private static final int EXPORT_BUFFER_SIZE = 8192;
+
+    private static final Executor DIRECT_EXECUTOR = new Executor() {
+        @Override
+        public void execute(final Runnable command) {
+            command.run();
+        }
+    };
+
     private final Executor taskExecutor;
     private final Executor callbackExecutor;
     private final int pid;
 
+    // state changes are lock free. The monitor only wakes up waitForClearEnd() and waitForCaptureEnd().
     private final Object lock = new Object();
-    private volatile boolean clearing = false;
-    private volatile boolean capturing = false;
+    private final AtomicReference<ClearTask> clearTask = new AtomicReference<>(null);
+    private final AtomicInteger activeTasks = new AtomicInteger(0);
+    private final List<LogReader> captures = new CopyOnWriteArrayList<>();
 
-    private volatile Process captureProcess = null;
-    private volatile LogReader captureTask = null;
+    private final Object warmLock = new Object();
+    private volatile LogReader warmCapture = null;
+
+    private volatile boolean reassembleChunks = false;
+    private volatile String[] buffers = new String[0];
+
+    private final List<LineFuture> lineFutures = new CopyOnWriteArrayList<>();
 
     /**
      * Constructor. Allows the caller to specify whether to clear the log, the process id, and an executor for background tasks.
      *
      * @param clear     specify <code>true</code> to clear the log, or <code>false</code> to leave the log untouched.
      * @param processId Specify a process id on which to filter the log.
-     * @param executor  An {@link Executor} on which to execute background tasks on. If <code>null</code> is provided, the default background executor is obtained via {@link Executors#newSingleThreadExecutor()}
+     * @param executor  An {@link Executor} on which to execute background tasks on. If <code>null</code> is provided, callbacks are delivered one at a time, in order, on the {@link #lightweightExecutor()}.
      */
     public LogCatcher(final boolean clear, final int processId, @Nullable final Executor executor) {
+        this(clear, processId, executor, null);
+    }
+
+    /**
+     * Constructor. Also allows the caller to specify the executor that runs <code>logcat</code> and reads its output.
+     * Each running dump, export, or capture occupies one task for as long as it runs.
+     *
+     * @param clear        specify <code>true</code> to clear the log, or <code>false</code> to leave the log untouched.
+     * @param processId    Specify a process id on which to filter the log.
+     * @param executor     An {@link Executor} on which to deliver callbacks. See {@link #LogCatcher(boolean, int, Executor)}.
+     * @param taskExecutor An {@link Executor} on which to run the readers. If <code>null</code> is provided, the {@link #lightweightExecutor()} is used.
+     */
+    public LogCatcher(final boolean clear,
+                      final int processId,
+                      @Nullable final Executor executor,
+                      @Nullable final Executor taskExecutor) {
         pid = processId;
-        taskExecutor = Executors.newFixedThreadPool(2);
+        this.taskExecutor = null == taskExecutor
+                ? TaskExecutors.lightweight()
+                : taskExecutor;
         callbackExecutor = null == executor
-                ? Executors.newSingleThreadExecutor()
+                ? TaskExecutors.serial(TaskExecutors.lightweight())
                 : executor;
 
         if (clear)
@@ -119,55 +180,369 @@ public final class LogCatcher {
         this(clear, false, null);
     }
 
+    /**
+     * The executor that runs readers (and, unless specified otherwise, delivers callbacks) by default: a virtual thread
+     * per task where the runtime supports them (Java 21 and up, e.g. when this library is used on a desktop JVM),
+     * otherwise a pool of cached daemon threads shared by all instances.
+     *
+     * @return the shared executor
+     */
+    public static Executor lightweightExecutor() {
+        return TaskExecutors.lightweight();
+    }
+
+    /**
+     * Messages too long for a single logcat entry are split into numbered chunks by {@link Logger}. In reassembly
+     * mode, those chunks are stitched back together before they are delivered to {@link OnLogLinesListener#onLogLine(String)}.
+     * Applies to dumps and captures started after this call. Lines read in byte mode (see {@link OnLogBytesListener})
+     * are never reassembled.
+     *
+     * @param reassemble specify <code>true</code> to reassemble chunked messages, or <code>false</code> to deliver lines as logged (default).
+     */
+    public void setReassembleChunks(final boolean reassemble) {
+        reassembleChunks = reassemble;
+    }
+
+    /**
+     * Are chunked messages reassembled?
+     *
+     * @return <code>true</code> if chunked messages are reassembled.
+     */
+    public boolean isReassembleChunks() {
+        return reassembleChunks;
+    }
+
+    /**
+     * Select the log buffers to read (e.g. <code>main</code>, <code>system</code>, <code>crash</code>,
+     * <code>events</code>). Applies to dumps, exports, and captures started after this call. To read several buffers as
+     * separate streams (and merge them back together by timestamp), use one instance per buffer and a {@link LogMerger}.
+     *
+     * @param names buffer names. Specify none to read logcat's default buffers (default).
+     */
+    public void setBuffers(final String... names) {
+        buffers = null == names ? new String[0] : names.clone();
+    }
+
+    /**
+     * The log buffers read
+     *
+     * @return buffer names, or an empty array if logcat's default buffers are read.
+     */
+    public String[] getBuffers() {
+        return buffers.clone();
+    }
+
     /**
      * Capture the current log lines. This method produces the equivalent of <code>adb logcat -d</code>
      *
      * @param listener a listener to receive log lines on the same thread that is executing the capture (e.g. your provided executor. If you didn't provide one, this is a background thread).
+     * @return a handle to cancel or wait for the dump
      */
-    public void dump(final OnLogLinesListener listener) {
-        synchronized (lock) {
-            if (capturing)
-                throw new IllegalStateException("Capture already in progress");
+    public Capture dump(final OnLogLinesListener listener) {
+        return dump(listener, 0);
+    }
+
+    /**
+     * Capture the current log lines, giving up after a deadline. See {@link #dump(OnLogLinesListener)}.
+     *
+     * @param listener      a listener to receive log lines
+     * @param timeoutMillis maximum time the dump may take (<code>0</code> for no limit). When it expires, the dump is
+     *                      cancelled: <code>logcat</code> is killed and the listener is told the dump finished.
+     * @return a handle to cancel or wait for the dump
+     */
+    public Capture dump(final OnLogLinesListener listener, final long timeoutMillis) {
+        return startDump(new LogReader(listener, true, timeoutMillis));
+    }
+
+    /**
+     * Capture the current log lines as raw bytes. This method produces the equivalent of <code>adb logcat -d</code>,
+     * without decoding each line to a <code>String</code>.
+     *
+     * @param listener a listener to receive log lines on the background thread that reads the log.
+     * @return a handle to cancel or wait for the dump
+     */
+    public Capture dump(final OnLogBytesListener listener) {
+        return dump(listener, 0);
+    }
+
+    /**
+     * Capture the current log lines as raw bytes, giving up after a deadline. See {@link #dump(OnLogBytesListener)}
+     * and {@link #dump(OnLogLinesListener, long)}.
+     *
+     * @param listener      a listener to receive log lines
+     * @param timeoutMillis maximum time the dump may take (<code>0</code> for no limit)
+     * @return a handle to cancel or wait for the dump
+     */
+    public Capture dump(final OnLogBytesListener listener, final long timeoutMillis) {
+        return startDump(new LogReader(listener, true, timeoutMillis));
+    }
 
-            DEBUG("dump: waiting for clear to finish");
-            waitForClearEnd();
+    private Capture startDump(final LogReader reader) {
+        if (reader.timeoutMillis < 0)
+            throw new IllegalArgumentException("Invalid timeout: " + reader.timeoutMillis);
 
-            DEBUG("dump: dumping...");
-            capturing = true;
-            taskExecutor.execute(new LogReader(listener, true));
+        DEBUG("dump: dumping...");
+        submit(reader);
+        return reader.capture;
+    }
+
+    /**
+     * Export the current log (the equivalent of <code>adb logcat -d</code>) as a compressed stream. The output of
+     * <code>logcat</code> is piped through the compressor in fixed size blocks, so memory use is bounded and no
+     * per-line <code>String</code>s are created. Lines are exported as logged (chunked messages are not reassembled).
+     *
+     * @param out         target stream. It is flushed but not closed.
+     * @param compression compression format
+     * @param listener    a listener to receive the export statistics once done
+     */
+    public void export(final OutputStream out, final Compression compression, final OnExportListener listener) {
+        startExport(new LogExporter(out, false, compression, listener));
+    }
+
+    /**
+     * Export the current log (the equivalent of <code>adb logcat -d</code>) to a compressed file. See
+     * {@link #export(OutputStream, Compression, OnExportListener)}.
+     *
+     * @param file        target file. Overwritten if it exists.
+     * @param compression compression format
+     * @param listener    a listener to receive the export statistics once done
+     * @throws FileNotFoundException if the file cannot be opened for writing
+     */
+    public void export(final File file, final Compression compression, final OnExportListener listener)
+            throws FileNotFoundException {
+        final OutputStream out = new FileOutputStream(file);
+
+        try {
+            startExport(new LogExporter(out, true, compression, listener));
+        } catch (RuntimeException e) {
+            closeQuietly(out);
+            throw e;
         }
     }
 
+    private void startExport(final LogExporter exporter) {
+        DEBUG("export: exporting...");
+        submit(exporter);
+    }
+
     /**
-     * Starts to capture the log lines until {@link #endCapture()} is called.
+     * Starts to capture the log lines until {@link #endCapture()} is called (or the returned handle is cancelled).
      *
      * @param listener A listener to receive log lines as they are logged.
+     * @return a handle to cancel or wait for the capture
      */
-    public void startCapture(final OnLogLinesListener listener) {
-        synchronized (lock) {
-            if (capturing)
-                throw new IllegalStateException("Capture already in progress");
+    public Capture startCapture(final OnLogLinesListener listener) {
+        return startCapture(new LogReader(listener, false, 0));
+    }
+
+    /**
+     * Starts to capture the log lines as raw bytes until {@link #endCapture()} is called (or the returned handle is
+     * cancelled). Lines are not decoded to <code>String</code>s unless the listener asks for it (see
+     * {@link LogLineBytes#toString()}).
+     *
+     * @param listener A listener to receive log lines as they are logged, on the background thread that reads the log.
+     * @return a handle to cancel or wait for the capture
+     */
+    public Capture startCapture(final OnLogBytesListener listener) {
+        return startCapture(new LogReader(listener, false, 0));
+    }
+
+    private Capture startCapture(final LogReader reader) {
+        DEBUG("capture: capturing...");
+        captures.add(reader);
+        submit(reader);
+        return reader.capture;
+    }
+
+    /**
+     * Run a task now, or once the log is cleared if {@link #clear()} is running
+     */
+    private void submit(final Runnable task) {
+        activeTasks.incrementAndGet();
+
+        final ClearTask clear = clearTask.get();
+
+        if (null == clear || !clear.defer(task))
+            taskExecutor.execute(task);
+    }
 
-            waitForClearEnd();
-            capturing = true;
+    private void taskFinished() {
+        if (activeTasks.decrementAndGet() == 0)
+            signal();
+    }
 
-            DEBUG("capture: capturing...");
-            captureTask = new LogReader(listener, false);
-            taskExecutor.execute(captureTask);
+    private void signal() {
+        synchronized (lock) {
+            lock.notifyAll();
         }
     }
 
     /**
-     * Stop capturing log output
+     * Stop capturing log output: ends all captures started via <code>startCapture</code> that are still running.
+     * <code>logcat</code> is killed right away, so this doesn't wait for another line to be logged. To end a single
+     * capture, cancel the handle returned by <code>startCapture</code>.
      */
     public void endCapture() {
-        synchronized (lock) {
-            if (null == captureTask)
-                throw new IllegalStateException("Not capturing");
+        if (captures.isEmpty())
+            throw new IllegalStateException("Not capturing");
+
+        DEBUG("capture: stopping...");
+
+        for (final LogReader reader : captures)
+            reader.capture.cancel();
+    }
+
+    /**
+     * Wait for a log line without polling. The predicate is checked once for each line read by this instance's dumps
+     * and captures from now on (including captures started later), on the thread that reads the log, until it matches
+     * or the returned future is cancelled. Lines are matched as delivered: after reassembly (see
+     * {@link #setReassembleChunks(boolean)}), and decoded from raw bytes if needed.
+     * <p>
+     * {@link Future#get(long, TimeUnit)} waits with a timeout, but doesn't stop the predicate from being checked: cancel
+     * the future once you stop waiting for it. If the predicate throws, the future fails with that exception.
+     *
+     * @param predicate line predicate. Keep it cheap: it runs on the reader thread for every line.
+     * @return a future that completes with the first matching line
+     */
+    public Future<String> awaitLine(final LinePredicate predicate) {
+        if (null == predicate)
+            throw new IllegalArgumentException("null predicate");
+
+        final LineFuture future = new LineFuture(predicate);
+        lineFutures.add(future);
+        return future;
+    }
+
+    /**
+     * Wait for a log line that contains some text. See {@link #awaitLine(LinePredicate)}.
+     *
+     * @param text text to look for
+     * @return a future that completes with the first line containing <code>text</code>
+     */
+    public Future<String> awaitLineContaining(final String text) {
+        return awaitLine(new LinePredicate() {
+            @Override
+            public boolean matches(final String line) {
+                return line.contains(text);
+            }
+        });
+    }
+
+    private void matchLine(final String line) {
+        for (final LineFuture future : lineFutures)
+            if (future.offer(line))
+                lineFutures.remove(future);
+    }
+
+    /**
+     * Keep a long-lived capture running in the background, holding on to the most recent lines, so that
+     * {@link #dumpRecent(long, OnLogLinesListener)} can be served from memory right away instead of starting
+     * <code>logcat</code> (which takes tens to hundreds of milliseconds on low-end devices). Handy for grabbing the
+     * last few seconds of log when something goes wrong (e.g. on ANR).
+     * <p>
+     * The warm capture is independent of other captures: {@link #endCapture()} doesn't end it, and
+     * {@link #waitForCaptureEnd()} doesn't wait for it. If <code>logcat</code> exits, the warm capture stops and has to
+     * be started again.
+     * <p>
+     * The warm capture reads the log in the <code>threadtime</code> format, whatever the device's default is, so that
+     * lines can be picked by the time they were logged.
+     *
+     * @param maxLines number of recent lines to keep
+     */
+    public void startWarmCapture(final int maxLines) {
+        if (maxLines < 1)
+            throw new IllegalArgumentException("Invalid line count: " + maxLines);
+
+        final LogReader reader = new LogReader(new WarmBuffer(maxLines));
+
+        synchronized (warmLock) {
+            if (null != warmCapture && !warmCapture.capture.isDone())
+                throw new IllegalStateException("Warm capture already running");
 
-            DEBUG("capture: stopping...");
-            captureTask.stop();
+            warmCapture = reader;
         }
+
+        DEBUG("warm: capturing...");
+        taskExecutor.execute(reader);
+    }
+
+    /**
+     * Stop the warm capture and drop its lines
+     */
+    public void stopWarmCapture() {
+        final LogReader reader;
+
+        synchronized (warmLock) {
+            reader = warmCapture;
+            warmCapture = null;
+        }
+
+        if (null != reader)
+            reader.capture.cancel();
+    }
+
+    /**
+     * @return <code>true</code> if the warm capture is running
+     */
+    public boolean isWarmCaptureRunning() {
+        final LogReader reader = warmCapture;
+        return null != reader && !reader.capture.isDone();
+    }
+
+    /**
+     * The lines the warm capture has read that were logged in the last <code>windowMillis</code> milliseconds
+     *
+     * @param windowMillis how far back to go
+     * @return the lines, oldest first. Empty if the warm capture isn't running.
+     */
+    public List<String> getRecentLines(final long windowMillis) {
+        final LogReader reader = warmCapture;
+
+        if (null == reader)
+            return new ArrayList<>();
+
+        return reader.warmBuffer.recent(windowMillis);
+    }
+
+    /**
+     * Dump the lines logged in the last <code>windowMillis</code> milliseconds from the warm capture's buffer (see
+     * {@link #startWarmCapture(int)}). The listener is called on the callback executor, as for
+     * {@link #dump(OnLogLinesListener)}. If the warm capture isn't running, this falls back to a regular (full) dump.
+     *
+     * @param windowMillis how far back to go
+     * @param listener     a listener to receive the log lines
+     * @return a handle to the dump
+     */
+    public Capture dumpRecent(final long windowMillis, final OnLogLinesListener listener) {
+        if (!isWarmCaptureRunning())
+            return dump(listener);
+
+        final Capture capture = new Capture();
+        final List<String> lines = getRecentLines(windowMillis);
+        capture.started();
+        DEBUG("warm: dumping %d lines, ready in %dms", lines.size(), capture.getStartupMillis());
+
+        callbackExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    listener.onStart();
+
+                    for (final String line : lines) {
+                        if (capture.isCancelled())
+                            break;
+
+                        listener.onLogLine(line);
+                    }
+
+                    listener.onFinished();
+                } finally {
+                    capture.finish();
+                }
+            }
+        });
+
+        return capture;
     }
 
     /**
@@ -179,47 +554,28 @@ public final class LogCatcher {
     }
 
     /**
-     * Best effort log eraser.
+     * Best effort log eraser. Doesn't block: dumps, exports, and captures started while the log is being cleared are
+     * queued until it's done. Running dumps and captures are not waited for.
      */
     public void clear() {
-        synchronized (lock) {
-            if (clearing)
-                throw new IllegalStateException("Clear already in progress");
+        final ClearTask task = new ClearTask();
 
-            waitForCaptureEnd();
-            clearing = true;
-
-            DEBUG("clear: clearing...");
-            taskExecutor.execute(new LogEraser() {
-                @Override
-                protected void onComplete(int exitCode) {
-                    synchronized (lock) {
-                        clearing = false;
-                        DEBUG("clear: complete");
-                        lock.notifyAll();
-                    }
-                }
+        if (!clearTask.compareAndSet(null, task))
+            throw new IllegalStateException("Clear already in progress");
 
-                @Override
-                protected void onError(Exception e) {
-                    synchronized (lock) {
-                        clearing = false;
-                        DEBUG("clear: failed");
-                        lock.notifyAll();
-                    }
-                }
-            });
-        }
+        DEBUG("clear: clearing...");
+        taskExecutor.execute(task);
     }
 
     void waitForClearEnd() {
         synchronized (lock) {
             DEBUG("waiting for clear to finish");
 
-            while (clearing) {
+            while (null != clearTask.get()) {
                 try {
                     lock.wait();
-                } catch (InterruptedException ignore) {
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
                     return;
                 }
             }
@@ -228,120 +584,459 @@ public final class LogCatcher {
 
     void waitForCaptureEnd() {
         synchronized (lock) {
-            DEBUG("waiting for current capture task to finish");
+            DEBUG("waiting for current capture tasks to finish");
 
-            while (capturing) {
+            while (activeTasks.get() > 0) {
                 try {
                     lock.wait();
-                } catch (InterruptedException ignore) {
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
                     return;
                 }
             }
         }
     }
 
-    private class LogReader implements Runnable {
+    private List<String> commandline(final boolean dump) {
+        final List<String> commandline = new ArrayList<>();
+        commandline.add(LOGCAT_EXEC);
+
+        if (pid != PID_NONE)
+            Collections.addAll(commandline, ARG_PID, String.valueOf(pid));
+
+        for (final String buffer : buffers)
+            Collections.addAll(commandline, ARG_BUFFER, buffer);
+
+        if (dump)
+            commandline.add(ARG_DUMP);
+
+        return commandline;
+    }
+
+    private class LogExporter implements Runnable {
+        private final OutputStream target;
+        private final boolean closeTarget;
+        private final Compression compression;
+        private final OnExportListener listener;
+
+        private LogExporter(final OutputStream out,
+                            final boolean close,
+                            final Compression c,
+                            final OnExportListener l) {
+            target = out;
+            closeTarget = close;
+            compression = c;
+            listener = l;
+        }
+
+        @Override
+        public void run() {
+            final List<String> commandline = commandline(true);
+            DEBUG("exporter: starting logcat process with params: %s", commandline.toString());
+
+            final long start = SystemClock.elapsedRealtime();
+            Process process = null;
+
+            try {
+                process = new ProcessBuilder(commandline).start();
+
+                final CountingOutputStream counter = new CountingOutputStream(target);
+                final Deflater deflater = compression == Compression.GZIP ? null : new Deflater();
+                final DeflaterOutputStream compressor = null == deflater
+                        ? new GZIPOutputStream(counter, EXPORT_BUFFER_SIZE)
+                        : new DeflaterOutputStream(counter, deflater, EXPORT_BUFFER_SIZE);
+
+                final InputStream logcat = process.getInputStream();
+                final byte[] buffer = new byte[EXPORT_BUFFER_SIZE];
+                long read = 0;
+                int count;
+
+                try {
+                    while ((count = logcat.read(buffer)) != -1) {
+                        compressor.write(buffer, 0, count);
+                        read += count;
+                    }
+
+                    compressor.finish();
+                } finally {
+                    logcat.close();
+                    // doesn't close the target (see CountingOutputStream)
+                    compressor.close();
+
+                    if (null != deflater)
+                        deflater.end();
+                }
+
+                process.waitFor();
+                final ExportStats stats = new ExportStats(read, counter.count, SystemClock.elapsedRealtime() - start);
+                DEBUG("exporter: %s", stats);
+
+                callbackExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        listener.onExportFinished(stats);
+                    }
+                });
+            } catch (final Exception e) {
+                if (null != process)
+                    process.destroy();
+
+                callbackExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        listener.onError(e);
+                    }
+                });
+            } finally {
+                if (closeTarget)
+                    closeQuietly(target);
+
+                DEBUG("exporter: complete");
+                taskFinished();
+            }
+        }
+    }
+
+    private static void closeQuietly(final Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException ignore) {
+            // nothing to do
+        }
+    }
+
+    private static class CountingOutputStream extends FilterOutputStream {
+        private long count = 0;
+
+        private CountingOutputStream(final OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        @Override
+        public void close() throws IOException {
+            // the target is owned by the caller
+            out.flush();
+        }
+    }
+
+    private class LogReader implements Runnable, ChunkReassembler.Output {
 
         private final ProxyOnLogLinesListener listener;
+        private final OnLogBytesListener bytesListener;
+        private final Executor delivery;
         private final boolean dump;
+        private final long timeoutMillis;
+        // the warm capture: not waited for by waitForCaptureEnd() and not ended by endCapture()
+        private final boolean background;
+        private final WarmBuffer warmBuffer;
 
-        private final AtomicBoolean stop = new AtomicBoolean(false);
+        private final Capture capture = new Capture();
 
-        private LogReader(final OnLogLinesListener logLinesListener, final boolean dumpOnly) {
+        private LogReader(final OnLogLinesListener logLinesListener, final boolean dumpOnly, final long timeout) {
             listener = new ProxyOnLogLinesListener(callbackExecutor, logLinesListener);
+            bytesListener = null;
+            delivery = callbackExecutor;
             dump = dumpOnly;
+            timeoutMillis = timeout;
+            background = false;
+            warmBuffer = null;
+        }
+
+        private LogReader(final WarmBuffer buffer) {
+            // the buffer is cheap to fill, so lines go straight in from the reader thread
+            listener = new ProxyOnLogLinesListener(DIRECT_EXECUTOR, buffer);
+            bytesListener = null;
+            delivery = DIRECT_EXECUTOR;
+            dump = false;
+            timeoutMillis = 0;
+            background = true;
+            warmBuffer = buffer;
         }
 
-        private LogReader(final OnLogLinesListener logLinesListener) {
-            this(logLinesListener, true);
+        private LogReader(final OnLogBytesListener logBytesListener, final boolean dumpOnly, final long timeout) {
+            // byte lines are only valid during the callback, so everything is delivered on the reader thread
+            listener = new ProxyOnLogLinesListener(DIRECT_EXECUTOR, new BytesLifecycleAdapter(logBytesListener));
+            bytesListener = logBytesListener;
+            delivery = DIRECT_EXECUTOR;
+            dump = dumpOnly;
+            timeoutMillis = timeout;
+            background = false;
+            warmBuffer = null;
         }
 
         @Override
         public void run() {
-            final List<String> commandline = new ArrayList<>();
-            commandline.add(LOGCAT_EXEC);
+            final List<String> commandline = commandline(dump);
 
-            if (pid != PID_NONE)
-                Collections.addAll(commandline, ARG_PID, String.valueOf(pid));
-
-            if (dump)
-                commandline.add(ARG_DUMP);
+            // the warm buffer goes by the logged time, so make sure every line has one
+            if (null != warmBuffer)
+                Collections.addAll(commandline, ARG_FORMAT, FORMAT_THREADTIME);
 
             DEBUG("reader: starting logcat process with params: %s", commandline.toString());
 
             try {
-                captureProcess = new ProcessBuilder(commandline).start();
-                DEBUG("reader: Started logcat.");
+                if (capture.isCancelled()) {
+                    DEBUG("reader: cancelled before start.");
+                    listener.onFinished();
+                    return;
+                }
+
+                final Process process = new ProcessBuilder(commandline).start();
+
+                if (!capture.attach(process)) {
+                    DEBUG("reader: cancelled while starting logcat.");
+                    listener.onFinished();
+                    return;
+                }
+
+                capture.started();
+                DEBUG("reader: Started logcat in %dms.", capture.getStartupMillis());
 
                 listener.onStart();
 
-                new Thread(new Runnable() {
-                    @Override
-                    public void run() {
-                        try {
-                            final BufferedReader logcat = new BufferedReader(new InputStreamReader(captureProcess.getInputStream()));
-
-                            String line;
-
-                            while ((line = logcat.readLine()) != null) {
-
-                                final String finalLine = line;
-                                callbackExecutor.execute(new Runnable() {
-                                    @Override
-                                    public void run() {
-                                        listener.onLogLine(finalLine);
-                                    }
-                                });
-
-                                if (stop.get()) {
-                                    DEBUG("reader: Stop requested. killing logcat.");
-                                    captureProcess.destroy();
-                                    break;
-                                }
+                final ScheduledFuture<?> deadline = timeoutMillis > 0
+                        ? TaskExecutors.scheduler().schedule(new Runnable() {
+                            @Override
+                            public void run() {
+                                DEBUG("reader: deadline expired. killing logcat.");
+                                capture.cancel();
                             }
+                        }, timeoutMillis, TimeUnit.MILLISECONDS)
+                        : null;
 
-                            DEBUG("reader: No more lines.");
-                            logcat.close();
-                        } catch (final IOException e) {
-                            callbackExecutor.execute(new Runnable() {
-                                @Override
-                                public void run() {
-                                    listener.onError(e);
-                                }
-                            });
-                        }
-
-                        callbackExecutor.execute(new Runnable() {
+                try {
+                    if (null == bytesListener)
+                        readLines(process);
+                    else
+                        readBytes(process);
+                } catch (final IOException e) {
+                    // reading fails once the process of a cancelled capture is killed
+                    if (!capture.isCancelled())
+                        delivery.execute(new Runnable() {
                             @Override
                             public void run() {
-                                listener.onFinished();
+                                listener.onError(e);
                             }
                         });
+                } finally {
+                    if (null != deadline)
+                        deadline.cancel(false);
+                }
+
+                delivery.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        listener.onFinished();
                     }
-                }).start();
+                });
 
-                final int exitCode = captureProcess.waitFor();
+                final int exitCode = process.waitFor();
                 DEBUG("reader: logcat process finished with %d", exitCode);
             } catch (Exception e) {
                 if (Thread.interrupted()) {
-                    captureProcess.destroy();
+                    capture.cancel();
                     listener.onFinished();
                 } else listener.onError(e);
             } finally {
-                synchronized (lock) {
-                    captureProcess = null;
-                    capturing = false;
-                    DEBUG("reader: complete");
-                    lock.notifyAll();
+                captures.remove(this);
+                capture.finish();
+
+                DEBUG("reader: complete");
+
+                if (!background)
+                    taskFinished();
+            }
+        }
+
+        private void readLines(final Process process) throws IOException {
+            final BufferedReader logcat = new BufferedReader(new InputStreamReader(process.getInputStream()));
+            final ChunkReassembler reassembler = reassembleChunks
+                    ? new ChunkReassembler(this)
+                    : null;
+
+            try {
+                String line;
+
+                while ((line = logcat.readLine()) != null) {
+                    if (null == reassembler)
+                        onLine(line);
+                    else
+                        reassembler.feed(line);
+
+                    if (stopRequested())
+                        break;
                 }
+
+                DEBUG("reader: No more lines.");
+            } finally {
+                logcat.close();
             }
+
+            if (null != reassembler)
+                reassembler.flush();
         }
 
-        public void stop() {
-            synchronized (lock) {
-                stop.set(true);
+        private void readBytes(final Process process) throws IOException {
+            final ByteLineReader logcat = new ByteLineReader(process.getInputStream(), ByteLineReader.DEFAULT_BUFFER_SIZE);
+
+            try {
+                LogLineBytes line;
+
+                while ((line = logcat.next()) != null) {
+                    if (!lineFutures.isEmpty())
+                        matchLine(line.toString());
+
+                    bytesListener.onLogLine(line);
+
+                    if (stopRequested())
+                        break;
+                }
+
+                DEBUG("reader: No more lines.");
+            } finally {
+                logcat.close();
             }
         }
+
+        private boolean stopRequested() {
+            if (!capture.isCancelled())
+                return false;
+
+            DEBUG("reader: Stop requested.");
+            return true;
+        }
+
+        @Override
+        public void onLine(final String line) {
+            if (!lineFutures.isEmpty())
+                matchLine(line);
+
+            delivery.execute(new Runnable() {
+                @Override
+                public void run() {
+                    listener.onLogLine(line);
+                }
+            });
+        }
+    }
+
+    /**
+     * The warm capture's rolling buffer: the most recent lines and the (wall clock) time they were logged at. The time
+     * comes from the line itself rather than from when it was read, since <code>logcat</code> starts by replaying
+     * whatever is already in the log.
+     */
+    private static final class WarmBuffer implements OnLogLinesListener {
+        private final String[] lines;
+        private final long[] times;
+
+        // guarded by this
+        private final LogcatTimestamps timestamps = new LogcatTimestamps();
+        private long count = 0;
+        // lines without a timestamp (e.g. "--------- beginning of main") go with the line before them
+        private long lastTime = Long.MIN_VALUE;
+
+        private WarmBuffer(final int maxLines) {
+            lines = new String[maxLines];
+            times = new long[maxLines];
+        }
+
+        @Override
+        public synchronized void onLogLine(final String logLine) {
+            final long time = timestamps.parse(logLine);
+
+            if (time != Long.MIN_VALUE)
+                lastTime = time;
+
+            final int slot = (int) (count++ % lines.length);
+            lines[slot] = logLine;
+            times[slot] = lastTime;
+        }
+
+        synchronized List<String> recent(final long windowMillis) {
+            final long since = System.currentTimeMillis() - windowMillis;
+            final long oldest = Math.max(0, count - lines.length);
+            long first = count;
+
+            // newest first, to find the start of the window
+            while (first > oldest && times[(int) ((first - 1) % lines.length)] >= since)
+                first--;
+
+            final List<String> recent = new ArrayList<>((int) (count - first));
+
+            for (long i = first; i < count; i++)
+                recent.add(lines[(int) (i % lines.length)]);
+
+            return recent;
+        }
+
+        @Override
+        public void onStart() {
+            // nothing to do
+        }
+
+        @Override
+        public void onFinished() {
+            // nothing to do
+        }
+
+        @Override
+        public void onError(final Throwable t) {
+            DEBUG("warm: capture failed: %s", t);
+        }
+    }
+
+    /**
+     * Clears the log for {@link #clear()}, and then starts the tasks that were submitted in the meantime
+     */
+    private final class ClearTask extends LogEraser {
+        private final Queue<Runnable> deferred = new ConcurrentLinkedQueue<>();
+        private volatile boolean done = false;
+
+        /**
+         * @return <code>false</code> if the log has been cleared already and the caller must run the task itself
+         */
+        boolean defer(final Runnable task) {
+            deferred.add(task);
+
+            // finish() sets the flag before it drains the queue: if the task is still queued, it's ours to run
+            return !done || !deferred.remove(task);
+        }
+
+        @Override
+        protected void onComplete(final int exitCode) {
+            DEBUG("clear: complete");
+            finish();
+        }
+
+        @Override
+        protected void onError(final Exception e) {
+            DEBUG("clear: failed");
+            finish();
+        }
+
+        private void finish() {
+            clearTask.compareAndSet(this, null);
+            done = true;
+
+            Runnable task;
+
+            while (null != (task = deferred.poll()))
+                taskExecutor.execute(task);
+
+            signal();
+        }
     }
 
     private static class LogEraser implements Runnable {
@@ -367,6 +1062,216 @@ public final class LogCatcher {
         }
     }
 
+    /**
+     * A handle to a running dump or capture
+     */
+    public static final class Capture {
+        private final AtomicBoolean cancelled = new AtomicBoolean(false);
+        private final CountDownLatch done = new CountDownLatch(1);
+        private final long requested = SystemClock.elapsedRealtime();
+        private volatile long startupMillis = -1;
+        private volatile Process process = null;
+
+        Capture() {
+            // created by the reader
+        }
+
+        /**
+         * Stop the dump or capture. If <code>logcat</code> is running, it is killed right away, which unblocks the
+         * reader even if no more lines are logged. The listener is told the capture finished (not that it failed).
+         * Does nothing if already cancelled or done.
+         */
+        public void cancel() {
+            if (!cancelled.compareAndSet(false, true))
+                return;
+
+            final Process p = process;
+
+            if (null != p)
+                p.destroy();
+        }
+
+        /**
+         * @return <code>true</code> if {@link #cancel()} was called or a dump deadline expired
+         */
+        public boolean isCancelled() {
+            return cancelled.get();
+        }
+
+        /**
+         * @return <code>true</code> once <code>logcat</code> is gone and the reader has stopped. Lines read last may
+         * still be on their way to a listener that receives them on the callback executor.
+         */
+        public boolean isDone() {
+            return done.getCount() == 0;
+        }
+
+        /**
+         * Startup latency: the time from the request until <code>logcat</code> was running (or, for
+         * {@link LogCatcher#dumpRecent(long, OnLogLinesListener)}, until the buffered lines were ready), including any
+         * wait for {@link LogCatcher#clear()}.
+         *
+         * @return startup latency in milliseconds, or <code>-1</code> if not started (yet).
+         */
+        public long getStartupMillis() {
+            return startupMillis;
+        }
+
+        /**
+         * Wait for the dump or capture to end
+         *
+         * @param timeoutMillis maximum time to wait
+         * @return <code>true</code> if it ended, <code>false</code> on timeout.
+         * @throws InterruptedException if the calling thread is interrupted while waiting
+         */
+        public boolean await(final long timeoutMillis) throws InterruptedException {
+            return done.await(timeoutMillis, TimeUnit.MILLISECONDS);
+        }
+
+        /**
+         * @return <code>false</code> if the capture was cancelled while <code>logcat</code> was starting, in which case
+         * the process has been killed.
+         */
+        boolean attach(final Process p) {
+            process = p;
+
+            // cancel() sets the flag before it looks at the process
+            if (cancelled.get()) {
+                p.destroy();
+                return false;
+            }
+
+            return true;
+        }
+
+        void started() {
+            startupMillis = SystemClock.elapsedRealtime() - requested;
+        }
+
+        void finish() {
+            process = null;
+            done.countDown();
+        }
+    }
+
+    /**
+     * matches log lines for {@link LogCatcher#awaitLine(LinePredicate)}
+     */
+    public interface LinePredicate {
+        /**
+         * @param line log line
+         * @return <code>true</code> if this is the line being waited for
+         */
+        boolean matches(final String line);
+    }
+
+    private final class LineFuture implements Future<String> {
+        private final LinePredicate predicate;
+
+        private volatile boolean done = false;
+
+        // guarded by this
+        private boolean cancelled = false;
+        private String result = null;
+        private Throwable error = null;
+
+        private LineFuture(final LinePredicate p) {
+            predicate = p;
+        }
+
+        /**
+         * Check a line (reader thread)
+         *
+         * @return <code>true</code> if the future is done and can be unregistered
+         */
+        boolean offer(final String line) {
+            if (done)
+                return true;
+
+            try {
+                if (!predicate.matches(line))
+                    return false;
+
+                complete(line, null);
+            } catch (RuntimeException e) {
+                complete(null, e);
+            }
+
+            return true;
+        }
+
+        private synchronized void complete(final String line, final Throwable t) {
+            if (done)
+                return;
+
+            result = line;
+            error = t;
+            done = true;
+            notifyAll();
+        }
+
+        @Override
+        public boolean cancel(final boolean mayInterruptIfRunning) {
+            synchronized (this) {
+                if (done)
+                    return false;
+
+                cancelled = true;
+                done = true;
+                notifyAll();
+            }
+
+            lineFutures.remove(this);
+            return true;
+        }
+
+        @Override
+        public synchronized boolean isCancelled() {
+            return cancelled;
+        }
+
+        @Override
+        public boolean isDone() {
+            return done;
+        }
+
+        @Override
+        public synchronized String get() throws InterruptedException, ExecutionException {
+            while (!done)
+                wait();
+
+            return report();
+        }
+
+        @Override
+        public synchronized String get(final long timeout, final TimeUnit unit)
+                throws InterruptedException, ExecutionException, TimeoutException {
+            final long deadline = System.nanoTime() + unit.toNanos(timeout);
+
+            while (!done) {
+                final long remaining = deadline - System.nanoTime();
+
+                if (remaining <= 0)
+                    throw new TimeoutException();
+
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            }
+
+            return report();
+        }
+
+        // guarded by this
+        private String report() throws ExecutionException {
+            if (cancelled)
+                throw new CancellationException();
+
+            if (null != error)
+                throw new ExecutionException(error);
+
+            return result;
+        }
+    }
+
     /**
      * receive log lines and updates on the capture state
      */
@@ -400,6 +1305,141 @@ public final class LogCatcher {
         void onError(final Throwable t);
     }
 
+    /**
+     * receive log lines as raw bytes, and updates on the capture state. All methods are called on the background thread
+     * that reads the log.
+     */
+    public interface OnLogBytesListener {
+        /**
+         * A new line was read from the log
+         *
+         * @param logLine log line. Only valid until this method returns.
+         */
+        void onLogLine(final LogLineBytes logLine);
+
+        /**
+         * Capture started. See {@link OnLogLinesListener#onStart()}.
+         */
+        void onStart();
+
+        /**
+         * Capture finished. See {@link OnLogLinesListener#onFinished()}.
+         */
+        void onFinished();
+
+        /**
+         * Error encountered. See {@link OnLogLinesListener#onError(Throwable)}.
+         *
+         * @param t caught error
+         */
+        void onError(final Throwable t);
+    }
+
+    private static class BytesLifecycleAdapter implements OnLogLinesListener {
+        private final OnLogBytesListener delegate;
+
+        private BytesLifecycleAdapter(final OnLogBytesListener d) {
+            delegate = d;
+        }
+
+        @Override
+        public void onLogLine(final String logLine) {
+            // lines are delivered to the delegate directly
+        }
+
+        @Override
+        public void onStart() {
+            delegate.onStart();
+        }
+
+        @Override
+        public void onFinished() {
+            delegate.onFinished();
+        }
+
+        @Override
+        public void onError(final Throwable t) {
+            delegate.onError(t);
+        }
+    }
+
+    /**
+     * Compression formats for {@link LogCatcher#export(OutputStream, Compression, OnExportListener)}
+     */
+    public enum Compression {
+        /**
+         * gzip (RFC 1952) format, readable by <code>gunzip</code>
+         */
+        GZIP,
+        /**
+         * zlib (RFC 1950) format, readable by {@link java.util.zip.InflaterInputStream}
+         */
+        DEFLATE
+    }
+
+    /**
+     * receive the outcome of a log export
+     */
+    public interface OnExportListener {
+        /**
+         * The log was exported
+         *
+         * @param stats export statistics
+         */
+        void onExportFinished(final ExportStats stats);
+
+        /**
+         * Error encountered
+         *
+         * @param t caught error either during the execution of the <code>logcat</code> command or while writing the export.
+         */
+        void onError(final Throwable t);
+    }
+
+    /**
+     * Log export statistics
+     */
+    public static final class ExportStats {
+        /**
+         * Uncompressed bytes read from the log
+         */
+        public final long bytesRead;
+        /**
+         * Compressed bytes written
+         */
+        public final long bytesWritten;
+        /**
+         * Export duration in milliseconds
+         */
+        public final long elapsedMillis;
+
+        ExportStats(final long read, final long written, final long elapsed) {
+            bytesRead = read;
+            bytesWritten = written;
+            elapsedMillis = elapsed;
+        }
+
+        /**
+         * @return compressed size over uncompressed size, or <code>0</code> if the log was empty.
+         */
+        public double compressionRatio() {
+            return bytesRead == 0 ? 0 : (double) bytesWritten / bytesRead;
+        }
+
+        /**
+         * @return uncompressed bytes exported per second
+         */
+        public double throughput() {
+            return bytesRead * 1000.0 / Math.max(1, elapsedMillis);
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ENGLISH, "%d bytes -> %d bytes (%.1f%%) in %dms (%.0f KB/s)",
+                    bytesRead, bytesWritten, compressionRatio() * 100, elapsedMillis, throughput() / 1024);
+        }
+    }
+
     private static class ProxyOnLogLinesListener implements OnLogLinesListener {
         private final Executor executor;
         private final OnLogLinesListener delegate;
@@ -0,0 +1,276 @@
+/*
+ * ****************************************************************************
+ *   Copyright  2017 airG Inc.                                                 *
+ *                                                                             *
+ *   Licensed under the Apache License, Version 2.0 (the "License");           *
+ *   you may not use this file except in compliance with the License.          *
+ *   You may obtain a copy of the License at                                   *
+ *                                                                             *
+ *       http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                             *
+ *   Unless required by applicable law or agreed to in writing, software       *
+ *   distributed under the License is distributed on an "AS IS" BASIS,         *
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  *
+ *   See the License for the specific language governing permissions and       *
+ *   limitations under the License.                                            *
+ * ***************************************************************************
+ */
+
+package com.airg.android.logging;
+
+import android.os.SystemClock;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collapses consecutive identical log records into a single "repeated N times" record.
+ * <p>
+ * Records are compared by level, tag, message, and throwable, without formatting them where that can be avoided:
+ * formatted records whose arguments are all {@link #immutable(Object[]) immutable} are compared by format and
+ * arguments, and events by their message and fields. Throwables are compared by their
+ * {@link StackTraceCache.Signature signature} (type, message, and stack frames), so the same failure thrown again
+ * (e.g. in a retry loop) is a repeat. The summary is written once a different record is logged, the
+ * window expires, or {@link #flush()} is called, and always outside of the collapser's lock.
+ */
+final class LogCollapser {
+    // argument types that can't change between the call and a later comparison
+    private static final Set<Class<?>> IMMUTABLE = new HashSet<Class<?>>(Arrays.asList(
+            String.class, Integer.class, Long.class, Short.class, Byte.class, Character.class, Boolean.class,
+            Float.class, Double.class));
+
+    private final long window;
+
+    private boolean pending = false;
+    private int hash;
+    private int level;
+    private TaggedLogger logger;
+    // the message, or the format of a formatted record, or the message of an event
+    private String message;
+    private Object[] args;
+    private LogEvent event;
+    private StackTraceCache.Signature failure;
+    private long firstSeen;
+    private int repeats;
+
+    // bumped for every new reference record, so a stale expiry doesn't flush the next run
+    private long generation = 0;
+    private ScheduledFuture<?> expiry = null;
+
+    LogCollapser(final long windowMillis) {
+        window = windowMillis;
+    }
+
+    long window() {
+        return window;
+    }
+
+    /**
+     * @param values format arguments
+     * @return <code>true</code> if the arguments are all strings, boxed primitives, enums, or <code>null</code>, and
+     * so can be compared with {@link #collapseFormatted(int, TaggedLogger, String, Object[])} instead of formatted
+     */
+    static boolean immutable(final Object[] values) {
+        if (null == values)
+            return true;
+
+        for (final Object value : values)
+            if (null != value && !IMMUTABLE.contains(value.getClass()) && !(value instanceof Enum))
+                return false;
+
+        return true;
+    }
+
+    /**
+     * Checks a record against the last one seen. If the record is a repeat within the collapse window, it is
+     * swallowed. Otherwise, any pending "repeated" summary is written out first and the record becomes the new
+     * reference.
+     *
+     * @return <code>true</code> if the record was collapsed and must not be logged, <code>false</code> otherwise.
+     */
+    boolean collapse(final int lvl, final TaggedLogger t, final String msg, final Throwable tr) {
+        return collapse(lvl, t, msg, null, null, tr);
+    }
+
+    /**
+     * Checks a formatted record against the last one seen, as {@link #collapse(int, TaggedLogger, String, Throwable)}
+     * does, without formatting it.
+     *
+     * @param fmt    format
+     * @param values format arguments, all {@link #immutable(Object[]) immutable}
+     */
+    boolean collapseFormatted(final int lvl, final TaggedLogger t, final String fmt, final Object[] values) {
+        return collapse(lvl, t, fmt, null == values || values.length == 0 ? null : values, null, null);
+    }
+
+    /**
+     * Checks an event against the last one seen, by message and fields, as
+     * {@link #collapse(int, TaggedLogger, String, Throwable)} does.
+     */
+    boolean collapseEvent(final LogEvent e) {
+        return collapse(e.level(), e.logger(), e.message(), null, e, null);
+    }
+
+    private boolean collapse(final int lvl,
+                             final TaggedLogger t,
+                             final String msg,
+                             final Object[] values,
+                             final LogEvent e,
+                             final Throwable tr) {
+        final StackTraceCache.Signature f = StackTraceCache.signature(tr);
+        final int h = hash(lvl, t, msg, values, e, f);
+        final Summary summary;
+
+        synchronized (this) {
+            final long now = SystemClock.elapsedRealtime();
+
+            if (pending && h == hash && matches(lvl, t, msg, values, e, f) && now - firstSeen <= window) {
+                if (++repeats == 1)
+                    scheduleExpiry(Math.max(firstSeen + window - now, 0));
+
+                return true;
+            }
+
+            // a different record, or the same one after the window has expired: summarize and start over
+            summary = take();
+
+            pending = true;
+            hash = h;
+            level = lvl;
+            logger = t;
+            message = msg;
+            // the caller's array and the (recycled) event may change once this returns
+            args = null == values ? null : values.clone();
+            event = null == e ? null : e.copy();
+            failure = f;
+            firstSeen = now;
+            repeats = 0;
+            generation++;
+        }
+
+        if (null != summary)
+            summary.write();
+
+        return false;
+    }
+
+    /**
+     * Write out the pending "repeated" summary (if any) and forget the last seen record.
+     */
+    void flush() {
+        final Summary summary;
+
+        synchronized (this) {
+            summary = take();
+        }
+
+        if (null != summary)
+            summary.write();
+    }
+
+    private void expire(final long expected) {
+        final Summary summary;
+
+        synchronized (this) {
+            if (expected != generation)
+                return;
+
+            summary = take();
+        }
+
+        if (null != summary)
+            summary.write();
+    }
+
+    private void scheduleExpiry(final long delayMillis) {
+        final long expected = generation;
+
+        expiry = TaskExecutors.scheduler().schedule(new Runnable() {
+            @Override
+            public void run() {
+                expire(expected);
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // call with the lock held
+    private Summary take() {
+        Summary summary = null;
+
+        if (pending && repeats > 0) {
+            final ScratchBuffer scratch = ScratchBuffer.acquire();
+            scratch.builder()
+                    .append("Last message repeated ")
+                    .append(repeats)
+                    .append(repeats == 1 ? " time" : " times");
+            summary = new Summary(level, logger, scratch.release());
+        }
+
+        if (null != expiry) {
+            expiry.cancel(false);
+            expiry = null;
+        }
+
+        pending = false;
+        logger = null;
+        message = null;
+        args = null;
+        event = null;
+        failure = null;
+        repeats = 0;
+        return summary;
+    }
+
+    private boolean matches(final int lvl,
+                            final TaggedLogger t,
+                            final String msg,
+                            final Object[] values,
+                            final LogEvent e,
+                            final StackTraceCache.Signature f) {
+        // unregistered tags get a new logger from time to time
+        return level == lvl
+                && (logger == t || logger.id() < 0 && t.id() < 0 && equal(logger.tag(), t.tag()))
+                && (null == failure ? null == f : failure.equals(f))
+                && equal(message, msg)
+                && Arrays.equals(args, values)
+                && (null == event ? null == e : null != e && event.sameFields(e));
+    }
+
+    private static int hash(final int lvl,
+                            final TaggedLogger t,
+                            final String msg,
+                            final Object[] values,
+                            final LogEvent e,
+                            final StackTraceCache.Signature f) {
+        int h = lvl;
+        h = 31 * h + (null == t.tag() ? 0 : t.tag().hashCode());
+        h = 31 * h + (null == msg ? 0 : msg.hashCode());
+        h = 31 * h + Arrays.hashCode(values);
+        h = 31 * h + (null == e ? 0 : e.fieldsHash());
+        h = 31 * h + (null == f ? 0 : f.hashCode());
+        return h;
+    }
+
+    private static boolean equal(final String a, final String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    private static final class Summary {
+        private final int level;
+        private final TaggedLogger logger;
+        private final String text;
+
+        private Summary(final int lvl, final TaggedLogger t, final String txt) {
+            level = lvl;
+            logger = t;
+            text = txt;
+        }
+
+        private void write() {
+            Logger.logAs(level, logger, text);
+        }
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * ****************************************************************************
+ *   Copyright  2017 airG Inc.                                                 *
+ *                                                                             *
+ *   Licensed under the Apache License, Version 2.0 (the "License");           *
+ *   you may not use this file except in compliance with the License.          *
+ *   You may obtain a copy of the License at                                   *
+ *                                                                             *
+ *       http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                             *
+ *   Unless required by applicable law or agreed to in writing, software       *
+ *   distributed under the License is distributed on an "AS IS" BASIS,         *
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  *
+ *   See the License for the specific language governing permissions and       *
+ *   limitations under the License.                                            *
+ * ***************************************************************************
+ */
+
+package com.airg.android.logging;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * A parsed log configuration file (see {@link Logger#watchConfig(File, long)}). Parsing validates everything up front,
+ * so {@link #apply()} can't fail half way.
+ */
+final class LogConfig {
+    private static final String KEY_ROOT = "root";
+    private static final String KEY_LOGCAT = "logcat";
+    private static final String PREFIX_LEVEL = "level.";
+    private static final String PREFIX_SAMPLE = "sample.";
+    private static final String PREFIX_SINK = "sink.";
+
+    private Integer rootLevel = null;
+    private Boolean logcat = null;
+    private final Map<String, Integer> levels = new HashMap<>();
+    private final Map<String, Integer> sampling = new HashMap<>();
+    private final Set<String> disabledSinks = new HashSet<>();
+
+    private LogConfig() {
+    }
+
+    static LogConfig load(final File file) throws IOException {
+        final Properties properties = new Properties();
+        final InputStream in = new FileInputStream(file);
+
+        try {
+            properties.load(in);
+        } finally {
+            in.close();
+        }
+
+        return parse(properties);
+    }
+
+    static LogConfig parse(final Properties properties) {
+        final LogConfig config = new LogConfig();
+
+        for (final String key : properties.stringPropertyNames()) {
+            final String value = properties.getProperty(key).trim();
+
+            if (KEY_ROOT.equals(key))
+                config.rootLevel = level(key, value);
+            else if (KEY_LOGCAT.equals(key))
+                config.logcat = bool(key, value);
+            else if (key.startsWith(PREFIX_LEVEL))
+                config.levels.put(name(key, PREFIX_LEVEL), level(key, value));
+            else if (key.startsWith(PREFIX_SAMPLE))
+                config.sampling.put(name(key, PREFIX_SAMPLE), sampling(key, value));
+            else if (key.startsWith(PREFIX_SINK)) {
+                if (!bool(key, value))
+                    config.disabledSinks.add(name(key, PREFIX_SINK));
+            } else
+                throw new IllegalArgumentException("Unknown setting: " + key);
+        }
+
+        return config;
+    }
+
+    void apply() {
+        TagRegistry.configure(rootLevel, levels, sampling);
+
+        if (null != logcat)
+            Logger.setLogcatEnabled(logcat);
+
+        Logger.setDisabledSinks(disabledSinks.isEmpty()
+                ? Collections.<String>emptySet()
+                : Collections.unmodifiableSet(new HashSet<>(disabledSinks)));
+    }
+
+    private static String name(final String key, final String prefix) {
+        final String name = key.substring(prefix.length());
+
+        if (name.isEmpty())
+            throw new IllegalArgumentException("Missing name: " + key);
+
+        return name;
+    }
+
+    private static int level(final String key, final String value) {
+        switch (value.toUpperCase(Locale.ENGLISH)) {
+            case "VERBOSE":
+            case "V":
+                return Log.VERBOSE;
+            case "DEBUG":
+            case "D":
+                return Log.DEBUG;
+            case "INFO":
+            case "I":
+                return Log.INFO;
+            case "WARN":
+            case "W":
+                return Log.WARN;
+            case "ERROR":
+            case "E":
+                return Log.ERROR;
+            default:
+                throw new IllegalArgumentException("Invalid level for " + key + ": " + value);
+        }
+    }
+
+    private static boolean bool(final String key, final String value) {
+        if ("true".equalsIgnoreCase(value))
+            return true;
+
+        if ("false".equalsIgnoreCase(value))
+            return false;
+
+        throw new IllegalArgumentException("Invalid value for " + key + ": " + value);
+    }
+
+    private static int sampling(final String key, final String value) {
+        try {
+            return Logger.samplingInterval(Double.parseDouble(value));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid sample rate for " + key + ": " + value);
+        }
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * ****************************************************************************
+ *   Copyright  2017 airG Inc.                                                 *
+ *                                                                             *
+ *   Licensed under the Apache License, Version 2.0 (the "License");           *
+ *   you may not use this file except in compliance with the License.          *
+ *   You may obtain a copy of the License at                                   *
+ *                                                                             *
+ *       http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                             *
+ *   Unless required by applicable law or agreed to in writing, software       *
+ *   distributed under the License is distributed on an "AS IS" BASIS,         *
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  *
+ *   See the License for the specific language governing permissions and       *
+ *   limitations under the License.                                            *
+ * ***************************************************************************
+ */
+
+package com.airg.android.logging;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Polls a log configuration file and applies it when it changes. Checking for changes only looks at the file's
+ * modification time and size, so polling is cheap.
+ */
+final class LogConfigWatcher implements Runnable {
+    private static final String TAG = "LOG";
+
+    private final File file;
+    private final long interval;
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    // last applied (or rejected) version of the file
+    private long lastModified = 0;
+    private long lastLength = -1;
+
+    LogConfigWatcher(final File configFile, final long intervalMillis) {
+        file = configFile;
+        interval = intervalMillis;
+        thread = new Thread(this, "Logger-config");
+        thread.setDaemon(true);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    void stop() {
+        running = false;
+        thread.interrupt();
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            check();
+
+            try {
+                Thread.sleep(interval);
+            } catch (InterruptedException e) {
+                // stopped
+            }
+        }
+    }
+
+    void check() {
+        final long modified = file.lastModified();
+
+        // missing: keep the current configuration
+        if (modified == 0)
+            return;
+
+        final long length = file.length();
+
+        if (modified == lastModified && length == lastLength)
+            return;
+
+        lastModified = modified;
+        lastLength = length;
+
+        try {
+            LogConfig.load(file).apply();
+            Log.println(Log.INFO, TAG, "Applied log configuration " + file);
+        } catch (IOException | IllegalArgumentException e) {
+            Log.println(Log.WARN, TAG, "Ignoring log configuration " + file + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,318 @@
+/*
+ * ****************************************************************************
+ *   Copyright  2017 airG Inc.                                                 *
+ *                                                                             *
+ *   Licensed under the Apache License, Version 2.0 (the "License");           *
+ *   you may not use this file except in compliance with the License.          *
+ *   You may obtain a copy of the License at                                   *
+ *                                                                             *
+ *       http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                             *
+ *   Unless required by applicable law or agreed to in writing, software       *
+ *   distributed under the License is distributed on an "AS IS" BASIS,         *
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  *
+ *   See the License for the specific language governing permissions and       *
+ *   limitations under the License.                                            *
+ * ***************************************************************************
+ */
+
+package com.airg.android.logging;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+
+/**
+ * Per-thread diagnostic context (session id, request id, screen name, etc.) that {@link Logger} attaches to every
+ * record logged on that thread, rendered as a <code>[key=value ...] </code> prefix.
+ * <p>
+ * The context of a thread is an immutable {@link Snapshot}. Changing the context replaces the snapshot, so records
+ * logged between changes share the same snapshot (and its rendered prefix) and attaching the context doesn't allocate
+ * anything per log call. Snapshots can be handed to other threads via {@link #attach(Snapshot)}, or automatically via
+ * {@link #wrap(Runnable)}, {@link #wrap(Callable)}, and {@link #wrap(Executor)}.
+ */
+@SuppressWarnings({"UnusedDeclaration", "WeakerAccess"})
+public final class LogContext {
+    private static final ThreadLocal<Snapshot> CONTEXT = new ThreadLocal<Snapshot>() {
+        @Override
+        protected Snapshot initialValue() {
+            return Snapshot.EMPTY;
+        }
+    };
+
+    private LogContext() {
+        // no instances
+    }
+
+    /**
+     * Set a context value for the current thread
+     *
+     * @param key   context key
+     * @param value context value. <code>null</code> removes the key.
+     */
+    public static void put(final String key, final String value) {
+        if (null == key)
+            throw new IllegalArgumentException("null key");
+
+        CONTEXT.set(CONTEXT.get().with(key, value));
+    }
+
+    /**
+     * Get a context value of the current thread
+     *
+     * @param key context key
+     * @return the value or <code>null</code> if not set
+     */
+    public static String get(final String key) {
+        return CONTEXT.get().get(key);
+    }
+
+    /**
+     * Remove a context value from the current thread
+     *
+     * @param key context key
+     */
+    public static void remove(final String key) {
+        put(key, null);
+    }
+
+    /**
+     * Clear the current thread's context
+     */
+    public static void clear() {
+        CONTEXT.set(Snapshot.EMPTY);
+    }
+
+    /**
+     * The current thread's context
+     *
+     * @return an immutable snapshot of the context
+     */
+    public static Snapshot current() {
+        return CONTEXT.get();
+    }
+
+    /**
+     * Replace the current thread's context (e.g. with a snapshot taken on another thread)
+     *
+     * @param snapshot the new context. <code>null</code> clears the context.
+     * @return the previous context, to be restored once done.
+     */
+    public static Snapshot attach(final Snapshot snapshot) {
+        final Snapshot previous = CONTEXT.get();
+        CONTEXT.set(null == snapshot ? Snapshot.EMPTY : snapshot);
+        return previous;
+    }
+
+    /**
+     * Wrap a task so that it runs with the caller's current context
+     *
+     * @param task task to wrap
+     * @return a task that attaches the context captured now, runs <code>task</code>, and restores the executing
+     * thread's context.
+     */
+    public static Runnable wrap(final Runnable task) {
+        final Snapshot snapshot = current();
+
+        return new Runnable() {
+            @Override
+            public void run() {
+                final Snapshot previous = attach(snapshot);
+
+                try {
+                    task.run();
+                } finally {
+                    attach(previous);
+                }
+            }
+        };
+    }
+
+    /**
+     * Wrap a task so that it runs with the caller's current context
+     *
+     * @param task task to wrap
+     * @param <V>  result type
+     * @return a task that attaches the context captured now, calls <code>task</code>, and restores the executing
+     * thread's context.
+     */
+    public static <V> Callable<V> wrap(final Callable<V> task) {
+        final Snapshot snapshot = current();
+
+        return new Callable<V>() {
+            @Override
+            public V call() throws Exception {
+                final Snapshot previous = attach(snapshot);
+
+                try {
+                    return task.call();
+                } finally {
+                    attach(previous);
+                }
+            }
+        };
+    }
+
+    /**
+     * Wrap an executor so that tasks run with the context of the thread that submitted them
+     *
+     * @param executor executor to wrap
+     * @return context propagating executor
+     */
+    public static Executor wrap(final Executor executor) {
+        return new Executor() {
+            @Override
+            public void execute(final Runnable command) {
+                executor.execute(wrap(command));
+            }
+        };
+    }
+
+    /**
+     * An immutable set of context values. Keys are kept sorted.
+     */
+    public static final class Snapshot {
+        static final Snapshot EMPTY = new Snapshot(new String[0], new String[0]);
+
+        private final String[] keys;
+        private final String[] values;
+
+        // rendered lazily. Racy but idempotent.
+        private String prefix = null;
+
+        private Snapshot(final String[] k, final String[] v) {
+            keys = k;
+            values = v;
+        }
+
+        /**
+         * @return number of context values
+         */
+        public int size() {
+            return keys.length;
+        }
+
+        /**
+         * @return <code>true</code> if there are no context values
+         */
+        public boolean isEmpty() {
+            return keys.length == 0;
+        }
+
+        /**
+         * @param index value index
+         * @return key
+         */
+        public String key(final int index) {
+            return keys[index];
+        }
+
+        /**
+         * @param index value index
+         * @return value
+         */
+        public String value(final int index) {
+            return values[index];
+        }
+
+        /**
+         * @param key context key
+         * @return the value or <code>null</code> if not set
+         */
+        public String get(final String key) {
+            final int index = Arrays.binarySearch(keys, key);
+            return index < 0 ? null : values[index];
+        }
+
+        /**
+         * @return the context values as a read only map
+         */
+        public Map<String, String> toMap() {
+            final Map<String, String> map = new LinkedHashMap<>(keys.length);
+
+            for (int i = 0; i < keys.length; i++)
+                map.put(keys[i], values[i]);
+
+            return Collections.unmodifiableMap(map);
+        }
+
+        /**
+         * The rendered context, as prepended to log messages
+         *
+         * @return <code>[key=value ...] </code> or an empty string if the context is empty.
+         */
+        public String prefix() {
+            String p = prefix;
+
+            if (null == p) {
+                final StringBuilder sb = new StringBuilder();
+
+                if (keys.length > 0) {
+                    sb.append('[');
+
+                    for (int i = 0; i < keys.length; i++) {
+                        if (i > 0)
+                            sb.append(' ');
+
+                        sb.append(keys[i]).append('=').append(values[i]);
+                    }
+
+                    sb.append("] ");
+                }
+
+                p = prefix = sb.toString();
+            }
+
+            return p;
+        }
+
+        @Override
+        public String toString() {
+            return prefix();
+        }
+
+        private Snapshot with(final String key, final String value) {
+            final int index = Arrays.binarySearch(keys, key);
+
+            if (index >= 0) {
+                if (null == value) {
+                    if (keys.length == 1)
+                        return EMPTY;
+
+                    return new Snapshot(without(keys, index), without(values, index));
+                }
+
+                if (value.equals(values[index]))
+                    return this;
+
+                final String[] v = values.clone();
+                v[index] = value;
+                return new Snapshot(keys, v);
+            }
+
+            if (null == value)
+                return this;
+
+            final int insert = -index - 1;
+            return new Snapshot(with(keys, insert, key), with(values, insert, value));
+        }
+
+        private static String[] with(final String[] array, final int index, final String item) {
+            final String[] result = new String[array.length + 1];
+            System.arraycopy(array, 0, result, 0, index);
+            result[index] = item;
+            System.arraycopy(array, index, result, index + 1, array.length - index);
+            return result;
+        }
+
+        private static String[] without(final String[] array, final int index) {
+            final String[] result = new String[array.length - 1];
+            System.arraycopy(array, 0, result, 0, index);
+            System.arraycopy(array, index + 1, result, index, array.length - index - 1);
+            return result;
+        }
+    }
+}
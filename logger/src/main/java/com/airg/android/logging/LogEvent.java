@@ -0,0 +1,410 @@
+/*
+ * ****************************************************************************
+ *   Copyright  2017 airG Inc.                                                 *
+ *                                                                             *
+ *   Licensed under the Apache License, Version 2.0 (the "License");           *
+ *   you may not use this file except in compliance with the License.          *
+ *   You may obtain a copy of the License at                                   *
+ *                                                                             *
+ *       http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                             *
+ *   Unless required by applicable law or agreed to in writing, software       *
+ *   distributed under the License is distributed on an "AS IS" BASIS,         *
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  *
+ *   See the License for the specific language governing permissions and       *
+ *   limitations under the License.                                            *
+ * ***************************************************************************
+ */
+
+package com.airg.android.logging;
+
+import java.util.Arrays;
+
+/**
+ * A structured log event: a message plus typed key/value fields.
+ * <p>
+ * Events are obtained from {@link TaggedLogger#event(int, String)}, filled in via the <code>put</code> methods, and
+ * written via {@link #log()}:
+ * <pre>
+ * LOG.event(Log.INFO, "upload finished")
+ *    .put("bytes", length)
+ *    .put("millis", elapsed)
+ *    .put("cached", false)
+ *    .log();
+ * </pre>
+ * Field values are kept as primitives and are only rendered to text (<code>message key=value ...</code>) if a text
+ * output (logcat or a plain {@link LogSink}) needs them. {@link StructuredLogSink}s read the fields directly.
+ * <p>
+ * Event instances are recycled per thread: an event must be logged on the thread that obtained it, and must not be
+ * used after {@link #log()} is called.
+ */
+@SuppressWarnings({"UnusedDeclaration", "WeakerAccess"})
+public final class LogEvent {
+    public static final int TYPE_LONG = 1;
+    public static final int TYPE_DOUBLE = 2;
+    public static final int TYPE_BOOLEAN = 3;
+    public static final int TYPE_STRING = 4;
+
+    private static final int INITIAL_FIELDS = 8;
+
+    private static final ThreadLocal<LogEvent> EVENTS = new ThreadLocal<LogEvent>() {
+        @Override
+        protected LogEvent initialValue() {
+            return new LogEvent(true);
+        }
+    };
+
+    private final boolean pooled;
+    private boolean inUse = false;
+
+    private boolean enabled;
+    private int level;
+    private TaggedLogger logger;
+    private String message;
+
+    private int size = 0;
+    private String[] keys = new String[INITIAL_FIELDS];
+    private int[] types = new int[INITIAL_FIELDS];
+    private long[] numbers = new long[INITIAL_FIELDS];
+    private String[] strings = new String[INITIAL_FIELDS];
+
+    private LogEvent(final boolean isPooled) {
+        pooled = isPooled;
+    }
+
+    static LogEvent obtain(final int lvl, final TaggedLogger t, final String msg, final boolean loggable) {
+        LogEvent event = EVENTS.get();
+
+        // still being filled in further up the stack
+        if (event.inUse)
+            event = new LogEvent(false);
+
+        event.inUse = true;
+        event.enabled = loggable;
+        event.level = lvl;
+        event.logger = t;
+        event.message = msg;
+        event.size = 0;
+        return event;
+    }
+
+    /**
+     * Add an integer field
+     *
+     * @param key   field name
+     * @param value field value
+     * @return this event
+     */
+    public LogEvent put(final String key, final long value) {
+        if (enabled)
+            add(key, TYPE_LONG, value, null);
+
+        return this;
+    }
+
+    /**
+     * Add a floating point field
+     *
+     * @param key   field name
+     * @param value field value
+     * @return this event
+     */
+    public LogEvent put(final String key, final double value) {
+        if (enabled)
+            add(key, TYPE_DOUBLE, Double.doubleToRawLongBits(value), null);
+
+        return this;
+    }
+
+    /**
+     * Add a boolean field
+     *
+     * @param key   field name
+     * @param value field value
+     * @return this event
+     */
+    public LogEvent put(final String key, final boolean value) {
+        if (enabled)
+            add(key, TYPE_BOOLEAN, value ? 1 : 0, null);
+
+        return this;
+    }
+
+    /**
+     * Add a string field
+     *
+     * @param key   field name
+     * @param value field value
+     * @return this event
+     */
+    public LogEvent put(final String key, final String value) {
+        if (enabled)
+            add(key, TYPE_STRING, 0, value);
+
+        return this;
+    }
+
+    /**
+     * Write the event to the log and recycle it.
+     */
+    public void log() {
+        try {
+            if (enabled)
+                Logger.logEvent(this);
+        } finally {
+            recycle();
+        }
+    }
+
+    /**
+     * @return the event level
+     */
+    public int level() {
+        return level;
+    }
+
+    /**
+     * @return the event tag
+     */
+    public String tag() {
+        return logger.tag();
+    }
+
+    /**
+     * @return the event tag id (see {@link TagRegistry})
+     */
+    public int tagId() {
+        return logger.id();
+    }
+
+    TaggedLogger logger() {
+        return logger;
+    }
+
+    /**
+     * @return the event message, without fields
+     */
+    public String message() {
+        return message;
+    }
+
+    /**
+     * @return number of fields
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param index field index
+     * @return field name
+     */
+    public String key(final int index) {
+        check(index);
+        return keys[index];
+    }
+
+    /**
+     * @param index field index
+     * @return field type: one of {@link #TYPE_LONG}, {@link #TYPE_DOUBLE}, {@link #TYPE_BOOLEAN}, or {@link #TYPE_STRING}
+     */
+    public int type(final int index) {
+        check(index);
+        return types[index];
+    }
+
+    /**
+     * @param index field index
+     * @return the value of a {@link #TYPE_LONG} field
+     */
+    public long longValue(final int index) {
+        check(index);
+        return numbers[index];
+    }
+
+    /**
+     * @param index field index
+     * @return the value of a {@link #TYPE_DOUBLE} field
+     */
+    public double doubleValue(final int index) {
+        check(index);
+        return Double.longBitsToDouble(numbers[index]);
+    }
+
+    /**
+     * @param index field index
+     * @return the value of a {@link #TYPE_BOOLEAN} field
+     */
+    public boolean booleanValue(final int index) {
+        check(index);
+        return numbers[index] != 0;
+    }
+
+    /**
+     * @param index field index
+     * @return the value of a {@link #TYPE_STRING} field
+     */
+    public String stringValue(final int index) {
+        check(index);
+        return strings[index];
+    }
+
+    /**
+     * Render the event as text: the message followed by <code>key=value</code> pairs. String values that contain
+     * whitespace, quotes, or <code>=</code> are quoted.
+     *
+     * @param sb target
+     * @return <code>sb</code>
+     */
+    public StringBuilder render(final StringBuilder sb) {
+        if (null != message)
+            sb.append(message);
+
+        for (int i = 0; i < size; i++) {
+            if (sb.length() > 0)
+                sb.append(' ');
+
+            sb.append(keys[i]).append('=');
+
+            switch (types[i]) {
+                case TYPE_LONG:
+                    sb.append(numbers[i]);
+                    break;
+                case TYPE_DOUBLE:
+                    sb.append(Double.longBitsToDouble(numbers[i]));
+                    break;
+                case TYPE_BOOLEAN:
+                    sb.append(numbers[i] != 0);
+                    break;
+                default:
+                    appendString(sb, strings[i]);
+                    break;
+            }
+        }
+
+        return sb;
+    }
+
+    @Override
+    public String toString() {
+        return render(new StringBuilder()).toString();
+    }
+
+    /**
+     * @return a copy of this event that isn't recycled, for comparing against later events
+     */
+    LogEvent copy() {
+        final LogEvent copy = new LogEvent(false);
+        copy.level = level;
+        copy.logger = logger;
+        copy.message = message;
+        copy.size = size;
+        copy.keys = Arrays.copyOf(keys, size);
+        copy.types = Arrays.copyOf(types, size);
+        copy.numbers = Arrays.copyOf(numbers, size);
+        copy.strings = Arrays.copyOf(strings, size);
+        return copy;
+    }
+
+    /**
+     * @return <code>true</code> if <code>other</code> has the same message and fields (names, types, and values)
+     */
+    boolean sameFields(final LogEvent other) {
+        if (size != other.size || !equal(message, other.message))
+            return false;
+
+        for (int i = 0; i < size; i++) {
+            if (types[i] != other.types[i]
+                    || numbers[i] != other.numbers[i]
+                    || !equal(keys[i], other.keys[i])
+                    || !equal(strings[i], other.strings[i]))
+                return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * @return a hash of the message and fields, consistent with {@link #sameFields(LogEvent)}
+     */
+    int fieldsHash() {
+        int h = null == message ? 0 : message.hashCode();
+
+        for (int i = 0; i < size; i++) {
+            h = 31 * h + (null == keys[i] ? 0 : keys[i].hashCode());
+            h = 31 * h + types[i];
+            h = 31 * h + (int) (numbers[i] ^ (numbers[i] >>> 32));
+            h = 31 * h + (null == strings[i] ? 0 : strings[i].hashCode());
+        }
+
+        return h;
+    }
+
+    private static boolean equal(final String a, final String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    private void add(final String key, final int type, final long number, final String string) {
+        if (size == keys.length) {
+            final int capacity = size * 2;
+            keys = Arrays.copyOf(keys, capacity);
+            types = Arrays.copyOf(types, capacity);
+            numbers = Arrays.copyOf(numbers, capacity);
+            strings = Arrays.copyOf(strings, capacity);
+        }
+
+        keys[size] = key;
+        types[size] = type;
+        numbers[size] = number;
+        strings[size] = string;
+        size++;
+    }
+
+    private void check(final int index) {
+        if (index < 0 || index >= size)
+            throw new IndexOutOfBoundsException("Field " + index + " of " + size);
+    }
+
+    private void recycle() {
+        // don't hold on to the caller's strings
+        Arrays.fill(keys, 0, size, null);
+        Arrays.fill(strings, 0, size, null);
+        size = 0;
+        message = null;
+
+        if (pooled)
+            inUse = false;
+    }
+
+    private static void appendString(final StringBuilder sb, final String value) {
+        if (null == value) {
+            sb.append("null");
+            return;
+        }
+
+        boolean quote = value.isEmpty();
+
+        for (int i = 0; !quote && i < value.length(); i++) {
+            final char c = value.charAt(i);
+            quote = c == ' ' || c == '"' || c == '=' || Character.isWhitespace(c);
+        }
+
+        if (!quote) {
+            sb.append(value);
+            return;
+        }
+
+        sb.append('"');
+
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+
+            if (c == '"' || c == '\\')
+                sb.append('\\');
+
+            sb.append(c);
+        }
+
+        sb.append('"');
+    }
+}
@@ -0,0 +1,647 @@
+/*
+ * ****************************************************************************
+ *   Copyright  2017 airG Inc.                                                 *
+ *                                                                             *
+ *   Licensed under the Apache License, Version 2.0 (the "License");           *
+ *   you may not use this file except in compliance with the License.          *
+ *   You may obtain a copy of the License at                                   *
+ *                                                                             *
+ *       http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                             *
+ *   Unless required by applicable law or agreed to in writing, software       *
+ *   distributed under the License is distributed on an "AS IS" BASIS,         *
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  *
+ *   See the License for the specific language governing permissions and       *
+ *   limitations under the License.                                            *
+ * ***************************************************************************
+ */
+package com.airg.android.logging;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * An in-memory index over the most recent lines of a capture, so that large captures (e.g. in a debug console) can be
+ * filtered without scanning every line:
+ * <pre>
+ * final LogIndex index = new LogIndex(100000);
+ * catcher.startCapture(index);
+ * ...
+ * index.find(new LogIndex.Query().level(Log.WARN).words("upload failed"), 100);
+ * </pre>
+ * Lines are kept in a ring of fixed capacity. Each line is parsed (<code>brief</code>, <code>time</code>, and
+ * <code>threadtime</code> logcat formats) and indexed by level, tag, message words, and time bucket. Index entries are
+ * line sequence numbers in ascending order, so the line the ring evicts is always first in its entries and eviction
+ * costs no more than indexing. A query walks the shortest list of entries that applies to it and checks the other
+ * criteria line by line. Lines in an unknown format are indexed by their words and the time they were received.
+ * <p>
+ * Thread safe: lines can be added on the capture's callback thread while queries run elsewhere.
+ */
+@SuppressWarnings({"UnusedDeclaration", "WeakerAccess"})
+public final class LogIndex implements LogCatcher.OnLogLinesListener {
+    public static final long DEFAULT_BUCKET_MILLIS = 1000;
+
+    private static final int LEVEL_UNKNOWN = 0;
+    private static final int MAX_WORD_LENGTH = 64;
+
+    private final int capacity;
+    private final long bucketMillis;
+
+    // the ring, indexed by sequence number % capacity
+    private final String[] lines;
+    private final int[] messageStarts;
+    private final byte[] levels;
+    private final String[] tags;
+    private final long[] times;
+
+    // sequence numbers of the oldest line and of the next line
+    private long first = 0;
+    private long next = 0;
+
+    private final Postings[] byLevel = new Postings[Log.ASSERT + 1];
+    private final Map<String, Postings> byTag = new HashMap<>();
+    private final Map<String, Postings> byWord = new HashMap<>();
+    // time bucket -> [first, last] sequence number in the bucket
+    private final TreeMap<Long, long[]> buckets = new TreeMap<>();
+
+    // parser output
+    private int parsedLevel;
+    private String parsedTag;
+    private int parsedStart;
+    private long parsedTime;
+
+    private final LogcatTimestamps timestamps = new LogcatTimestamps();
+
+    private final List<String> scratchWords = new ArrayList<>();
+
+    /**
+     * Constructor. Lines are bucketed by second.
+     *
+     * @param maxLines number of lines to keep. Once full, the oldest line is evicted for each new one.
+     */
+    public LogIndex(final int maxLines) {
+        this(maxLines, DEFAULT_BUCKET_MILLIS);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param maxLines          number of lines to keep. Once full, the oldest line is evicted for each new one.
+     * @param timeBucketMillis  time bucket width. Narrower buckets make time windows more precise at the cost of
+     *                          more index entries.
+     */
+    public LogIndex(final int maxLines, final long timeBucketMillis) {
+        if (maxLines < 1)
+            throw new IllegalArgumentException("Invalid line count: " + maxLines);
+
+        if (timeBucketMillis < 1)
+            throw new IllegalArgumentException("Invalid time bucket: " + timeBucketMillis);
+
+        capacity = maxLines;
+        bucketMillis = timeBucketMillis;
+        lines = new String[maxLines];
+        messageStarts = new int[maxLines];
+        levels = new byte[maxLines];
+        tags = new String[maxLines];
+        times = new long[maxLines];
+
+        for (int i = 0; i < byLevel.length; i++)
+            byLevel[i] = new Postings();
+    }
+
+    /**
+     * Index a line, evicting the oldest line if the index is full
+     *
+     * @param line log line
+     */
+    public synchronized void add(final String line) {
+        if (next - first == capacity)
+            evict();
+
+        final long seq = next++;
+        final int slot = (int) (seq % capacity);
+
+        parse(line);
+        lines[slot] = line;
+        messageStarts[slot] = parsedStart;
+        levels[slot] = (byte) parsedLevel;
+        tags[slot] = parsedTag;
+        times[slot] = parsedTime;
+
+        byLevel[parsedLevel].add(seq);
+
+        if (null != parsedTag)
+            postings(byTag, parsedTag).add(seq);
+
+        words(line, parsedStart, scratchWords);
+
+        for (int i = 0; i < scratchWords.size(); i++)
+            postings(byWord, scratchWords.get(i)).add(seq);
+
+        scratchWords.clear();
+
+        final Long bucket = bucket(parsedTime);
+        final long[] range = buckets.get(bucket);
+
+        if (null == range) {
+            buckets.put(bucket, new long[]{seq, seq});
+        } else {
+            range[0] = Math.min(range[0], seq);
+            range[1] = seq;
+        }
+    }
+
+    /**
+     * Find the lines that match a query
+     *
+     * @param query search criteria
+     * @param limit maximum number of lines to return
+     * @return the newest <code>limit</code> matching lines, oldest first.
+     */
+    public synchronized List<String> find(final Query query, final int limit) {
+        final List<String> result = new ArrayList<>();
+
+        if (limit <= 0 || first == next)
+            return result;
+
+        // candidate range, narrowed by the time window if there is one
+        long lo = first;
+        long hi = next - 1;
+
+        if (query.from != Long.MIN_VALUE || query.to != Long.MAX_VALUE) {
+            if (query.from >= query.to)
+                return result;
+
+            long min = Long.MAX_VALUE;
+            long max = Long.MIN_VALUE;
+
+            for (final long[] range : buckets.subMap(bucket(query.from), true, bucket(query.to - 1), true).values()) {
+                min = Math.min(min, range[0]);
+                max = Math.max(max, range[1]);
+            }
+
+            if (min > max)
+                return result;
+
+            lo = Math.max(lo, min);
+            hi = Math.min(hi, max);
+        }
+
+        // walk the shortest list of entries, check the rest per line
+        final List<Postings> required = new ArrayList<>();
+
+        if (null != query.tag && !add(required, byTag.get(query.tag)))
+            return result;
+
+        for (final String word : query.words)
+            if (!add(required, byWord.get(word)))
+                return result;
+
+        Postings driver = null;
+
+        for (final Postings postings : required)
+            if (null == driver || postings.size < driver.size)
+                driver = postings;
+
+        final LevelCursor levelCursor = null == driver && query.minLevel > Log.VERBOSE
+                ? new LevelCursor(query.minLevel, hi)
+                : null;
+
+        int index = null == driver ? -1 : driver.floor(hi);
+        long seq;
+
+        if (null != levelCursor)
+            seq = levelCursor.seq;
+        else if (null != driver)
+            seq = index < 0 ? lo - 1 : driver.get(index);
+        else
+            seq = hi;
+
+        while (seq >= lo && result.size() < limit) {
+            if (matches(seq, query, required, driver))
+                result.add(lines[(int) (seq % capacity)]);
+
+            if (null != levelCursor) {
+                seq = levelCursor.previous();
+            } else if (null != driver) {
+                seq = --index < 0 ? lo - 1 : driver.get(index);
+            } else {
+                seq--;
+            }
+        }
+
+        Collections.reverse(result);
+        return result;
+    }
+
+    /**
+     * @return number of lines in the index
+     */
+    public synchronized int size() {
+        return (int) (next - first);
+    }
+
+    /**
+     * @return maximum number of lines in the index
+     */
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * Remove all lines
+     */
+    public synchronized void clear() {
+        while (first < next)
+            evict();
+    }
+
+    @Override
+    public void onLogLine(final String logLine) {
+        add(logLine);
+    }
+
+    @Override
+    public void onStart() {
+        // nothing to do
+    }
+
+    @Override
+    public void onFinished() {
+        // nothing to do
+    }
+
+    @Override
+    public void onError(final Throwable t) {
+        // nothing to do
+    }
+
+    private boolean matches(final long seq, final Query query, final List<Postings> required, final Postings driver) {
+        final int slot = (int) (seq % capacity);
+
+        if (levels[slot] < query.minLevel)
+            return false;
+
+        if (times[slot] < query.from || times[slot] >= query.to)
+            return false;
+
+        for (final Postings postings : required)
+            if (postings != driver && !postings.contains(seq))
+                return false;
+
+        return null == query.contains || lines[slot].indexOf(query.contains, messageStarts[slot]) >= 0;
+    }
+
+    private void evict() {
+        final long seq = first++;
+        final int slot = (int) (seq % capacity);
+        final String line = lines[slot];
+
+        byLevel[levels[slot]].evict(seq);
+
+        if (null != tags[slot])
+            evict(byTag, tags[slot], seq);
+
+        words(line, messageStarts[slot], scratchWords);
+
+        for (int i = 0; i < scratchWords.size(); i++)
+            evict(byWord, scratchWords.get(i), seq);
+
+        scratchWords.clear();
+
+        final Long bucket = bucket(times[slot]);
+        final long[] range = buckets.get(bucket);
+
+        if (null != range && range[1] <= seq)
+            buckets.remove(bucket);
+
+        lines[slot] = null;
+        tags[slot] = null;
+    }
+
+    private Long bucket(final long time) {
+        // floor, also for times before the epoch
+        final long bucket = time / bucketMillis;
+        return time < 0 && time % bucketMillis != 0 ? bucket - 1 : bucket;
+    }
+
+    private void parse(final String line) {
+        parsedLevel = LEVEL_UNKNOWN;
+        parsedTag = null;
+        parsedStart = 0;
+        parsedTime = System.currentTimeMillis();
+
+        int i = 0;
+        final long time = timestamps.parse(line);
+
+        if (time != Long.MIN_VALUE) {
+            i = skipSpaces(line, LogcatTimestamps.LENGTH);
+        }
+
+        final int length = line.length();
+        final int level;
+        final String tag;
+        final int start;
+
+        if (i < length && LogcatTimestamps.isDigit(line.charAt(i))) {
+            // threadtime: pid tid level tag: message
+            i = skipSpaces(line, skipDigits(line, skipSpaces(line, skipDigits(line, i))));
+
+            if (i + 2 > length || line.charAt(i + 1) != ' ')
+                return;
+
+            level = level(line.charAt(i));
+            final int separator = line.indexOf(": ", i + 2);
+
+            if (separator < 0)
+                return;
+
+            tag = line.substring(i + 2, separator).trim();
+            start = separator + 2;
+        } else {
+            // brief and time: level/tag(pid): message
+            if (i + 2 > length || line.charAt(i + 1) != '/')
+                return;
+
+            level = level(line.charAt(i));
+            final int separator = line.indexOf("): ", i + 2);
+            final int paren = separator < 0 ? -1 : line.lastIndexOf('(', separator);
+
+            if (paren < i + 2)
+                return;
+
+            tag = line.substring(i + 2, paren).trim();
+            start = separator + 3;
+        }
+
+        if (level == LEVEL_UNKNOWN)
+            return;
+
+        parsedLevel = level;
+        parsedTag = tag;
+        parsedStart = start;
+
+        if (time != Long.MIN_VALUE)
+            parsedTime = time;
+    }
+
+    private static int skipDigits(final String s, final int start) {
+        int i = start;
+
+        while (i < s.length() && LogcatTimestamps.isDigit(s.charAt(i)))
+            i++;
+
+        return i;
+    }
+
+    private static int skipSpaces(final String s, final int start) {
+        int i = start;
+
+        while (i < s.length() && s.charAt(i) == ' ')
+            i++;
+
+        return i;
+    }
+
+    private static int level(final char c) {
+        switch (c) {
+            case 'V':
+                return Log.VERBOSE;
+            case 'D':
+                return Log.DEBUG;
+            case 'I':
+                return Log.INFO;
+            case 'W':
+                return Log.WARN;
+            case 'E':
+                return Log.ERROR;
+            case 'F':
+            case 'A':
+                return Log.ASSERT;
+            default:
+                return LEVEL_UNKNOWN;
+        }
+    }
+
+    /**
+     * Split text into lower case words (runs of letters and digits)
+     */
+    static void words(final String text, final int start, final List<String> out) {
+        final int length = text.length();
+        int i = start;
+
+        while (i < length) {
+            while (i < length && !Character.isLetterOrDigit(text.charAt(i)))
+                i++;
+
+            final int wordStart = i;
+
+            while (i < length && Character.isLetterOrDigit(text.charAt(i)))
+                i++;
+
+            // skip blobs
+            if (i > wordStart && i - wordStart <= MAX_WORD_LENGTH)
+                out.add(text.substring(wordStart, i).toLowerCase(Locale.ENGLISH));
+        }
+    }
+
+    private static Postings postings(final Map<String, Postings> index, final String key) {
+        Postings postings = index.get(key);
+
+        if (null == postings) {
+            postings = new Postings();
+            index.put(key, postings);
+        }
+
+        return postings;
+    }
+
+    private static void evict(final Map<String, Postings> index, final String key, final long seq) {
+        final Postings postings = index.get(key);
+
+        if (null != postings && postings.evict(seq) && postings.size == 0)
+            index.remove(key);
+    }
+
+    private static boolean add(final List<Postings> required, final Postings postings) {
+        if (null == postings)
+            return false;
+
+        required.add(postings);
+        return true;
+    }
+
+    /**
+     * Walks the lines at or above a level, newest first, by merging the per-level entries
+     */
+    private final class LevelCursor {
+        private final Postings[] lists;
+        private final int[] positions;
+        long seq;
+
+        private LevelCursor(final int minLevel, final long hi) {
+            lists = new Postings[byLevel.length - minLevel];
+            positions = new int[lists.length];
+
+            for (int i = 0; i < lists.length; i++) {
+                lists[i] = byLevel[minLevel + i];
+                positions[i] = lists[i].floor(hi);
+            }
+
+            seq = previous();
+        }
+
+        long previous() {
+            int best = -1;
+
+            for (int i = 0; i < lists.length; i++)
+                if (positions[i] >= 0 && (best < 0 || lists[i].get(positions[i]) > lists[best].get(positions[best])))
+                    best = i;
+
+            if (best < 0)
+                return Long.MIN_VALUE;
+
+            return lists[best].get(positions[best]--);
+        }
+    }
+
+    /**
+     * Ascending sequence numbers, appended at the end and evicted from the start
+     */
+    private static final class Postings {
+        private long[] seqs = new long[4];
+        private int head = 0;
+        private int size = 0;
+
+        void add(final long seq) {
+            // a word that occurs twice in a line
+            if (size > 0 && get(size - 1) == seq)
+                return;
+
+            if (size == seqs.length) {
+                final long[] grown = new long[size * 2];
+
+                for (int i = 0; i < size; i++)
+                    grown[i] = get(i);
+
+                seqs = grown;
+                head = 0;
+            }
+
+            seqs[(head + size) % seqs.length] = seq;
+            size++;
+        }
+
+        boolean evict(final long seq) {
+            if (size == 0 || seqs[head] != seq)
+                return false;
+
+            head = (head + 1) % seqs.length;
+            size--;
+            return true;
+        }
+
+        long get(final int index) {
+            return seqs[(head + index) % seqs.length];
+        }
+
+        // index of the last entry <= seq, or -1
+        int floor(final long seq) {
+            int low = 0;
+            int high = size - 1;
+
+            while (low <= high) {
+                final int mid = (low + high) >>> 1;
+
+                if (get(mid) <= seq)
+                    low = mid + 1;
+                else
+                    high = mid - 1;
+            }
+
+            return high;
+        }
+
+        boolean contains(final long seq) {
+            final int index = floor(seq);
+            return index >= 0 && get(index) == seq;
+        }
+    }
+
+    /**
+     * Search criteria. All criteria that are set must match.
+     */
+    public static final class Query {
+        private int minLevel = LEVEL_UNKNOWN;
+        private String tag = null;
+        private final List<String> words = new ArrayList<>();
+        private String contains = null;
+        private long from = Long.MIN_VALUE;
+        private long to = Long.MAX_VALUE;
+
+        /**
+         * Match lines at or above a level. Lines in an unknown format have no level.
+         *
+         * @param level minimum level (see {@link Log})
+         * @return this query
+         */
+        public Query level(final int level) {
+            minLevel = level;
+            return this;
+        }
+
+        /**
+         * Match lines with a tag
+         *
+         * @param t exact tag
+         * @return this query
+         */
+        public Query tag(final String t) {
+            tag = t;
+            return this;
+        }
+
+        /**
+         * Match lines whose message contains all the words in <code>text</code> (whole words, ignoring case)
+         *
+         * @param text words to look for
+         * @return this query
+         */
+        public Query words(final String text) {
+            LogIndex.words(text, 0, words);
+            return this;
+        }
+
+        /**
+         * Match lines whose message contains a string. Checked line by line, so combine it with other criteria on
+         * large indexes.
+         *
+         * @param text text to look for (case sensitive)
+         * @return this query
+         */
+        public Query contains(final String text) {
+            contains = text;
+            return this;
+        }
+
+        /**
+         * Match lines logged in a time window. Lines in an unknown format are matched by the time they were indexed.
+         *
+         * @param fromMillis start of the window (inclusive)
+         * @param toMillis   end of the window (exclusive)
+         * @return this query
+         */
+        public Query between(final long fromMillis, final long toMillis) {
+            from = fromMillis;
+            to = toMillis;
+            return this;
+        }
+    }
+}
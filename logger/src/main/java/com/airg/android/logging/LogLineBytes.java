@@ -0,0 +1,115 @@
+/*
+ * ****************************************************************************
+ *   Copyright  2017 airG Inc.                                                 *
+ *                                                                             *
+ *   Licensed under the Apache License, Version 2.0 (the "License");           *
+ *   you may not use this file except in compliance with the License.          *
+ *   You may obtain a copy of the License at                                   *
+ *                                                                             *
+ *       http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                             *
+ *   Unless required by applicable law or agreed to in writing, software       *
+ *   distributed under the License is distributed on an "AS IS" BASIS,         *
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  *
+ *   See the License for the specific language governing permissions and       *
+ *   limitations under the License.                                            *
+ * ***************************************************************************
+ */
+
+package com.airg.android.logging;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * A log line read by {@link LogCatcher} in byte mode (see {@link LogCatcher.OnLogBytesListener}): a slice of the
+ * reader's buffer, without the line terminator.
+ * <p>
+ * The buffer is recycled as soon as {@link LogCatcher.OnLogBytesListener#onLogLine(LogLineBytes)} returns, so the
+ * line must be consumed (or copied via {@link #toByteArray()}) before then. The line is only decoded if
+ * {@link #toString()} is called.
+ */
+@SuppressWarnings({"UnusedDeclaration", "WeakerAccess"})
+public final class LogLineBytes {
+    static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private byte[] buffer;
+    private int offset;
+    private int length;
+    private String decoded;
+
+    LogLineBytes() {
+        // created by the reader
+    }
+
+    void set(final byte[] b, final int off, final int len) {
+        buffer = b;
+        offset = off;
+        length = len;
+        decoded = null;
+    }
+
+    /**
+     * @return the backing buffer. Only the bytes in <code>[offset(), offset() + length())</code> belong to this line.
+     */
+    public byte[] buffer() {
+        return buffer;
+    }
+
+    /**
+     * @return offset of the line's first byte in {@link #buffer()}
+     */
+    public int offset() {
+        return offset;
+    }
+
+    /**
+     * @return line length in bytes
+     */
+    public int length() {
+        return length;
+    }
+
+    /**
+     * @param index byte index within the line
+     * @return the byte at <code>index</code>
+     */
+    public byte byteAt(final int index) {
+        if (index < 0 || index >= length)
+            throw new IndexOutOfBoundsException("Byte " + index + " of " + length);
+
+        return buffer[offset + index];
+    }
+
+    /**
+     * Write the line (without a terminator) to a stream
+     *
+     * @param out target
+     * @throws IOException if the write fails
+     */
+    public void writeTo(final OutputStream out) throws IOException {
+        out.write(buffer, offset, length);
+    }
+
+    /**
+     * @return a copy of the line's bytes
+     */
+    public byte[] toByteArray() {
+        return Arrays.copyOfRange(buffer, offset, offset + length);
+    }
+
+    /**
+     * Decode the line as UTF-8. The result is cached until the buffer is recycled.
+     *
+     * @return the line as text
+     */
+    @Override
+    public String toString() {
+        if (null == decoded)
+            decoded = new String(buffer, offset, length, UTF8);
+
+        return decoded;
+    }
+}
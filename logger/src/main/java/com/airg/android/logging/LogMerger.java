@@ -0,0 +1,413 @@
+/*
+ * ****************************************************************************
+ *   Copyright  2017 airG Inc.                                                 *
+ *                                                                             *
+ *   Licensed under the Apache License, Version 2.0 (the "License");           *
+ *   you may not use this file except in compliance with the License.          *
+ *   You may obtain a copy of the License at                                   *
+ *                                                                             *
+ *       http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                             *
+ *   Unless required by applicable law or agreed to in writing, software       *
+ *   distributed under the License is distributed on an "AS IS" BASIS,         *
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  *
+ *   See the License for the specific language governing permissions and       *
+ *   limitations under the License.                                            *
+ * ***************************************************************************
+ */
+package com.airg.android.logging;
+
+import java.io.Closeable;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.PriorityQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Merges several log streams (e.g. one {@link LogCatcher} per buffer, plus records read back from a
+ * {@link MappedLogSink}) into a single stream ordered by timestamp.
+ * <p>
+ * Each stream feeds a {@link Source}, and is expected to be in timestamp order itself (as a single logcat buffer is).
+ * Lines are held in a heap until every source that is still active has caught up
+ * with them, and are then written to the output listener in timestamp order (lines with the same timestamp keep their
+ * arrival order). Nothing is sorted in full: the heap only ever holds the lines within the reordering window, which is
+ * bounded two ways:
+ * <ul>
+ * <li>A source that hasn't delivered anything for <code>windowMillis</code> (e.g. a quiet <code>crash</code> buffer)
+ * isn't waited for.</li>
+ * <li>At most <code>maxPending</code> lines are held. Beyond that, the oldest line is written out regardless.</li>
+ * </ul>
+ * A line that arrives after newer lines have already been written can't be put in its place and is written out as soon
+ * as possible instead. {@link #getOutOfOrderCount()} and {@link #getLateCount()} report how often that happens.
+ * <p>
+ * Lines are dated by their <code>MM-DD HH:MM:SS.mmm</code> prefix (the <code>time</code> and <code>threadtime</code>
+ * logcat formats, the default on Android 7.0 and up). Lines without one (e.g. in the <code>brief</code> format) take
+ * the timestamp of the previous line from the same source.
+ * <p>
+ * The output listener is called with the merger locked, on the thread of whichever source delivered the line or on a
+ * shared timer thread, so it should return quickly. {@link LogCatcher.OnLogLinesListener#onStart()} is called when
+ * the first source starts, {@link LogCatcher.OnLogLinesListener#onFinished()} once all sources have finished and
+ * everything has been written out.
+ */
+@SuppressWarnings({"UnusedDeclaration", "WeakerAccess"})
+public final class LogMerger implements Closeable {
+    /**
+     * Default reordering window
+     */
+    public static final long DEFAULT_WINDOW_MILLIS = 500;
+
+    /**
+     * Default maximum number of lines held for reordering
+     */
+    public static final int DEFAULT_MAX_PENDING = 10000;
+
+    private static final String LEVELS = "??VDIWEA";
+    private static final String NO_PID = "(    0): ";
+
+    private static final Comparator<Pending> ORDER = new Comparator<Pending>() {
+        @Override
+        public int compare(final Pending a, final Pending b) {
+            if (a.time != b.time)
+                return a.time < b.time ? -1 : 1;
+
+            return a.seq < b.seq ? -1 : (a.seq == b.seq ? 0 : 1);
+        }
+    };
+
+    private final LogCatcher.OnLogLinesListener output;
+    private final long window;
+    private final int maxPending;
+
+    private final PriorityQueue<Pending> pending = new PriorityQueue<>(64, ORDER);
+    private final List<Source> sources = new ArrayList<>();
+
+    private long seq = 0;
+    private long newest = Long.MIN_VALUE;
+    private long lastWritten = Long.MIN_VALUE;
+
+    private long merged = 0;
+    private long outOfOrder = 0;
+    private long late = 0;
+
+    private boolean started = false;
+    private boolean finished = false;
+    private boolean closed = false;
+    private ScheduledFuture<?> ticker = null;
+
+    /**
+     * Constructor. Uses the default reordering window.
+     *
+     * @param listener receives the merged lines
+     */
+    public LogMerger(final LogCatcher.OnLogLinesListener listener) {
+        this(listener, DEFAULT_WINDOW_MILLIS, DEFAULT_MAX_PENDING);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param listener     receives the merged lines
+     * @param windowMillis how long to wait for a source that has nothing to deliver before writing out lines that are
+     *                     newer than its last one
+     * @param maxLines     maximum number of lines held for reordering
+     */
+    public LogMerger(final LogCatcher.OnLogLinesListener listener, final long windowMillis, final int maxLines) {
+        if (null == listener)
+            throw new IllegalArgumentException("null listener");
+
+        if (windowMillis <= 0)
+            throw new IllegalArgumentException("Invalid window: " + windowMillis);
+
+        if (maxLines <= 0)
+            throw new IllegalArgumentException("Invalid maximum: " + maxLines);
+
+        output = listener;
+        window = windowMillis;
+        maxPending = maxLines;
+    }
+
+    /**
+     * Add a stream to merge. Pass the source to {@link LogCatcher#startCapture(LogCatcher.OnLogLinesListener)} or
+     * {@link LogCatcher#dump(LogCatcher.OnLogLinesListener)}, or feed it records read back from a file sink (e.g. via
+     * {@link MappedLogSink#recover(java.io.File, MappedLogSink.RecordListener)}) and call {@link Source#finish()}.
+     *
+     * @param name source name, for diagnostics
+     * @return the new source
+     */
+    public synchronized Source source(final String name) {
+        if (closed || finished)
+            throw new IllegalStateException("Merger is finished");
+
+        final Source source = new Source(name, System.currentTimeMillis());
+        sources.add(source);
+
+        if (null == ticker) {
+            final long period = Math.max(window / 2, 1);
+            ticker = TaskExecutors.scheduler().scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    drain(System.currentTimeMillis());
+                }
+            }, period, period, TimeUnit.MILLISECONDS);
+        }
+
+        return source;
+    }
+
+    /**
+     * Write out all held lines now, without waiting for the sources to catch up
+     */
+    public synchronized void flush() {
+        while (!pending.isEmpty())
+            write(pending.poll());
+    }
+
+    /**
+     * Write out all held lines and stop merging. Lines delivered afterwards are dropped. Calls
+     * {@link LogCatcher.OnLogLinesListener#onFinished()} unless all sources have already finished.
+     */
+    @Override
+    public synchronized void close() {
+        if (closed)
+            return;
+
+        flush();
+        closed = true;
+        stopTicker();
+
+        if (!finished) {
+            finished = true;
+            output.onFinished();
+        }
+    }
+
+    /**
+     * @return number of lines written out
+     */
+    public synchronized long getMergedCount() {
+        return merged;
+    }
+
+    /**
+     * @return number of lines that arrived after a newer line (from any source)
+     */
+    public synchronized long getOutOfOrderCount() {
+        return outOfOrder;
+    }
+
+    /**
+     * @return number of lines that arrived after a newer line had already been written out, and so are out of order
+     * in the output
+     */
+    public synchronized long getLateCount() {
+        return late;
+    }
+
+    /**
+     * @return number of lines currently held for reordering
+     */
+    public synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+    private synchronized void start() {
+        if (started || closed)
+            return;
+
+        started = true;
+        output.onStart();
+    }
+
+    private synchronized void offer(final Source source, final long stamp, final String line) {
+        if (closed || finished)
+            return;
+
+        start();
+
+        final long now = System.currentTimeMillis();
+        long time = stamp;
+
+        source.lastArrival = now;
+
+        if (time == Long.MIN_VALUE) {
+            // undated: stays with the previous line of the source
+            time = source.latest != Long.MIN_VALUE ? source.latest : Math.max(lastWritten, newest);
+        } else {
+            if (time < newest)
+                outOfOrder++;
+            else
+                newest = time;
+
+            if (time < lastWritten)
+                late++;
+
+            if (time > source.latest)
+                source.latest = time;
+        }
+
+        pending.add(new Pending(time, seq++, line));
+
+        while (pending.size() > maxPending)
+            write(pending.poll());
+
+        drain(now);
+    }
+
+    private synchronized void finish(final Source source) {
+        if (source.finished)
+            return;
+
+        source.finished = true;
+
+        if (closed)
+            return;
+
+        drain(System.currentTimeMillis());
+    }
+
+    private synchronized void error(final Throwable t) {
+        if (!closed)
+            output.onError(t);
+    }
+
+    private synchronized void drain(final long now) {
+        if (closed || finished)
+            return;
+
+        // every line up to the oldest position of the sources that are still active can be written out
+        long watermark = Long.MAX_VALUE;
+        boolean active = false;
+
+        for (final Source source : sources) {
+            if (source.finished)
+                continue;
+
+            active = true;
+
+            if (now - source.lastArrival < window)
+                watermark = Math.min(watermark, source.latest);
+        }
+
+        while (!pending.isEmpty() && pending.peek().time <= watermark)
+            write(pending.poll());
+
+        if (!active && pending.isEmpty()) {
+            finished = true;
+            stopTicker();
+            output.onFinished();
+        }
+    }
+
+    private void write(final Pending line) {
+        if (line.time > lastWritten)
+            lastWritten = line.time;
+
+        merged++;
+        output.onLogLine(line.line);
+    }
+
+    private void stopTicker() {
+        if (null != ticker) {
+            ticker.cancel(false);
+            ticker = null;
+        }
+    }
+
+    /**
+     * A stream of lines to merge. Receives lines from a {@link LogCatcher} or records from a {@link MappedLogSink}.
+     * Each source should be fed from one thread at a time.
+     */
+    public final class Source implements LogCatcher.OnLogLinesListener, MappedLogSink.RecordListener {
+        private final String name;
+        private final LogcatTimestamps timestamps = new LogcatTimestamps();
+        private final SimpleDateFormat format = new SimpleDateFormat("MM-dd HH:mm:ss.SSS", Locale.US);
+        private final Date date = new Date();
+
+        // guarded by the merger
+        private long latest = Long.MIN_VALUE;
+        private long lastArrival;
+        private boolean finished = false;
+
+        private Source(final String sourceName, final long created) {
+            name = sourceName;
+            lastArrival = created;
+        }
+
+        /**
+         * @return source name
+         */
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public void onLogLine(final String logLine) {
+            offer(this, timestamps.parse(logLine), logLine);
+        }
+
+        /**
+         * Merge a record, rendered in the logcat <code>time</code> format:
+         * <code>MM-DD HH:MM:SS.mmm L/tag(    0): message</code>. Records don't carry a pid, so it's always 0.
+         */
+        @Override
+        public void onRecord(final long timestamp, final int level, final String tag, final String message) {
+            date.setTime(timestamp);
+
+            final StringBuilder sb = new StringBuilder(tag.length() + message.length() + 32);
+            sb.append(format.format(date))
+                    .append(' ')
+                    .append(level >= 0 && level < LEVELS.length() ? LEVELS.charAt(level) : '?')
+                    .append('/')
+                    .append(tag)
+                    .append(NO_PID)
+                    .append(message);
+            offer(this, timestamp, sb.toString());
+        }
+
+        @Override
+        public void onStart() {
+            start();
+        }
+
+        @Override
+        public void onFinished() {
+            LogMerger.this.finish(this);
+        }
+
+        @Override
+        public void onError(final Throwable t) {
+            error(t);
+            LogMerger.this.finish(this);
+        }
+
+        /**
+         * Mark the source as done (e.g. after reading back a {@link MappedLogSink}). Sources fed by a
+         * {@link LogCatcher} finish on their own.
+         */
+        public void finish() {
+            LogMerger.this.finish(this);
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    private static final class Pending {
+        private final long time;
+        private final long seq;
+        private final String line;
+
+        private Pending(final long t, final long s, final String l) {
+            time = t;
+            seq = s;
+            line = l;
+        }
+    }
+}
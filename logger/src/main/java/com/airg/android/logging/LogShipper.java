@@ -0,0 +1,582 @@
+/*
+ * ****************************************************************************
+ *   Copyright  2017 airG Inc.                                                 *
+ *                                                                             *
+ *   Licensed under the Apache License, Version 2.0 (the "License");           *
+ *   you may not use this file except in compliance with the License.          *
+ *   You may obtain a copy of the License at                                   *
+ *                                                                             *
+ *       http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                             *
+ *   Unless required by applicable law or agreed to in writing, software       *
+ *   distributed under the License is distributed on an "AS IS" BASIS,         *
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  *
+ *   See the License for the specific language governing permissions and       *
+ *   limitations under the License.                                            *
+ * ***************************************************************************
+ */
+
+package com.airg.android.logging;
+
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Ships log records to an HTTP collector in compressed batches.
+ * <p>
+ * The shipper collects records as a {@link LogSink} (register it via {@link Logger#addSink(LogSink)}) and/or as a
+ * {@link LogCatcher.OnLogLinesListener} (pass it to {@link LogCatcher#startCapture(LogCatcher.OnLogLinesListener)}).
+ * Records are appended to a {@link LogSpool} in the spool directory as they arrive, so they survive process restarts.
+ * A batch is due when the records not sent yet reach the size limit, when the oldest of them gets older than the age
+ * limit, or on {@link #flush()}. The shipper's background thread then reads the records from the spool's cursor,
+ * one line each, gzips them and <code>POST</code>s them to the endpoint (<code>Content-Type: text/plain;
+ * charset=utf-8</code>, <code>Content-Encoding: gzip</code>), and acknowledges them once they're delivered.
+ * <p>
+ * If a batch can't be sent (I/O error, or a 408, 429, or 5xx response), it stays in the spool and is retried with
+ * exponential backoff. Records keep being spooled behind it, so they are delivered in order. The spool is bounded: its
+ * oldest segments are deleted once it exceeds its byte budget, sent or not. Batches rejected with any other status are
+ * dropped.
+ * <p>
+ * The shipper reports its own problems straight to logcat (not through {@link Logger}) so that failures to ship don't
+ * feed back into the batches.
+ */
+@SuppressWarnings({"UnusedDeclaration", "WeakerAccess"})
+public final class LogShipper implements LogSink, LogCatcher.OnLogLinesListener, Closeable {
+    private static final String TAG = "LogShipper";
+
+    public static final int DEFAULT_MAX_BATCH_CHARS = 64 * 1024;
+    public static final long DEFAULT_MAX_BATCH_AGE = 10000;
+    public static final long DEFAULT_INITIAL_BACKOFF = 1000;
+    public static final long DEFAULT_MAX_BACKOFF = 5 * 60 * 1000;
+    public static final long DEFAULT_MAX_SPOOL_BYTES = 4 * 1024 * 1024;
+
+    private static final int CONNECT_TIMEOUT = 15000;
+    private static final int READ_TIMEOUT = 30000;
+    private static final String LEVELS = "??VDIWEA";
+
+    // logcat lines are spooled with this level and no tag
+    private static final int RAW_LINE = 0;
+
+    // records read from the spool at a time
+    private static final int READ_RECORDS = 256;
+
+    // rough size of a rendered record, on top of its tag and message
+    private static final int RECORD_OVERHEAD = 24;
+
+    // send() results
+    private static final int SENT = 0;
+    private static final int REJECTED = 1;
+    private static final int FAILED = 2;
+
+    private final URL endpoint;
+    private final File spoolDirectory;
+    private final Object lock = new Object();
+
+    // guarded by lock
+    private LogSpool spool = null;
+    private boolean spoolFailed = false;
+    private boolean closed = false;
+    private long pendingChars = 0;
+    private long pendingSince = 0;
+    private boolean flushRequested = false;
+    private boolean running = false;
+    private Thread thread = null;
+    private long retryAt = 0;
+
+    private volatile int maxBatchChars = DEFAULT_MAX_BATCH_CHARS;
+    private volatile long maxBatchAge = DEFAULT_MAX_BATCH_AGE;
+    private volatile long initialBackoff = DEFAULT_INITIAL_BACKOFF;
+    private volatile long maxBackoff = DEFAULT_MAX_BACKOFF;
+    private volatile long maxSpoolBytes = DEFAULT_MAX_SPOOL_BYTES;
+
+    // shipper thread only
+    private int failures = 0;
+
+    private volatile long sentBatches = 0;
+    private volatile long droppedBatches = 0;
+    private volatile long droppedRecords = 0;
+
+    /**
+     * Create a shipper. Call {@link #start()} to start shipping.
+     *
+     * @param collector      collector endpoint
+     * @param spoolDirectory directory for the records that haven't been sent yet (created if needed). Use a directory
+     *                       that isn't shared with anything else.
+     */
+    public LogShipper(final URL collector, final File spoolDirectory) {
+        if (null == collector || null == spoolDirectory)
+            throw new IllegalArgumentException("collector and spool directory are required");
+
+        endpoint = collector;
+        this.spoolDirectory = spoolDirectory;
+    }
+
+    /**
+     * Set the batch limits
+     *
+     * @param maxChars     a batch is due once the records not sent yet take this many characters
+     * @param maxAgeMillis a batch is due once the oldest record not sent yet is this old
+     */
+    public void setBatchLimits(final int maxChars, final long maxAgeMillis) {
+        if (maxChars <= 0 || maxAgeMillis <= 0)
+            throw new IllegalArgumentException("Invalid batch limits: " + maxChars + " chars, " + maxAgeMillis + "ms");
+
+        maxBatchChars = maxChars;
+        maxBatchAge = maxAgeMillis;
+    }
+
+    /**
+     * Set the retry backoff. The delay doubles with each consecutive failure, up to the maximum.
+     *
+     * @param initialMillis delay after the first failure
+     * @param maxMillis     maximum delay
+     */
+    public void setBackoff(final long initialMillis, final long maxMillis) {
+        if (initialMillis <= 0 || maxMillis < initialMillis)
+            throw new IllegalArgumentException("Invalid backoff: " + initialMillis + "ms to " + maxMillis + "ms");
+
+        initialBackoff = initialMillis;
+        maxBackoff = maxMillis;
+    }
+
+    /**
+     * Set the spool's byte budget. The oldest spooled records are deleted to stay within it. Takes effect when the
+     * spool is opened, i.e. before the first record is written or the shipper is started.
+     *
+     * @param maxBytes maximum total size of the spool (at least 2048 bytes)
+     */
+    public void setMaxSpoolBytes(final long maxBytes) {
+        if (maxBytes < 2048)
+            throw new IllegalArgumentException("Invalid spool size: " + maxBytes);
+
+        maxSpoolBytes = maxBytes;
+    }
+
+    /**
+     * Start shipping. Records spooled by a previous run are sent first.
+     */
+    public void start() {
+        synchronized (lock) {
+            if (running)
+                throw new IllegalStateException("Already started");
+
+            if (closed)
+                throw new IllegalStateException("Closed");
+
+            final LogSpool current = spool();
+
+            // left over from a previous run (or written before starting): send them first
+            if (null != current && current.getAckedPosition() < current.getEndPosition())
+                retryAt = System.currentTimeMillis();
+
+            running = true;
+            thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    ship();
+                }
+            }, TAG);
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * Stop shipping. Records are still spooled, to be sent on the next {@link #start()}. Blocks until the shipper
+     * thread is done, which may take up to a network timeout if a batch is being sent.
+     */
+    public void stop() {
+        final Thread t;
+
+        synchronized (lock) {
+            if (!running)
+                return;
+
+            running = false;
+            t = thread;
+            thread = null;
+            lock.notifyAll();
+        }
+
+        try {
+            t.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Stop shipping and close the spool. Records written afterwards are dropped.
+     */
+    @Override
+    public void close() {
+        stop();
+
+        synchronized (lock) {
+            closed = true;
+
+            if (null != spool) {
+                try {
+                    spool.close();
+                } catch (IOException e) {
+                    Log.println(Log.WARN, TAG, "Can't close spool " + spoolDirectory + ": " + e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Send the records that haven't been sent yet as soon as possible
+     */
+    public void flush() {
+        synchronized (lock) {
+            flushRequested = true;
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * @return number of batches delivered to the collector
+     */
+    public long getSentBatchCount() {
+        return sentBatches;
+    }
+
+    /**
+     * @return number of batches rejected by the collector
+     */
+    public long getDroppedBatchCount() {
+        return droppedBatches;
+    }
+
+    /**
+     * @return number of records dropped because they couldn't be spooled (the spool couldn't be opened, or the
+     * shipper was closed)
+     */
+    public long getDroppedRecordCount() {
+        return droppedRecords;
+    }
+
+    /**
+     * @return number of spool segments deleted to stay within the byte budget before all of their records were sent
+     */
+    public long getEvictedSegmentCount() {
+        synchronized (lock) {
+            return null == spool ? 0 : spool.getEvictedSegmentCount();
+        }
+    }
+
+    @Override
+    public void write(final int level, final String tag, final String message) {
+        spool(level, tag, message);
+    }
+
+    @Override
+    public void onLogLine(final String logLine) {
+        spool(RAW_LINE, null, logLine);
+    }
+
+    @Override
+    public void onStart() {
+        // nothing to do
+    }
+
+    @Override
+    public void onFinished() {
+        flush();
+    }
+
+    @Override
+    public void onError(final Throwable t) {
+        Log.println(Log.WARN, TAG, "Log capture failed\n" + Log.getStackTraceString(t));
+    }
+
+    private void spool(final int level, final String tag, final String message) {
+        synchronized (lock) {
+            final LogSpool current = spool();
+
+            if (null == current) {
+                droppedRecords++;
+                return;
+            }
+
+            // under the lock, so the shipper thread can't count a record before it's in the spool
+            current.write(level, tag, message);
+
+            if (pendingChars == 0)
+                pendingSince = System.currentTimeMillis();
+
+            pendingChars += RECORD_OVERHEAD
+                    + (null == tag ? 0 : tag.length())
+                    + (null == message ? 0 : message.length());
+
+            if (pendingChars >= maxBatchChars)
+                lock.notifyAll();
+        }
+    }
+
+    // guarded by lock. Opens the spool on first use.
+    private LogSpool spool() {
+        if (closed)
+            return null;
+
+        if (null != spool || spoolFailed)
+            return spool;
+
+        final long maxBytes = maxSpoolBytes;
+        final int segmentBytes = (int) Math.max(1024, Math.min(LogSpool.DEFAULT_SEGMENT_BYTES, maxBytes / 4));
+
+        try {
+            spool = new LogSpool(spoolDirectory, maxBytes, segmentBytes);
+        } catch (IOException e) {
+            // once: this would otherwise be reported for every record
+            Log.println(Log.ERROR, TAG, "Can't open spool " + spoolDirectory + ": " + e);
+            spoolFailed = true;
+        }
+
+        return spool;
+    }
+
+    private void ship() {
+        while (true) {
+            final LogSpool current;
+
+            synchronized (lock) {
+                while (running && !batchDue() && !retryDue()) {
+                    try {
+                        lock.wait(waitTime());
+                    } catch (InterruptedException ignore) {
+                        // keep going until stopped
+                    }
+                }
+
+                if (!running)
+                    return;
+
+                // everything spooled so far goes out now
+                pendingChars = 0;
+                flushRequested = false;
+                current = spool;
+            }
+
+            if (null != current)
+                sendSpooled(current);
+        }
+    }
+
+    // guarded by lock
+    private boolean batchDue() {
+        return pendingChars > 0
+                && retryAt == 0
+                && (flushRequested
+                || pendingChars >= maxBatchChars
+                || System.currentTimeMillis() - pendingSince >= maxBatchAge);
+    }
+
+    // guarded by lock
+    private boolean retryDue() {
+        return retryAt > 0 && System.currentTimeMillis() >= retryAt;
+    }
+
+    // guarded by lock
+    private long waitTime() {
+        final long now = System.currentTimeMillis();
+        long wait = maxBatchAge;
+
+        if (pendingChars > 0)
+            wait = Math.max(1, pendingSince + maxBatchAge - now);
+
+        if (retryAt > 0)
+            wait = Math.max(1, retryAt - now);
+
+        return wait;
+    }
+
+    // send batches from the spool's cursor until it's caught up, a batch fails, or the shipper is stopped
+    private void sendSpooled(final LogSpool current) {
+        final StringBuilder batch = new StringBuilder();
+        final MappedLogSink.RecordListener renderer = new MappedLogSink.RecordListener() {
+            @Override
+            public void onRecord(final long timestamp, final int level, final String tag, final String message) {
+                render(batch, timestamp, level, tag, message);
+            }
+        };
+
+        while (true) {
+            final long from = current.getAckedPosition();
+            long position = from;
+
+            batch.setLength(0);
+
+            try {
+                // a record takes at least as many bytes in the spool as characters once rendered, so a byte budget
+                // keeps the batch within maxBatchChars
+                while (batch.length() < maxBatchChars) {
+                    long next = current.read(position, READ_RECORDS, maxBatchChars - batch.length(), renderer);
+
+                    // a record bigger than a whole batch goes on its own
+                    if (next == position && batch.length() == 0)
+                        next = current.read(position, 1, renderer);
+
+                    if (next == position)
+                        break;
+
+                    position = next;
+                }
+            } catch (IOException e) {
+                failed("can't read spool: " + e);
+                return;
+            }
+
+            if (batch.length() == 0)
+                break;
+
+            final int status = send(compress(batch.toString()));
+
+            if (status == FAILED)
+                return;
+
+            try {
+                current.ack(position);
+            } catch (IOException e) {
+                failed("can't save spool cursor: " + e);
+                return;
+            }
+
+            synchronized (lock) {
+                if (!running)
+                    return;
+            }
+        }
+
+        synchronized (lock) {
+            failures = 0;
+            retryAt = 0;
+        }
+    }
+
+    private static void render(final StringBuilder batch,
+                               final long timestamp,
+                               final int level,
+                               final String tag,
+                               final String message) {
+        if (level != RAW_LINE) {
+            batch.append(timestamp)
+                    .append(' ')
+                    .append(level >= 0 && level < LEVELS.length() ? LEVELS.charAt(level) : '?')
+                    .append('/')
+                    .append(tag)
+                    .append(": ");
+        }
+
+        batch.append(message).append('\n');
+    }
+
+    private int send(final byte[] payload) {
+        HttpURLConnection connection = null;
+
+        try {
+            connection = (HttpURLConnection) endpoint.openConnection();
+            connection.setConnectTimeout(CONNECT_TIMEOUT);
+            connection.setReadTimeout(READ_TIMEOUT);
+            connection.setDoOutput(true);
+            connection.setRequestMethod("POST");
+            connection.setRequestProperty("Content-Type", "text/plain; charset=utf-8");
+            connection.setRequestProperty("Content-Encoding", "gzip");
+            connection.setFixedLengthStreamingMode(payload.length);
+
+            final OutputStream out = connection.getOutputStream();
+
+            try {
+                out.write(payload);
+            } finally {
+                out.close();
+            }
+
+            final int code = connection.getResponseCode();
+            drain(code < 400 ? connection.getInputStream() : connection.getErrorStream());
+
+            if (code >= 200 && code < 300) {
+                sentBatches++;
+                return SENT;
+            }
+
+            if (code == 408 || code == 429 || code >= 500) {
+                failed("HTTP " + code);
+                return FAILED;
+            }
+
+            Log.println(Log.WARN, TAG, "Batch rejected by collector: HTTP " + code);
+            droppedBatches++;
+            return REJECTED;
+        } catch (IOException e) {
+            failed(e.toString());
+            return FAILED;
+        } finally {
+            if (null != connection)
+                connection.disconnect();
+        }
+    }
+
+    private void failed(final String reason) {
+        final long backoff = Math.min(maxBackoff, initialBackoff << Math.min(failures, 30));
+        failures++;
+
+        synchronized (lock) {
+            retryAt = System.currentTimeMillis() + backoff;
+        }
+
+        Log.println(Log.INFO, TAG, "Shipping failed (" + reason + "), retrying in " + backoff + "ms");
+    }
+
+    private static byte[] compress(final String text) {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(text.length() / 4 + 64);
+
+        try {
+            final Writer writer = new OutputStreamWriter(new GZIPOutputStream(bytes), LogLineBytes.UTF8);
+
+            try {
+                writer.write(text);
+            } finally {
+                writer.close();
+            }
+        } catch (IOException e) {
+            // in memory: doesn't happen
+            throw new IllegalStateException(e);
+        }
+
+        return bytes.toByteArray();
+    }
+
+    private static void drain(final InputStream in) throws IOException {
+        if (null == in)
+            return;
+
+        try {
+            copy(in, null);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void copy(final InputStream in, final OutputStream out) throws IOException {
+        final byte[] buffer = new byte[8192];
+        int read;
+
+        while ((read = in.read(buffer)) > 0) {
+            if (null != out)
+                out.write(buffer, 0, read);
+        }
+    }
+}
@@ -0,0 +1,37 @@
+/*
+ * ****************************************************************************
+ *   Copyright  2017 airG Inc.                                                 *
+ *                                                                             *
+ *   Licensed under the Apache License, Version 2.0 (the "License");           *
+ *   you may not use this file except in compliance with the License.          *
+ *   You may obtain a copy of the License at                                   *
+ *                                                                             *
+ *       http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                             *
+ *   Unless required by applicable law or agreed to in writing, software       *
+ *   distributed under the License is distributed on an "AS IS" BASIS,         *
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  *
+ *   See the License for the specific language governing permissions and       *
+ *   limitations under the License.                                            *
+ * ***************************************************************************
+ */
+
+package com.airg.android.logging;
+
+/**
+ * Receives every record that {@link Logger} writes to the log (i.e. records at or above the root or tag level), in
+ * addition to logcat. Register sinks via {@link Logger#addSink(LogSink)}.
+ * <p>
+ * Sinks are called synchronously on the logging thread (or on the async queue's thread, see
+ * {@link Logger#setAsyncQueueSize(int)}), so they should be quick and must be thread safe.
+ */
+public interface LogSink {
+    /**
+     * A record was logged
+     *
+     * @param level   log level (see {@link android.util.Log})
+     * @param tag     log tag
+     * @param message fully formatted message, including the {@link LogContext} prefix
+     */
+    void write(final int level, final String tag, final String message);
+}
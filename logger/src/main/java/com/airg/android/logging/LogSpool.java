@@ -0,0 +1,516 @@
+/*
+ * ****************************************************************************
+ *   Copyright  2017 airG Inc.                                                 *
+ *                                                                             *
+ *   Licensed under the Apache License, Version 2.0 (the "License");           *
+ *   you may not use this file except in compliance with the License.          *
+ *   You may obtain a copy of the License at                                   *
+ *                                                                             *
+ *       http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                             *
+ *   Unless required by applicable law or agreed to in writing, software       *
+ *   distributed under the License is distributed on an "AS IS" BASIS,         *
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  *
+ *   See the License for the specific language governing permissions and       *
+ *   limitations under the License.                                            *
+ * ***************************************************************************
+ */
+
+package com.airg.android.logging;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.CRC32;
+
+/**
+ * A {@link LogSink} that appends records to a directory of segment files, to be read back (e.g. for shipping) and
+ * acknowledged later. Register it via {@link Logger#addSink(LogSink)}. {@link LogShipper} keeps the records it hasn't
+ * sent yet in one.
+ * <p>
+ * Records are addressed by position: an ever increasing byte offset across all segments. Each segment file is named
+ * after the position of its first record. Records are appended to the newest segment, and a new segment is started
+ * once it reaches the segment size. {@link #read(long, int, MappedLogSink.RecordListener)} streams records from a
+ * position without loading whole segments, and {@link #ack(long)} records (in a small cursor file) that everything
+ * before a position has been dealt with. Acknowledged segments are deleted. If the spool grows past its byte budget,
+ * the oldest segments are deleted whether they were acknowledged or not.
+ * <p>
+ * Records use the same layout as {@link MappedLogSink}:
+ * <code>[length:int][crc32:int][timestamp:long][level:byte][tag length:short][tag][message]</code>. Each record is
+ * handed to the OS as it's written (one sequential write), so records survive process death. A torn record at the end
+ * of the newest segment (e.g. after a power loss) is cut off when the spool is opened.
+ */
+@SuppressWarnings({"UnusedDeclaration", "WeakerAccess"})
+public final class LogSpool implements LogSink, Closeable {
+    private static final String TAG = "LogSpool";
+
+    public static final int DEFAULT_SEGMENT_BYTES = 1024 * 1024;
+
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String CURSOR_FILE = "cursor";
+
+    // length, crc, timestamp, level, tag length
+    private static final int RECORD_HEADER_SIZE = 4 + 4 + 8 + 1 + 2;
+    private static final int CRC_START = 8;
+
+    private final File directory;
+    private final long maxBytes;
+    private final int segmentBytes;
+    private final int maxRecordSize;
+
+    private final CRC32 crc = new CRC32();
+    private final ByteBuffer recordHeader = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+
+    // segment base positions, oldest first
+    private final List<Long> segments = new ArrayList<>();
+    private long size;
+    private OutputStream out;
+    private long end;
+    private long acked;
+    private long evictedSegments = 0;
+    private boolean closed = false;
+
+    /**
+     * Open (or create) a spool with the default segment size
+     *
+     * @param directory spool directory (created if needed). Use a directory that isn't shared with anything else.
+     * @param maxBytes  byte budget for all segments
+     * @throws IOException if the spool can't be opened
+     */
+    public LogSpool(final File directory, final long maxBytes) throws IOException {
+        this(directory, maxBytes, DEFAULT_SEGMENT_BYTES);
+    }
+
+    /**
+     * Open (or create) a spool
+     *
+     * @param directory    spool directory (created if needed). Use a directory that isn't shared with anything else.
+     * @param maxBytes     byte budget for all segments. Must hold at least two segments.
+     * @param segmentBytes segment size
+     * @throws IOException if the spool can't be opened
+     */
+    public LogSpool(final File directory, final long maxBytes, final int segmentBytes) throws IOException {
+        if (segmentBytes < 1024 || maxBytes < 2L * segmentBytes)
+            throw new IllegalArgumentException("Invalid spool size: " + maxBytes + " bytes in " + segmentBytes
+                    + " byte segments");
+
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        this.segmentBytes = segmentBytes;
+        maxRecordSize = segmentBytes;
+
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Can't create " + directory);
+
+        final File[] files = directory.listFiles();
+        final long[] bases = new long[null == files ? 0 : files.length];
+        int count = 0;
+
+        for (int i = 0; i < bases.length; i++) {
+            final long base = base(files[i]);
+
+            if (base >= 0)
+                bases[count++] = base;
+        }
+
+        Arrays.sort(bases, 0, count);
+
+        for (int i = 0; i < count; i++) {
+            segments.add(bases[i]);
+            size += segment(bases[i]).length();
+        }
+
+        acked = readCursor();
+
+        if (segments.isEmpty()) {
+            end = acked;
+            startSegment();
+        } else {
+            final long newest = segments.get(segments.size() - 1);
+            final File file = segment(newest);
+            final long valid = validLength(file);
+
+            if (valid < file.length()) {
+                size -= file.length() - valid;
+                truncate(file, valid);
+            }
+
+            end = newest + valid;
+            out = new FileOutputStream(file, true);
+        }
+
+        if (acked > end || acked < segments.get(0))
+            acked = Math.max(segments.get(0), Math.min(acked, end));
+
+        deleteAcknowledged();
+    }
+
+    @Override
+    public synchronized void write(final int level, final String tag, final String message) {
+        if (closed)
+            return;
+
+        final byte[] tagBytes = null == tag ? new byte[0] : tag.getBytes(LogLineBytes.UTF8);
+        final int tagLength = Math.min(tagBytes.length, Math.min(Short.MAX_VALUE, maxRecordSize - RECORD_HEADER_SIZE));
+        final byte[] messageBytes = null == message ? new byte[0] : message.getBytes(LogLineBytes.UTF8);
+        final int messageLength = Math.min(messageBytes.length, maxRecordSize - RECORD_HEADER_SIZE - tagLength);
+        final int length = RECORD_HEADER_SIZE + tagLength + messageLength;
+
+        recordHeader.clear();
+        recordHeader.putInt(length);
+        recordHeader.putInt(0); // crc, below
+        recordHeader.putLong(Logger.recordTime());
+        recordHeader.put((byte) level);
+        recordHeader.putShort((short) tagLength);
+
+        final byte[] record = new byte[length];
+        System.arraycopy(recordHeader.array(), 0, record, 0, RECORD_HEADER_SIZE);
+        System.arraycopy(tagBytes, 0, record, RECORD_HEADER_SIZE, tagLength);
+        System.arraycopy(messageBytes, 0, record, RECORD_HEADER_SIZE + tagLength, messageLength);
+
+        crc.reset();
+        crc.update(record, CRC_START, length - CRC_START);
+        ByteBuffer.wrap(record).putInt(4, (int) crc.getValue());
+
+        try {
+            if (end - segments.get(segments.size() - 1) + length > segmentBytes)
+                startSegment();
+
+            out.write(record);
+            end += length;
+            size += length;
+            evict();
+        } catch (IOException e) {
+            // straight to logcat: this is a sink
+            Log.println(Log.ERROR, TAG, "Can't write to spool " + directory + ": " + e);
+        }
+    }
+
+    /**
+     * Read records, oldest first
+     *
+     * @param from       position to start at, typically {@link #getAckedPosition()}. If records before the position
+     *                   have been evicted, reading starts at the oldest record that's left.
+     * @param maxRecords maximum number of records to read
+     * @param listener   receives the records
+     * @return position after the last record read: pass it to {@link #ack(long)} once the records are dealt with, or
+     * to the next <code>read()</code>.
+     * @throws IOException if reading fails
+     */
+    public long read(final long from, final int maxRecords, final MappedLogSink.RecordListener listener)
+            throws IOException {
+        return read(from, maxRecords, Long.MAX_VALUE, listener);
+    }
+
+    /**
+     * Read records, oldest first, up to a total size
+     *
+     * @param from       position to start at, as for {@link #read(long, int, MappedLogSink.RecordListener)}
+     * @param maxRecords maximum number of records to read
+     * @param maxBytes   maximum total size of the records read, in bytes (as stored, headers included). Reading stops
+     *                   before the record that would go over it, even if that's the first one.
+     * @param listener   receives the records
+     * @return position after the last record read
+     * @throws IOException if reading fails
+     */
+    public long read(final long from,
+                     final int maxRecords,
+                     final long maxBytes,
+                     final MappedLogSink.RecordListener listener) throws IOException {
+        final Long[] bases;
+        final long limit;
+
+        synchronized (this) {
+            if (closed)
+                throw new IOException("Spool is closed");
+
+            bases = segments.toArray(new Long[segments.size()]);
+            limit = end;
+        }
+
+        long position = Math.max(from, bases[0]);
+        int count = 0;
+        long bytes = 0;
+        boolean full = false;
+
+        for (int i = 0; i < bases.length && !full && count < maxRecords && position < limit; i++) {
+            final long segmentEnd = i + 1 < bases.length ? bases[i + 1] : limit;
+
+            if (position >= segmentEnd)
+                continue;
+
+            final InputStream in;
+
+            try {
+                in = new FileInputStream(segment(bases[i]));
+            } catch (FileNotFoundException e) {
+                // evicted since
+                position = segmentEnd;
+                continue;
+            }
+
+            try {
+                final DataInputStream data = new DataInputStream(new BufferedInputStream(in, 16 * 1024));
+                skipFully(data, position - bases[i]);
+
+                while (count < maxRecords && position < segmentEnd) {
+                    final int length = data.readInt();
+
+                    if (length < RECORD_HEADER_SIZE || position + length > segmentEnd)
+                        throw new IOException("Damaged record at " + position);
+
+                    if (bytes + length > maxBytes) {
+                        full = true;
+                        break;
+                    }
+
+                    final byte[] record = new byte[length];
+                    ByteBuffer.wrap(record).putInt(length);
+                    data.readFully(record, 4, length - 4);
+
+                    final ByteBuffer fields = ByteBuffer.wrap(record);
+                    final int tagLength = fields.getShort(CRC_START + 9);
+
+                    if (tagLength < 0 || RECORD_HEADER_SIZE + tagLength > length)
+                        throw new IOException("Damaged record at " + position);
+
+                    listener.onRecord(fields.getLong(CRC_START),
+                            record[CRC_START + 8],
+                            new String(record, RECORD_HEADER_SIZE, tagLength, LogLineBytes.UTF8),
+                            new String(record, RECORD_HEADER_SIZE + tagLength, length - RECORD_HEADER_SIZE - tagLength,
+                                    LogLineBytes.UTF8));
+
+                    position += length;
+                    bytes += length;
+                    count++;
+                }
+            } finally {
+                in.close();
+            }
+        }
+
+        return position;
+    }
+
+    /**
+     * Acknowledge all records before a position. Segments that only hold acknowledged records are deleted.
+     *
+     * @param position a position returned by {@link #read(long, int, MappedLogSink.RecordListener)}
+     * @throws IOException if the cursor can't be saved
+     */
+    public synchronized void ack(final long position) throws IOException {
+        if (closed)
+            throw new IOException("Spool is closed");
+
+        if (position <= acked)
+            return;
+
+        acked = Math.min(position, end);
+        writeCursor();
+        deleteAcknowledged();
+    }
+
+    /**
+     * @return position of the oldest unacknowledged record
+     */
+    public synchronized long getAckedPosition() {
+        return acked;
+    }
+
+    /**
+     * @return position after the newest record
+     */
+    public synchronized long getEndPosition() {
+        return end;
+    }
+
+    /**
+     * @return total size of the segments in bytes
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    /**
+     * @return number of segments evicted before all of their records were acknowledged
+     */
+    public synchronized long getEvictedSegmentCount() {
+        return evictedSegments;
+    }
+
+    /**
+     * Stop appending and close the newest segment
+     *
+     * @throws IOException if closing fails
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed)
+            return;
+
+        closed = true;
+        out.close();
+    }
+
+    private void startSegment() throws IOException {
+        if (null != out)
+            out.close();
+
+        segments.add(end);
+        out = new FileOutputStream(segment(end));
+    }
+
+    private void evict() {
+        while (size > maxBytes && segments.size() > 1) {
+            if (acked < segments.get(1)) {
+                evictedSegments++;
+                acked = segments.get(1);
+
+                try {
+                    writeCursor();
+                } catch (IOException e) {
+                    Log.println(Log.WARN, TAG, "Can't save spool cursor: " + e);
+                }
+            }
+
+            deleteOldest();
+        }
+    }
+
+    private void deleteAcknowledged() {
+        // never the newest segment: it's being appended to
+        while (segments.size() > 1 && segments.get(1) <= acked)
+            deleteOldest();
+    }
+
+    private void deleteOldest() {
+        final File file = segment(segments.remove(0));
+        size -= file.length();
+
+        if (!file.delete())
+            Log.println(Log.WARN, TAG, "Can't delete " + file);
+    }
+
+    private File segment(final long base) {
+        return new File(directory, String.format(Locale.US, "%019d%s", base, SEGMENT_SUFFIX));
+    }
+
+    private static long base(final File file) {
+        final String name = file.getName();
+
+        if (!name.endsWith(SEGMENT_SUFFIX))
+            return -1;
+
+        try {
+            return Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private long readCursor() {
+        final File file = new File(directory, CURSOR_FILE);
+
+        if (!file.exists())
+            return 0;
+
+        try {
+            final DataInputStream in = new DataInputStream(new FileInputStream(file));
+
+            try {
+                return in.readLong();
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            Log.println(Log.WARN, TAG, "Can't read spool cursor: " + e);
+            return 0;
+        }
+    }
+
+    private void writeCursor() throws IOException {
+        final File temp = new File(directory, CURSOR_FILE + ".tmp");
+        final FileOutputStream stream = new FileOutputStream(temp);
+
+        try {
+            final byte[] bytes = new byte[8];
+            ByteBuffer.wrap(bytes).putLong(acked);
+            stream.write(bytes);
+            stream.getFD().sync();
+        } finally {
+            stream.close();
+        }
+
+        if (!temp.renameTo(new File(directory, CURSOR_FILE)))
+            throw new IOException("Can't save spool cursor");
+    }
+
+    // length of the run of intact records at the start of a segment
+    private static long validLength(final File file) throws IOException {
+        final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 16 * 1024));
+        final CRC32 crc = new CRC32();
+        long valid = 0;
+
+        try {
+            while (true) {
+                final int length = in.readInt();
+
+                if (length < RECORD_HEADER_SIZE || valid + length > file.length())
+                    return valid;
+
+                final byte[] record = new byte[length];
+                in.readFully(record, 4, length - 4);
+                crc.reset();
+                crc.update(record, CRC_START, length - CRC_START);
+
+                if (ByteBuffer.wrap(record).getInt(4) != (int) crc.getValue())
+                    return valid;
+
+                valid += length;
+            }
+        } catch (EOFException e) {
+            return valid;
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void truncate(final File file, final long length) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+
+        try {
+            raf.setLength(length);
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static void skipFully(final InputStream in, final long count) throws IOException {
+        long remaining = count;
+
+        while (remaining > 0) {
+            final long skipped = in.skip(remaining);
+
+            if (skipped <= 0)
+                throw new EOFException();
+
+            remaining -= skipped;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * ****************************************************************************
+ *   Copyright  2017 airG Inc.                                                 *
+ *                                                                             *
+ *   Licensed under the Apache License, Version 2.0 (the "License");           *
+ *   you may not use this file except in compliance with the License.          *
+ *   You may obtain a copy of the License at                                   *
+ *                                                                             *
+ *       http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                             *
+ *   Unless required by applicable law or agreed to in writing, software       *
+ *   distributed under the License is distributed on an "AS IS" BASIS,         *
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  *
+ *   See the License for the specific language governing permissions and       *
+ *   limitations under the License.                                            *
+ * ***************************************************************************
+ */
+package com.airg.android.logging;
+
+import java.util.Calendar;
+
+/**
+ * Parses the <code>MM-DD HH:MM:SS.mmm</code> prefix of the <code>time</code> and <code>threadtime</code> logcat formats
+ * into epoch milliseconds, in the local time zone. The year isn't logged: lines are taken to be from the current year,
+ * or from last year if that would put them more than a day in the future. Not thread safe (the start of the last seen
+ * hour is cached: a day isn't always 24 hours long, but an hour is always 60 minutes).
+ */
+final class LogcatTimestamps {
+    /**
+     * Length of the timestamp prefix
+     */
+    static final int LENGTH = 18;
+
+    private static final long DAY_MILLIS = 24 * 60 * 60 * 1000L;
+
+    private final Calendar calendar = Calendar.getInstance();
+    private int cachedHour = -1;
+    private long cachedHourStart;
+
+    /**
+     * @param line log line
+     * @return the line's timestamp, or {@link Long#MIN_VALUE} if it doesn't start with one.
+     */
+    long parse(final String line) {
+        if (line.length() < LENGTH
+                || line.charAt(2) != '-' || line.charAt(5) != ' ' || line.charAt(8) != ':'
+                || line.charAt(11) != ':' || line.charAt(14) != '.')
+            return Long.MIN_VALUE;
+
+        final int month = number(line, 0, 2);
+        final int day = number(line, 3, 5);
+        final int hour = number(line, 6, 8);
+        final int minute = number(line, 9, 11);
+        final int second = number(line, 12, 14);
+        final int millis = number(line, 15, 18);
+
+        if (month < 0 || day < 0 || hour < 0 || minute < 0 || second < 0 || millis < 0)
+            return Long.MIN_VALUE;
+
+        final int monthDayHour = (month * 32 + day) * 24 + hour;
+
+        if (monthDayHour != cachedHour) {
+            final long now = System.currentTimeMillis();
+            calendar.setTimeInMillis(now);
+            final int year = calendar.get(Calendar.YEAR);
+            calendar.clear();
+            calendar.set(year, month - 1, day, hour, 0);
+
+            // logged late last year
+            if (calendar.getTimeInMillis() > now + DAY_MILLIS) {
+                calendar.clear();
+                calendar.set(year - 1, month - 1, day, hour, 0);
+            }
+
+            cachedHourStart = calendar.getTimeInMillis();
+            cachedHour = monthDayHour;
+        }
+
+        return cachedHourStart + (minute * 60L + second) * 1000L + millis;
+    }
+
+    static boolean isDigit(final char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static int number(final String s, final int start, final int end) {
+        int n = 0;
+
+        for (int i = start; i < end; i++) {
+            final char c = s.charAt(i);
+
+            if (!isDigit(c))
+                return -1;
+
+            n = n * 10 + c - '0';
+        }
+
+        return n;
+    }
+}
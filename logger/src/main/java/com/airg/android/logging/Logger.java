@@ -21,8 +21,14 @@ package com.airg.android.logging;
 import android.text.TextUtils;
 import android.util.Log;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Locale;
+import java.util.Set;
 
 import static android.util.Log.DEBUG;
 import static android.util.Log.ERROR;
@@ -40,32 +46,53 @@ public final class Logger {
     private static final String TAG = "LOG";
 
     // log every thing
-    static int rootLevel = VERBOSE;
+    static volatile int rootLevel = VERBOSE;
 
     // format as english by default
     static Locale defaultLocale = Locale.ENGLISH;
 
+    // repeated record collapsing is off by default
+    static volatile LogCollapser collapser = null;
+
+    // stack traces are also printed to stderr by default
+    static volatile boolean stderrTraces = true;
+
+    static final int DEFAULT_TRACE_CACHE_SIZE = 32;
+    static volatile StackTraceCache traceCache = new StackTraceCache(DEFAULT_TRACE_CACHE_SIZE);
+
+    // additional outputs (copy on write): the registered sinks, minus the disabled ones
+    private static final Object sinkLock = new Object();
+    private static LogSink[] registeredSinks = new LogSink[0];
+    private static Set<String> disabledSinks = Collections.emptySet();
+    static volatile LogSink[] sinks = new LogSink[0];
+
+    // runtime configuration file
+    private static final Object configLock = new Object();
+    private static LogConfigWatcher configWatcher = null;
+
+    // write to logcat (in addition to sinks)
+    static volatile boolean logcatEnabled = true;
+
+    // records are written on the caller's thread by default
+    static final int MIN_ASYNC_QUEUE_SIZE = 4 * 1024;
+    private static final Object asyncLock = new Object();
+    static volatile AsyncLogQueue asyncQueue = null;
+
+    // log level -> logcat priority (log unknowns as info)
+    private static final int[] PRIORITIES = {INFO, INFO, VERBOSE, DEBUG, INFO, WARN, ERROR, INFO};
+
     private Logger() {
         // no instance
     }
 
     /**
-     * Set the root log level. All lower level logs entries will be dropped
+     * Set the root log level. All lower level logs entries will be dropped, except for tags that have a level of their
+     * own (see {@link #setTagLevel(String, int)}).
      *
      * @param level minimum log level
      */
     public static void setRootLevel(final int level) {
-        switch (level) {
-            case VERBOSE:
-            case ERROR:
-            case WARN:
-            case INFO:
-            case DEBUG:
-                rootLevel = level;
-                break;
-            default:
-                throw new IllegalArgumentException("Invalid log level: " + level);
-        }
+        TagRegistry.setRootLevel(checkLevel(level));
     }
 
     /**
@@ -77,6 +104,151 @@ public final class Logger {
         return rootLevel;
     }
 
+    /**
+     * Set the log level of a tag and its children (dot separated, e.g. <code>NET</code> for <code>NET.HTTP</code>),
+     * unless a child has a level of its own. Overrides the root level in either direction.
+     *
+     * @param tag   log tag
+     * @param level minimum log level
+     */
+    public static void setTagLevel(final String tag, final int level) {
+        if (null == tag)
+            throw new IllegalArgumentException("null tag");
+
+        TagRegistry.setLevel(tag, checkLevel(level));
+    }
+
+    /**
+     * Remove the log level of a tag. The tag inherits its parent's level (or the root level) again.
+     *
+     * @param tag log tag
+     */
+    public static void clearTagLevel(final String tag) {
+        TagRegistry.setLevel(tag, null);
+    }
+
+    /**
+     * Remove all tag levels. All tags go back to the root level.
+     */
+    public static void clearTagLevels() {
+        TagRegistry.clearLevels();
+    }
+
+    /**
+     * Get the log level in effect for a tag: the level of the tag or its closest ancestor, or the root level
+     *
+     * @param tag log tag
+     * @return log level
+     */
+    public static int getTagLevel(final String tag) {
+        return TagRegistry.effectiveLevel(tag);
+    }
+
+    /**
+     * Log only a sample of the records of a tag and its children (unless a child has a sample rate of its own). Records
+     * are sampled deterministically: a rate of <code>0.1</code> logs every tenth record.
+     *
+     * @param tag  log tag
+     * @param rate fraction of records to log: more than <code>0</code>, at most <code>1</code>.
+     */
+    public static void setTagSampleRate(final String tag, final double rate) {
+        if (null == tag)
+            throw new IllegalArgumentException("null tag");
+
+        TagRegistry.setSampling(tag, samplingInterval(rate));
+    }
+
+    /**
+     * Remove the sample rate of a tag. The tag inherits its parent's sample rate again.
+     *
+     * @param tag log tag
+     */
+    public static void clearTagSampleRate(final String tag) {
+        TagRegistry.setSampling(tag, null);
+    }
+
+    /**
+     * Apply a log configuration file once. See {@link #watchConfig(File, long)} for the format.
+     *
+     * @param file configuration file
+     * @throws IOException              if the file can't be read
+     * @throws IllegalArgumentException if the file contains invalid settings. Nothing is applied in that case.
+     */
+    public static void loadConfig(final File file) throws IOException {
+        LogConfig.load(file).apply();
+    }
+
+    /**
+     * Watch a log configuration file, and apply it whenever it changes. The file's modification time and size are
+     * polled on a background thread. A configuration is applied as a whole, or not at all if it's invalid. Deleting the
+     * file leaves the last applied configuration in place. The file is a properties file:
+     * <pre>
+     * # root level (VERBOSE, DEBUG, INFO, WARN, ERROR)
+     * root=INFO
+     * # tag levels (see setTagLevel)
+     * level.NET=WARN
+     * level.NET.HTTP=VERBOSE
+     * # tag sample rates (see setTagSampleRate)
+     * sample.UI.FEED=0.1
+     * # logcat output
+     * logcat=true
+     * # sinks, by class name
+     * sink.MappedLogSink=false
+     * </pre>
+     * Tag levels, sample rates, and disabled sinks that aren't in the file are cleared. The root level and logcat
+     * output keep their current settings if they're not in the file.
+     *
+     * @param file           configuration file
+     * @param intervalMillis polling interval
+     */
+    public static void watchConfig(final File file, final long intervalMillis) {
+        if (null == file)
+            throw new IllegalArgumentException("null file");
+
+        if (intervalMillis <= 0)
+            throw new IllegalArgumentException("Invalid polling interval: " + intervalMillis);
+
+        synchronized (configLock) {
+            if (null != configWatcher)
+                configWatcher.stop();
+
+            configWatcher = new LogConfigWatcher(file, intervalMillis);
+            configWatcher.start();
+        }
+    }
+
+    /**
+     * Stop watching the log configuration file. The last applied configuration stays in place.
+     */
+    public static void stopWatchingConfig() {
+        synchronized (configLock) {
+            if (null != configWatcher)
+                configWatcher.stop();
+
+            configWatcher = null;
+        }
+    }
+
+    static int samplingInterval(final double rate) {
+        if (!(rate > 0 && rate <= 1))
+            throw new IllegalArgumentException("Invalid sample rate: " + rate);
+
+        return (int) Math.min(Integer.MAX_VALUE, Math.round(1 / rate));
+    }
+
+    static int checkLevel(final int level) {
+        switch (level) {
+            case VERBOSE:
+            case ERROR:
+            case WARN:
+            case INFO:
+            case DEBUG:
+                return level;
+            default:
+                throw new IllegalArgumentException("Invalid log level: " + level);
+        }
+    }
+
     /**
      * Specify an alternate locale to use for formatting output via {@link String#format(Locale, String, Object...)}. The default locale is {@link Locale#ENGLISH}.
      *
@@ -96,13 +268,243 @@ public final class Logger {
     }
 
     /**
-     * Create an tagged logger instance
+     * Collapse consecutive identical log records (same level, tag, formatted message, and throwable) logged within the
+     * given window. The first record is logged as usual, and the repeats are replaced with a single "Last message
+     * repeated N times" record which is written once a different record is logged, the window expires, or
+     * {@link #flushCollapsed()} is called. Throwables are the same if their type, message, and stack trace match.
+     * Repeats are spotted without formatting them when the format arguments are all strings, boxed primitives, or
+     * enums, and events are compared by their fields.
+     *
+     * @param windowMillis collapse window in milliseconds. Specify <code>0</code> to disable collapsing (default).
+     */
+    public static void setCollapseWindow(final long windowMillis) {
+        if (windowMillis < 0)
+            throw new IllegalArgumentException("Invalid collapse window: " + windowMillis);
+
+        final LogCollapser previous = collapser;
+        collapser = windowMillis == 0 ? null : new LogCollapser(windowMillis);
+
+        if (null != previous)
+            previous.flush();
+    }
+
+    /**
+     * Get the current collapse window
+     *
+     * @return collapse window in milliseconds or <code>0</code> if collapsing is disabled.
+     */
+    public static long getCollapseWindow() {
+        final LogCollapser current = collapser;
+        return null == current ? 0 : current.window();
+    }
+
+    /**
+     * Write out the pending "repeated" summary record, if any. Call this before capturing or dumping the log if you
+     * need to see the count for the last collapsed record.
+     */
+    public static void flushCollapsed() {
+        final LogCollapser current = collapser;
+
+        if (null != current)
+            current.flush();
+    }
+
+    /**
+     * Specify whether logged {@link java.lang.Throwable}s should also have their stack traces printed to
+     * <code>System.err</code> (the default). The trace is rendered once and reused for both outputs, but turning this
+     * off avoids writing every trace to the log twice.
+     *
+     * @param enabled <code>true</code> to print stack traces to stderr as well, <code>false</code> otherwise.
+     */
+    public static void setStderrTraces(final boolean enabled) {
+        stderrTraces = enabled;
+    }
+
+    /**
+     * Are logged stack traces also printed to <code>System.err</code>?
+     *
+     * @return <code>true</code> if stack traces are duplicated to stderr.
+     */
+    public static boolean isStderrTraces() {
+        return stderrTraces;
+    }
+
+    /**
+     * Set the number of rendered stack traces to keep around. Repeatedly logging the same exception from the same
+     * site reuses the cached trace instead of rendering it again.
+     *
+     * @param maxEntries maximum number of cached traces. Specify <code>0</code> to disable the cache.
+     */
+    public static void setTraceCacheSize(final int maxEntries) {
+        if (maxEntries < 0)
+            throw new IllegalArgumentException("Invalid trace cache size: " + maxEntries);
+
+        traceCache = maxEntries == 0 ? null : new StackTraceCache(maxEntries);
+    }
+
+    /**
+     * Register an additional output for log records. Sinks receive every record at or above the root or tag level, and
+     * {@link StructuredLogSink}s receive structured events without them being rendered to text.
+     *
+     * @param sink log sink
+     */
+    public static void addSink(final LogSink sink) {
+        if (null == sink)
+            throw new IllegalArgumentException("null sink");
+
+        synchronized (sinkLock) {
+            final LogSink[] current = registeredSinks;
+            final LogSink[] updated = Arrays.copyOf(current, current.length + 1);
+            updated[current.length] = sink;
+            registeredSinks = updated;
+            updateSinks();
+        }
+    }
+
+    /**
+     * Unregister a log sink
+     *
+     * @param sink log sink
+     * @return <code>true</code> if the sink was registered, <code>false</code> otherwise.
+     */
+    public static boolean removeSink(final LogSink sink) {
+        synchronized (sinkLock) {
+            final LogSink[] current = registeredSinks;
+
+            for (int i = 0; i < current.length; i++) {
+                if (current[i] != sink)
+                    continue;
+
+                final LogSink[] updated = new LogSink[current.length - 1];
+                System.arraycopy(current, 0, updated, 0, i);
+                System.arraycopy(current, i + 1, updated, i, current.length - i - 1);
+                registeredSinks = updated;
+                updateSinks();
+                return true;
+            }
+
+            return false;
+        }
+    }
+
+    /**
+     * Disable sinks by their class's simple name (e.g. <code>MappedLogSink</code>). Disabled sinks stay registered but
+     * don't receive records.
+     *
+     * @param names simple class names of the sinks to disable. An empty set enables all sinks.
+     */
+    static void setDisabledSinks(final Set<String> names) {
+        synchronized (sinkLock) {
+            disabledSinks = names;
+            updateSinks();
+        }
+    }
+
+    // guarded by sinkLock
+    private static void updateSinks() {
+        if (disabledSinks.isEmpty()) {
+            sinks = registeredSinks;
+            return;
+        }
+
+        final List<LogSink> enabled = new ArrayList<>(registeredSinks.length);
+
+        for (final LogSink sink : registeredSinks) {
+            if (!disabledSinks.contains(sink.getClass().getSimpleName()))
+                enabled.add(sink);
+        }
+
+        sinks = enabled.toArray(new LogSink[enabled.size()]);
+    }
+
+    /**
+     * Specify whether records are written to logcat. Turn this off to log only to the registered sinks.
+     *
+     * @param enabled <code>true</code> to write to logcat (default), <code>false</code> otherwise.
+     */
+    public static void setLogcatEnabled(final boolean enabled) {
+        logcatEnabled = enabled;
+    }
+
+    /**
+     * Are records written to logcat?
+     *
+     * @return <code>true</code> if records are written to logcat.
+     */
+    public static boolean isLogcatEnabled() {
+        return logcatEnabled;
+    }
+
+    /**
+     * Write records to logcat and the sinks on a background thread. Queued records are serialized into a direct
+     * (off-heap) buffer of the given size rather than kept as objects, so logging bursts don't churn the heap. When the
+     * buffer is full, records are dropped and a summary of the dropped count is logged once the queue catches up.
+     * <p>
+     * Half of the buffer is reserved for {@link Log#WARN} and {@link Log#ERROR} records, which are also written out
+     * ahead of lower level records that are still queued. A flood of verbose records therefore can't cause warnings
+     * or errors to be dropped or delayed, but records of different priority may reach the sinks out of order (sinks
+     * that timestamp records see the original logging time, see {@link MappedLogSink}).
+     * <p>
+     * Formatting, level checks, and repeat collapsing still happen on the caller's thread. {@link StructuredLogSink}s
+     * receive {@link LogEvent}s on the caller's thread, since events are recycled once logged. Messages are truncated
+     * to a quarter of the queue size (in UTF-8 bytes).
+     *
+     * @param queueBytes queue size in bytes (at least {@value #MIN_ASYNC_QUEUE_SIZE}). Specify <code>0</code> to go
+     *                   back to writing records on the caller's thread; records that are already queued are written
+     *                   out first.
+     */
+    public static void setAsyncQueueSize(final int queueBytes) {
+        if (queueBytes != 0 && queueBytes < MIN_ASYNC_QUEUE_SIZE)
+            throw new IllegalArgumentException("Invalid async queue size: " + queueBytes);
+
+        synchronized (asyncLock) {
+            final AsyncLogQueue previous = asyncQueue;
+            asyncQueue = queueBytes == 0 ? null : new AsyncLogQueue(queueBytes);
+
+            if (null != previous)
+                previous.shutdown();
+        }
+    }
+
+    /**
+     * Size of the async queue
+     *
+     * @return queue size in bytes or <code>0</code> if records are written on the caller's thread.
+     */
+    public static int getAsyncQueueSize() {
+        final AsyncLogQueue queue = asyncQueue;
+        return null == queue ? 0 : queue.capacity();
+    }
+
+    /**
+     * Wait for queued records to be written. Returns immediately if the async queue is off.
+     *
+     * @param timeoutMillis maximum time to wait
+     * @return <code>true</code> if all records queued before this call have been written, <code>false</code> otherwise.
+     */
+    public static boolean flushAsync(final long timeoutMillis) {
+        final AsyncLogQueue queue = asyncQueue;
+        return null == queue || queue.flush(timeoutMillis);
+    }
+
+    /**
+     * Number of records dropped because the async queue was full
+     *
+     * @return dropped record count since the current queue was set up
+     */
+    public static long getAsyncDropCount() {
+        final AsyncLogQueue queue = asyncQueue;
+        return null == queue ? 0 : queue.dropped();
+    }
+
+    /**
+     * Get the tagged logger instance for a tag. Loggers are created once per tag and shared.
      *
      * @param tag log tag
      * @return a TaggedLog instance of the logger
      */
     public static TaggedLogger tag(final String tag) {
-        return new TaggedLogger(tag);
+        return TagRegistry.logger(tag);
     }
 
     // ********** Exception Logging **********//
@@ -125,8 +527,7 @@ public final class Logger {
      * @param msg       message to log
      */
     public static void e(final String tag, final Throwable throwable, final String msg) {
-        logThrowable(throwable);
-        error(tag, format(throwable, msg));
+        logThrowable(ERROR, TagRegistry.find(tag), throwable, msg);
     }
 
     /**
@@ -147,8 +548,7 @@ public final class Logger {
      * @param msg       message to log
      */
     public static void w(final String tag, final Throwable throwable, final String msg) {
-        logThrowable(throwable);
-        warn(tag, format(throwable, msg));
+        logThrowable(WARN, TagRegistry.find(tag), throwable, msg);
     }
 
     /**
@@ -169,8 +569,7 @@ public final class Logger {
      * @param msg       message to log
      */
     public static void d(final String tag, final Throwable throwable, final String msg) {
-        logThrowable(throwable);
-        debug(tag, format(throwable, msg));
+        logThrowable(DEBUG, TagRegistry.find(tag), throwable, msg);
     }
 
     // ********** Errors Logging **********//
@@ -185,7 +584,7 @@ public final class Logger {
     public static void e(final String tag,
                          final String fmt,
                          final Object... args) {
-        error(tag, expand(fmt, args));
+        logFormatted(ERROR, TagRegistry.find(tag), fmt, args);
     }
 
     /**
@@ -195,7 +594,7 @@ public final class Logger {
      * @param str log message
      */
     public static void e(final String tag, final String str) {
-        error(tag, str);
+        error(TagRegistry.find(tag), str);
     }
 
     // ********** Warnings Logging **********//
@@ -210,7 +609,7 @@ public final class Logger {
     public static void w(final String tag,
                          final String fmt,
                          final Object... args) {
-        warn(tag, expand(fmt, args));
+        logFormatted(WARN, TagRegistry.find(tag), fmt, args);
     }
 
     /**
@@ -220,7 +619,7 @@ public final class Logger {
      * @param str log message
      */
     public static void w(final String tag, final String str) {
-        warn(tag, str);
+        warn(TagRegistry.find(tag), str);
     }
 
     // ********** Info Logging **********//
@@ -235,7 +634,7 @@ public final class Logger {
     public static void i(final String tag,
                          final String fmt,
                          final Object... args) {
-        info(tag, expand(fmt, args));
+        logFormatted(INFO, TagRegistry.find(tag), fmt, args);
     }
 
     /**
@@ -245,7 +644,7 @@ public final class Logger {
      * @param str log message
      */
     public static void i(final String tag, final String str) {
-        info(tag, str);
+        info(TagRegistry.find(tag), str);
     }
 
     // ********** Debug Logging **********//
@@ -260,7 +659,7 @@ public final class Logger {
     public static void d(final String tag,
                          final String fmt,
                          final Object... args) {
-        debug(tag, expand(fmt, args));
+        logFormatted(DEBUG, TagRegistry.find(tag), fmt, args);
     }
 
     /**
@@ -270,7 +669,7 @@ public final class Logger {
      * @param str log message
      */
     public static void d(final String tag, final String str) {
-        debug(tag, str);
+        debug(TagRegistry.find(tag), str);
     }
 
     // ********** Verbose Logging **********//
@@ -285,7 +684,7 @@ public final class Logger {
     public static void v(final String tag,
                          final String fmt,
                          final Object... args) {
-        verbose(tag, expand(fmt, args));
+        logFormatted(VERBOSE, TagRegistry.find(tag), fmt, args);
     }
 
     /**
@@ -295,7 +694,7 @@ public final class Logger {
      * @param str log message
      */
     public static void v(final String tag, final String str) {
-        verbose(tag, str);
+        verbose(TagRegistry.find(tag), str);
     }
 
     /**
@@ -310,10 +709,19 @@ public final class Logger {
             if (TextUtils.isEmpty(fmt))
                 return null == args || args.length == 0 ? "" : Arrays.toString(args);
 
-            return null == args || args.length == 0
-                    ? fmt
-                    : String.format(defaultLocale, fmt, args);
+            if (null == args || args.length == 0)
+                return fmt;
         } catch (Exception e) {
+            return "BAD FORMAT: " + fmt + " " + Arrays.toString(args);
+        }
+
+        final ScratchBuffer scratch = ScratchBuffer.acquire();
+
+        try {
+            scratch.formatter(defaultLocale).format(fmt, args);
+            return scratch.release();
+        } catch (Exception e) {
+            scratch.recycle();
             d(TAG, e, "Log format failed");
             return "BAD FORMAT: " + fmt + " " + Arrays.toString(args);
         }
@@ -328,64 +736,274 @@ public final class Logger {
      * @return formatted message and stack trace
      */
     public static String format(final Throwable t, final String msg) {
-        return TextUtils.isEmpty(msg)
-                ? Log.getStackTraceString(t)
-                : msg + '\n' + Log.getStackTraceString(t);
+        return format(stackTrace(t), msg);
+    }
+
+    private static String format(final String trace, final String msg) {
+        if (TextUtils.isEmpty(msg))
+            return trace;
+
+        final ScratchBuffer scratch = ScratchBuffer.acquire();
+        scratch.builder().append(msg).append('\n').append(trace);
+        return scratch.release();
+    }
+
+    /**
+     * Render a {@link java.lang.Throwable}'s stack trace. Traces of recently seen exceptions (same type, message,
+     * and throw site) are served from a small cache rather than rendered again.
+     *
+     * @param t throwable
+     * @return stack trace, as rendered by {@link Log#getStackTraceString(Throwable)}
+     */
+    static String stackTrace(final Throwable t) {
+        final StackTraceCache cache = traceCache;
+        return null == cache ? Log.getStackTraceString(t) : cache.render(t);
     }
 
     // ********** Privates, Helpers, and Utility methods **********//
 
-    static void logThrowable(final Throwable throwable) {
-        if (null == throwable)
+    static void logThrowable(final int level,
+                             final TaggedLogger logger,
+                             final Throwable throwable,
+                             final String msg) {
+        final boolean loggable = accepted(level, logger);
+
+        if (loggable && collapsed(level, logger, msg, throwable))
+            return;
+
+        final boolean print = stderrTraces && null != throwable;
+
+        if (!loggable && !print)
+            return;
+
+        // render once, use for both stderr and the log
+        final String trace = stackTrace(throwable);
+
+        if (print) {
+            if (TextUtils.isEmpty(trace))
+                throwable.printStackTrace();
+            else
+                System.err.print(trace);
+        }
+
+        if (loggable)
+            logAs(level, logger, format(trace, msg));
+    }
+
+    static void logFormatted(final int level, final TaggedLogger logger, final String fmt, final Object... args) {
+        if (!accepted(level, logger))
+            return;
+
+        final LogCollapser current = collapser;
+
+        // repeats are spotted without formatting, unless an argument may have changed since it was last seen
+        if (null != current && LogCollapser.immutable(args)) {
+            if (!current.collapseFormatted(level, logger, fmt, args))
+                logAs(level, logger, expand(fmt, args));
+
             return;
+        }
+
+        final String msg = expand(fmt, args);
+
+        if (null == current || !current.collapse(level, logger, msg, null))
+            logAs(level, logger, msg);
+    }
+
+    static void log(final int level, final TaggedLogger logger, final String str) {
+        if (!accepted(level, logger) || collapsed(level, logger, str, null))
+            return;
+
+        logAs(level, logger, str);
+    }
+
+    static void debug(final TaggedLogger logger, final String str) {
+        log(DEBUG, logger, str);
+    }
+
+    static void verbose(final TaggedLogger logger, final String str) {
+        log(VERBOSE, logger, str);
+    }
 
-        throwable.printStackTrace();
+    static void info(final TaggedLogger logger, final String str) {
+        log(INFO, logger, str);
     }
 
-    static void debug(final String tag, final String str) {
-        logAs(DEBUG, tag, str);
+    static void error(final TaggedLogger logger, final String str) {
+        log(ERROR, logger, str);
     }
 
-    static void verbose(final String tag, final String str) {
-        logAs(VERBOSE, tag, str);
+    static void warn(final TaggedLogger logger, final String str) {
+        log(WARN, logger, str);
     }
 
-    static void info(final String tag, final String str) {
-        logAs(INFO, tag, str);
+    private static boolean loggable(final int level, final TaggedLogger logger) {
+        return level >= logger.level;
     }
 
-    static void error(final String tag, final String str) {
-        logAs(ERROR, tag, str);
+    // level check plus sampling: call once per record
+    static boolean accepted(final int level, final TaggedLogger logger) {
+        return level >= logger.level && logger.sampled();
     }
 
-    static void warn(final String tag, final String str) {
-        logAs(WARN, tag, str);
+    private static boolean collapsed(final int level,
+                                     final TaggedLogger logger,
+                                     final String msg,
+                                     final Throwable throwable) {
+        final LogCollapser current = collapser;
+        return null != current && current.collapse(level, logger, msg, throwable);
     }
 
-    private static void logAs(final int level, final String tag, final String msg) {
-        if (level < rootLevel)
+    static void logEvent(final LogEvent event) {
+        final int level = event.level();
+        final TaggedLogger logger = event.logger();
+
+        final LogCollapser current = collapser;
+
+        // the level and sampling checks were made when the event was obtained
+        if (null != current && current.collapseEvent(event))
             return;
 
-        final String loggableMessage = null == msg ? "<null>" : msg;
+        final LogSink[] targets = sinks;
+        boolean textNeeded = logcatEnabled;
 
-        switch (level) {
-            case DEBUG:
-                android.util.Log.d(tag, loggableMessage);
-                break;
-            case WARN:
-                android.util.Log.w(tag, loggableMessage);
-                break;
-            case ERROR:
-                android.util.Log.e(tag, loggableMessage);
-                break;
-            case VERBOSE:
-                android.util.Log.v(tag, loggableMessage);
-                break;
-            case INFO:
-                // log unknowns as info
-            default:
-                android.util.Log.i(tag, loggableMessage);
-                break;
+        for (final LogSink sink : targets) {
+            if (!(sink instanceof StructuredLogSink)) {
+                textNeeded = true;
+                continue;
+            }
+
+            try {
+                ((StructuredLogSink) sink).write(level, event.tag(), event);
+            } catch (RuntimeException e) {
+                sinkFailed(sink, e);
+            }
         }
+
+        // the text outputs
+        if (!textNeeded)
+            return;
+
+        final String text = render(event);
+        final AsyncLogQueue queue = asyncQueue;
+
+        if (null == queue || !queue.offer(AsyncLogQueue.FLAG_STRUCTURED_DONE, level, logger, text))
+            write(level, logger, text, true);
+    }
+
+    private static String render(final LogEvent event) {
+        final ScratchBuffer scratch = ScratchBuffer.acquire();
+        event.render(scratch.builder().append(LogContext.current().prefix()));
+        return scratch.release();
+    }
+
+    private static String withContext(final String msg) {
+        final LogContext.Snapshot context = LogContext.current();
+
+        if (context.isEmpty())
+            return msg;
+
+        final ScratchBuffer scratch = ScratchBuffer.acquire();
+        scratch.builder().append(context.prefix()).append(msg);
+        return scratch.release();
+    }
+
+    static void logAs(final int level, final TaggedLogger logger, final String msg) {
+        if (!loggable(level, logger))
+            return;
+
+        final String loggableMessage = withContext(null == msg ? "<null>" : msg);
+        final AsyncLogQueue queue = asyncQueue;
+
+        if (null == queue || !queue.offer(0, level, logger, loggableMessage))
+            write(level, logger, loggableMessage, false);
+    }
+
+    /**
+     * Write a record to the sinks and logcat
+     *
+     * @param level           record level
+     * @param logger          record tag
+     * @param loggableMessage message, with the context prefix
+     * @param structuredDone  <code>true</code> to skip {@link StructuredLogSink}s, which have already seen the record
+     */
+    static void write(final int level,
+                      final TaggedLogger logger,
+                      final String loggableMessage,
+                      final boolean structuredDone) {
+        final String tag = logger.tag();
+        final int tagId = logger.id();
+        final LogSink[] targets = sinks;
+
+        for (final LogSink sink : targets) {
+            if (structuredDone && sink instanceof StructuredLogSink)
+                continue;
+
+            try {
+                // unregistered tags have no id
+                if (tagId >= 0 && sink instanceof TagIdLogSink)
+                    ((TagIdLogSink) sink).write(level, tagId, loggableMessage);
+                else
+                    sink.write(level, tag, loggableMessage);
+            } catch (RuntimeException e) {
+                sinkFailed(sink, e);
+            }
+        }
+
+        if (logcatEnabled)
+            logcat(level, tag, loggableMessage);
+    }
+
+    /**
+     * The time at which the record that's being written was logged. Sinks that record timestamps should use this rather
+     * than the current time, since records may be written out some time after they were logged.
+     *
+     * @return record time, in milliseconds since the epoch
+     */
+    static long recordTime() {
+        return AsyncLogQueue.recordTime();
+    }
+
+    private static void sinkFailed(final LogSink sink, final RuntimeException e) {
+        // straight to logcat: going through the sinks again could fail again
+        Log.println(ERROR, TAG, "Log sink " + sink + " failed\n" + Log.getStackTraceString(e));
+    }
+
+    private static void logcat(final int level, final String tag, final String loggableMessage) {
+        final int[] chunks = MessageChunker.split(tag, loggableMessage);
+
+        if (null == chunks) {
+            println(level, tag, loggableMessage);
+            return;
+        }
+
+        final ScratchBuffer scratch = ScratchBuffer.acquire();
+        final StringBuilder sb = scratch.builder();
+        int start = 0;
+
+        try {
+            for (int i = 0; i < chunks.length; i++) {
+                sb.setLength(0);
+                MessageChunker.marker(sb, i + 1, chunks.length).append(loggableMessage, start, chunks[i]);
+                println(level, tag, sb.toString());
+                start = chunks[i];
+            }
+        } finally {
+            scratch.recycle();
+        }
+    }
+
+    private static void println(final int level, final String tag, final String msg) {
+        Log.println(priority(level), tag, msg);
+    }
+
+    /**
+     * Map a log level to the priority written to the log
+     *
+     * @param level log level
+     * @return the level itself, or {@link Log#INFO} for unknown levels.
+     */
+    static int priority(final int level) {
+        return level >= 0 && level < PRIORITIES.length ? PRIORITIES[level] : INFO;
     }
 }
@@ -0,0 +1,324 @@
+/*
+ * ****************************************************************************
+ *   Copyright  2017 airG Inc.                                                 *
+ *                                                                             *
+ *   Licensed under the Apache License, Version 2.0 (the "License");           *
+ *   you may not use this file except in compliance with the License.          *
+ *   You may obtain a copy of the License at                                   *
+ *                                                                             *
+ *       http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                             *
+ *   Unless required by applicable law or agreed to in writing, software       *
+ *   distributed under the License is distributed on an "AS IS" BASIS,         *
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  *
+ *   See the License for the specific language governing permissions and       *
+ *   limitations under the License.                                            *
+ * ***************************************************************************
+ */
+
+package com.airg.android.logging;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * A {@link LogSink} that writes records to a fixed size, memory mapped file used as a circular buffer. Once the buffer
+ * is full, the oldest records are overwritten.
+ * <p>
+ * Writes go straight to the mapped pages, which the kernel writes back to the file even if the process is killed
+ * (ANR, native crash, low memory killer), so the records logged right before the process died can be recovered on the
+ * next start via {@link #recover(File, RecordListener)}.
+ * <p>
+ * File layout: a header holding the buffer capacity and the absolute (ever increasing) offsets of the oldest record
+ * (tail) and of the end of the newest record (head), followed by the data region. Each record is
+ * <code>[length:int][crc32:int][timestamp:long][level:byte][tag length:short][tag][message]</code>, strings UTF-8
+ * encoded. A record's data is written before the head is advanced past it, and the tail is advanced before old records
+ * are overwritten, so the header never points at a half written record.
+ */
+@SuppressWarnings({"UnusedDeclaration", "WeakerAccess"})
+public final class MappedLogSink implements LogSink, Closeable {
+    private static final int MAGIC = 0x4c4f4742; // LOGB
+    private static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = 32;
+    private static final int OFFSET_MAGIC = 0;
+    private static final int OFFSET_VERSION = 4;
+    private static final int OFFSET_CAPACITY = 8;
+    private static final int OFFSET_HEAD = 16;
+    private static final int OFFSET_TAIL = 24;
+
+    // length, crc, timestamp, level, tag length
+    private static final int RECORD_HEADER_SIZE = 4 + 4 + 8 + 1 + 2;
+    private static final int CRC_START = 8;
+
+    private static final int MIN_CAPACITY = 4 * 1024;
+
+    private final RandomAccessFile file;
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+    private final int maxRecordSize;
+
+    private final byte[] recordHeader = new byte[RECORD_HEADER_SIZE];
+    private final ByteBuffer recordHeaderBuffer = ByteBuffer.wrap(recordHeader);
+    private final CRC32 crc = new CRC32();
+
+    private long head;
+    private long tail;
+    private boolean closed = false;
+
+    /**
+     * Open (or create) a mapped log buffer. Records that survive in an existing file are kept and can still be read
+     * via {@link #recover(File, RecordListener)}. An existing file with a different capacity (or a damaged header) is
+     * reset.
+     *
+     * @param path     buffer file
+     * @param capacity size of the data region in bytes
+     * @throws IOException if the file cannot be opened or mapped
+     */
+    public MappedLogSink(final File path, final int capacity) throws IOException {
+        if (capacity < MIN_CAPACITY)
+            throw new IllegalArgumentException("Capacity must be at least " + MIN_CAPACITY + " bytes: " + capacity);
+
+        this.capacity = capacity;
+        maxRecordSize = capacity / 2;
+        file = new RandomAccessFile(path, "rw");
+
+        try {
+            file.setLength(HEADER_SIZE + capacity);
+            buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + capacity);
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+
+        if (validHeader(buffer, capacity)) {
+            head = buffer.getLong(OFFSET_HEAD);
+            tail = buffer.getLong(OFFSET_TAIL);
+        } else {
+            buffer.putInt(OFFSET_MAGIC, MAGIC);
+            buffer.putInt(OFFSET_VERSION, VERSION);
+            buffer.putInt(OFFSET_CAPACITY, capacity);
+            reset();
+        }
+    }
+
+    @Override
+    public synchronized void write(final int level, final String tag, final String message) {
+        if (closed)
+            return;
+
+        final byte[] tagBytes = null == tag ? new byte[0] : tag.getBytes(LogLineBytes.UTF8);
+        final int tagLength = Math.min(tagBytes.length, Math.min(Short.MAX_VALUE, maxRecordSize - RECORD_HEADER_SIZE));
+        final byte[] messageBytes = null == message ? new byte[0] : message.getBytes(LogLineBytes.UTF8);
+        final int messageLength = Math.max(0, Math.min(messageBytes.length, maxRecordSize - RECORD_HEADER_SIZE - tagLength));
+        final int length = RECORD_HEADER_SIZE + tagLength + messageLength;
+
+        // make room first: the header must never point at a record that's being overwritten
+        while (head + length - tail > capacity) {
+            final int skip = readInt(tail);
+
+            // a damaged record: drop everything
+            if (skip < RECORD_HEADER_SIZE || skip > head - tail)
+                tail = head;
+            else
+                tail += skip;
+
+            buffer.putLong(OFFSET_TAIL, tail);
+        }
+
+        recordHeaderBuffer.clear();
+        recordHeaderBuffer.putInt(length);
+        recordHeaderBuffer.putInt(0); // crc, below
+        recordHeaderBuffer.putLong(Logger.recordTime());
+        recordHeaderBuffer.put((byte) level);
+        recordHeaderBuffer.putShort((short) tagLength);
+
+        crc.reset();
+        crc.update(recordHeader, CRC_START, RECORD_HEADER_SIZE - CRC_START);
+        crc.update(tagBytes, 0, tagLength);
+        crc.update(messageBytes, 0, messageLength);
+        recordHeaderBuffer.putInt(4, (int) crc.getValue());
+
+        long position = head;
+        position = put(position, recordHeader, RECORD_HEADER_SIZE);
+        position = put(position, tagBytes, tagLength);
+        position = put(position, messageBytes, messageLength);
+
+        head = position;
+        buffer.putLong(OFFSET_HEAD, head);
+    }
+
+    /**
+     * Force the buffer out to storage. Not needed to survive process death, only to survive the device losing power.
+     */
+    public synchronized void sync() {
+        if (!closed)
+            buffer.force();
+    }
+
+    /**
+     * Discard all records
+     */
+    public synchronized void clear() {
+        if (!closed)
+            reset();
+    }
+
+    /**
+     * Stop writing to the buffer and close the file. The contents remain available to
+     * {@link #recover(File, RecordListener)}.
+     *
+     * @throws IOException if closing the file fails
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed)
+            return;
+
+        closed = true;
+        file.close();
+    }
+
+    /**
+     * Read the records that survive in a buffer file, oldest first. Call this on start, before a new
+     * <code>MappedLogSink</code> starts writing to the file. Reading stops at the first damaged record.
+     *
+     * @param path     buffer file
+     * @param listener receives the records
+     * @return number of records read
+     * @throws IOException if the file cannot be read
+     */
+    public static int recover(final File path, final RecordListener listener) throws IOException {
+        if (!path.exists() || path.length() < HEADER_SIZE + MIN_CAPACITY)
+            return 0;
+
+        final RandomAccessFile file = new RandomAccessFile(path, "r");
+
+        try {
+            final ByteBuffer buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+            final int capacity = buffer.getInt(OFFSET_CAPACITY);
+
+            if (capacity < MIN_CAPACITY || file.length() < HEADER_SIZE + capacity || !validHeader(buffer, capacity))
+                return 0;
+
+            final long head = buffer.getLong(OFFSET_HEAD);
+            final CRC32 crc = new CRC32();
+            final byte[] lengthBytes = new byte[4];
+            long position = buffer.getLong(OFFSET_TAIL);
+            int count = 0;
+
+            while (position + RECORD_HEADER_SIZE <= head) {
+                get(buffer, capacity, position, lengthBytes, 4);
+                final int length = ByteBuffer.wrap(lengthBytes).getInt();
+
+                if (length < RECORD_HEADER_SIZE || position + length > head)
+                    break;
+
+                final byte[] record = new byte[length];
+                get(buffer, capacity, position, record, length);
+                final ByteBuffer fields = ByteBuffer.wrap(record);
+
+                crc.reset();
+                crc.update(record, CRC_START, length - CRC_START);
+
+                if (fields.getInt(4) != (int) crc.getValue())
+                    break;
+
+                final long timestamp = fields.getLong(CRC_START);
+                final int level = record[CRC_START + 8];
+                final int tagLength = fields.getShort(CRC_START + 9);
+
+                if (tagLength < 0 || RECORD_HEADER_SIZE + tagLength > length)
+                    break;
+
+                final String tag = new String(record, RECORD_HEADER_SIZE, tagLength, LogLineBytes.UTF8);
+                final String message = new String(record, RECORD_HEADER_SIZE + tagLength,
+                        length - RECORD_HEADER_SIZE - tagLength, LogLineBytes.UTF8);
+
+                listener.onRecord(timestamp, level, tag, message);
+                position += length;
+                count++;
+            }
+
+            return count;
+        } finally {
+            file.close();
+        }
+    }
+
+    /**
+     * receives records read back from a log file (see also {@link LogSpool#read(long, int, RecordListener)})
+     */
+    public interface RecordListener {
+        /**
+         * A record was read
+         *
+         * @param timestamp time the record was logged (see {@link System#currentTimeMillis()})
+         * @param level     log level
+         * @param tag       log tag
+         * @param message   log message
+         */
+        void onRecord(final long timestamp, final int level, final String tag, final String message);
+    }
+
+    private void reset() {
+        head = 0;
+        tail = 0;
+        buffer.putLong(OFFSET_TAIL, tail);
+        buffer.putLong(OFFSET_HEAD, head);
+    }
+
+    private long put(final long position, final byte[] src, final int length) {
+        final int offset = (int) (position % capacity);
+        final int first = Math.min(length, capacity - offset);
+
+        buffer.position(HEADER_SIZE + offset);
+        buffer.put(src, 0, first);
+
+        if (first < length) {
+            buffer.position(HEADER_SIZE);
+            buffer.put(src, first, length - first);
+        }
+
+        return position + length;
+    }
+
+    private int readInt(final long position) {
+        get(buffer, capacity, position, recordHeader, 4);
+        return recordHeaderBuffer.getInt(0);
+    }
+
+    private static void get(final ByteBuffer buffer,
+                            final int capacity,
+                            final long position,
+                            final byte[] dst,
+                            final int length) {
+        final int offset = (int) (position % capacity);
+        final int first = Math.min(length, capacity - offset);
+
+        buffer.position(HEADER_SIZE + offset);
+        buffer.get(dst, 0, first);
+
+        if (first < length) {
+            buffer.position(HEADER_SIZE);
+            buffer.get(dst, first, length - first);
+        }
+    }
+
+    private static boolean validHeader(final ByteBuffer buffer, final int capacity) {
+        if (buffer.getInt(OFFSET_MAGIC) != MAGIC
+                || buffer.getInt(OFFSET_VERSION) != VERSION
+                || buffer.getInt(OFFSET_CAPACITY) != capacity)
+            return false;
+
+        final long head = buffer.getLong(OFFSET_HEAD);
+        final long tail = buffer.getLong(OFFSET_TAIL);
+        return tail >= 0 && head >= tail && head - tail <= capacity;
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * ****************************************************************************
+ *   Copyright  2017 airG Inc.                                                 *
+ *                                                                             *
+ *   Licensed under the Apache License, Version 2.0 (the "License");           *
+ *   you may not use this file except in compliance with the License.          *
+ *   You may obtain a copy of the License at                                   *
+ *                                                                             *
+ *       http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                             *
+ *   Unless required by applicable law or agreed to in writing, software       *
+ *   distributed under the License is distributed on an "AS IS" BASIS,         *
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  *
+ *   See the License for the specific language governing permissions and       *
+ *   limitations under the License.                                            *
+ * ***************************************************************************
+ */
+
+package com.airg.android.logging;
+
+import java.util.Arrays;
+import java.util.regex.Pattern;
+
+/**
+ * Splits messages that don't fit in a single logcat entry into numbered chunks.
+ * <p>
+ * liblog truncates entries at <code>LOGGER_ENTRY_MAX_PAYLOAD</code> bytes (priority, tag, message, and their
+ * terminators, all UTF-8 encoded). Oversized messages are split on UTF-8 safe boundaries (never between the two
+ * halves of a surrogate pair), preferring newlines, and every chunk is prefixed with a <code>[i/n] </code> marker. When
+ * a chunk ends at a newline, the newline is carried over to the start of the next chunk so that
+ * {@link ChunkReassembler} can tell a line break from a mid-line split.
+ */
+final class MessageChunker {
+    // liblog's LOGGER_ENTRY_MAX_PAYLOAD
+    static final int MAX_PAYLOAD = 4068;
+
+    // priority byte plus the tag and message terminators
+    private static final int ENTRY_OVERHEAD = 3;
+
+    // room for the "[i/n] " marker
+    private static final int MARKER_RESERVE = 16;
+
+    // don't split on a newline that would leave the chunk less than a quarter full
+    private static final int MIN_NEWLINE_FILL = 4;
+
+    static final Pattern MARKER = Pattern.compile("^(.*?): \\[(\\d+)/(\\d+)\\] ?(.*)$");
+
+    private MessageChunker() {
+        // no instances
+    }
+
+    /**
+     * Find the chunk boundaries for a message.
+     *
+     * @param tag log tag
+     * @param msg message to log
+     * @return the (exclusive) end index of each chunk, or <code>null</code> if the message fits in one entry.
+     */
+    static int[] split(final String tag, final String msg) {
+        final int tagLength = null == tag ? 0 : utf8Length(tag, 0, tag.length());
+        return split(msg, MAX_PAYLOAD - ENTRY_OVERHEAD - tagLength - MARKER_RESERVE);
+    }
+
+    static int[] split(final String msg, final int limit) {
+        final int length = msg.length();
+
+        // every char takes at most 3 bytes (surrogate pairs take 4 for 2 chars)
+        if (length * 3 <= limit || utf8Length(msg, 0, length) <= limit + MARKER_RESERVE)
+            return null;
+
+        int[] ends = new int[length / (limit / 3 + 1) + 2];
+        int count = 0;
+        int start = 0;
+
+        while (start < length) {
+            final int end = chunkEnd(msg, start, limit);
+
+            if (count == ends.length)
+                ends = Arrays.copyOf(ends, count * 2);
+
+            ends[count++] = end;
+            start = end;
+        }
+
+        return Arrays.copyOf(ends, count);
+    }
+
+    /**
+     * Append the <code>[i/n] </code> marker for a chunk
+     *
+     * @param sb    target
+     * @param index 1-based chunk index
+     * @param total number of chunks
+     * @return <code>sb</code>
+     */
+    static StringBuilder marker(final StringBuilder sb, final int index, final int total) {
+        return sb.append('[').append(index).append('/').append(total).append("] ");
+    }
+
+    private static int chunkEnd(final String msg, final int start, final int limit) {
+        final int length = msg.length();
+        int bytes = 0;
+        int lastNewline = -1;
+        int i = start;
+
+        while (i < length) {
+            final char c = msg.charAt(i);
+            final int size = utf8Length(c);
+
+            if (bytes + size > limit)
+                break;
+
+            // the newline at the very start of a chunk belongs to this chunk
+            if (c == '\n' && i > start)
+                lastNewline = i;
+
+            bytes += size;
+            i++;
+        }
+
+        if (i == length)
+            return length;
+
+        if (lastNewline > start && (lastNewline - start) * MIN_NEWLINE_FILL >= i - start)
+            return lastNewline;
+
+        // don't separate a surrogate pair
+        if (i - 1 > start && Character.isHighSurrogate(msg.charAt(i - 1)))
+            i--;
+
+        return Math.max(i, start + 1);
+    }
+
+    /**
+     * Length of the longest prefix of <code>s</code> that takes at most <code>maxBytes</code> bytes in UTF-8, without
+     * separating a surrogate pair
+     */
+    static int utf8Prefix(final CharSequence s, final int maxBytes) {
+        final int length = s.length();
+        int bytes = 0;
+        int i = 0;
+
+        while (i < length) {
+            bytes += utf8Length(s.charAt(i));
+
+            if (bytes > maxBytes)
+                break;
+
+            i++;
+        }
+
+        if (i < length && i > 0 && Character.isHighSurrogate(s.charAt(i - 1)))
+            i--;
+
+        return i;
+    }
+
+    static int utf8Length(final CharSequence s, final int start, final int end) {
+        int bytes = 0;
+
+        for (int i = start; i < end; i++)
+            bytes += utf8Length(s.charAt(i));
+
+        return bytes;
+    }
+
+    private static int utf8Length(final char c) {
+        if (c < 0x80)
+            return 1;
+
+        if (c < 0x800)
+            return 2;
+
+        // each half of a surrogate pair counts for 2 of the pair's 4 bytes
+        if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE)
+            return 2;
+
+        return 3;
+    }
+}
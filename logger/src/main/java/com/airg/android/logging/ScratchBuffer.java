@@ -0,0 +1,112 @@
+/*
+ * ****************************************************************************
+ *   Copyright  2017 airG Inc.                                                 *
+ *                                                                             *
+ *   Licensed under the Apache License, Version 2.0 (the "License");           *
+ *   you may not use this file except in compliance with the License.          *
+ *   You may obtain a copy of the License at                                   *
+ *                                                                             *
+ *       http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                             *
+ *   Unless required by applicable law or agreed to in writing, software       *
+ *   distributed under the License is distributed on an "AS IS" BASIS,         *
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  *
+ *   See the License for the specific language governing permissions and       *
+ *   limitations under the License.                                            *
+ * ***************************************************************************
+ */
+
+package com.airg.android.logging;
+
+import java.util.Formatter;
+import java.util.Locale;
+
+/**
+ * A per-thread {@link StringBuilder} (and {@link Formatter} writing into it) used to assemble log messages, so that
+ * the only allocation per message is the final {@link String}.
+ * <p>
+ * Usage: <code>acquire()</code>, append, <code>release()</code> (which returns the assembled string). If the
+ * thread's buffer is already in use (e.g. an argument's <code>toString()</code> logs something while a message is being
+ * formatted), a throwaway buffer is handed out instead. Buffers that grew past {@link #MAX_RETAINED_CAPACITY} are
+ * dropped on release so one huge message doesn't pin its memory for the life of the thread.
+ */
+final class ScratchBuffer {
+    static final int INITIAL_CAPACITY = 256;
+    static final int MAX_RETAINED_CAPACITY = 16 * 1024;
+
+    private static final ThreadLocal<ScratchBuffer> BUFFERS = new ThreadLocal<ScratchBuffer>() {
+        @Override
+        protected ScratchBuffer initialValue() {
+            return new ScratchBuffer(true);
+        }
+    };
+
+    private final boolean pooled;
+    private StringBuilder builder = new StringBuilder(INITIAL_CAPACITY);
+    private Formatter formatter = null;
+    private boolean inUse = false;
+
+    private ScratchBuffer(final boolean isPooled) {
+        pooled = isPooled;
+    }
+
+    /**
+     * Get this thread's (empty) scratch buffer
+     *
+     * @return a scratch buffer. Must be released via {@link #release()}.
+     */
+    static ScratchBuffer acquire() {
+        final ScratchBuffer buffer = BUFFERS.get();
+
+        if (buffer.inUse)
+            return new ScratchBuffer(false);
+
+        buffer.inUse = true;
+        return buffer;
+    }
+
+    StringBuilder builder() {
+        return builder;
+    }
+
+    /**
+     * A formatter that writes into {@link #builder()}
+     *
+     * @param locale formatting locale
+     * @return formatter
+     */
+    Formatter formatter(final Locale locale) {
+        if (null == formatter || (null == locale ? null != formatter.locale() : !locale.equals(formatter.locale())))
+            formatter = new Formatter(builder, locale);
+
+        return formatter;
+    }
+
+    /**
+     * Return the buffer to the pool
+     *
+     * @return the assembled string
+     */
+    String release() {
+        final String str = builder.toString();
+        recycle();
+        return str;
+    }
+
+    /**
+     * Return the buffer to the pool, discarding its contents
+     */
+    void recycle() {
+        if (!pooled)
+            return;
+
+        if (builder.capacity() > MAX_RETAINED_CAPACITY) {
+            builder = new StringBuilder(INITIAL_CAPACITY);
+            formatter = null;
+        } else {
+            builder.setLength(0);
+        }
+
+        inUse = false;
+    }
+}
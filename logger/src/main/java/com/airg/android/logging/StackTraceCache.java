@@ -0,0 +1,152 @@
+/*
+ * ****************************************************************************
+ *   Copyright  2017 airG Inc.                                                 *
+ *                                                                             *
+ *   Licensed under the Apache License, Version 2.0 (the "License");           *
+ *   you may not use this file except in compliance with the License.          *
+ *   You may obtain a copy of the License at                                   *
+ *                                                                             *
+ *       http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                             *
+ *   Unless required by applicable law or agreed to in writing, software       *
+ *   distributed under the License is distributed on an "AS IS" BASIS,         *
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  *
+ *   See the License for the specific language governing permissions and       *
+ *   limitations under the License.                                            *
+ * ***************************************************************************
+ */
+
+package com.airg.android.logging;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A bounded, least-recently-used cache of rendered stack traces.
+ * <p>
+ * Traces are keyed by the {@link Signature} of the throwable's cause chain (class names, messages, and stack frames),
+ * so the same exception thrown repeatedly from the same site is only rendered once. Suppressed exceptions are not part
+ * of the signature.
+ */
+final class StackTraceCache {
+    // don't walk pathological cause chains forever
+    private static final int MAX_CAUSE_DEPTH = 32;
+
+    private final Map<Signature, String> traces;
+
+    StackTraceCache(final int maxEntries) {
+        traces = new LinkedHashMap<Signature, String>(maxEntries, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<Signature, String> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Render the stack trace of a {@link Throwable}, reusing a previously rendered trace if the signatures match.
+     *
+     * @param t throwable
+     * @return the rendered stack trace, as returned by {@link Log#getStackTraceString(Throwable)}
+     */
+    String render(final Throwable t) {
+        if (null == t)
+            return "";
+
+        final Signature key = new Signature(t);
+
+        synchronized (traces) {
+            final String cached = traces.get(key);
+
+            if (null != cached)
+                return cached;
+        }
+
+        final String trace = Log.getStackTraceString(t);
+
+        synchronized (traces) {
+            traces.put(key, trace);
+        }
+
+        return trace;
+    }
+
+    void clear() {
+        synchronized (traces) {
+            traces.clear();
+        }
+    }
+
+    /**
+     * @param t throwable
+     * @return the throwable's signature, or <code>null</code> if <code>t</code> is <code>null</code>
+     */
+    static Signature signature(final Throwable t) {
+        return null == t ? null : new Signature(t);
+    }
+
+    /**
+     * What makes two throwables the same failure: the class names, messages, and stack frames of their cause chains.
+     * Equal signatures render to the same stack trace.
+     */
+    static final class Signature {
+        private final String[] types;
+        private final String[] messages;
+        private final StackTraceElement[][] frames;
+        private final int hash;
+
+        private Signature(final Throwable throwable) {
+            final List<Throwable> chain = new ArrayList<>();
+            Throwable t = throwable;
+
+            for (int depth = 0; null != t && depth < MAX_CAUSE_DEPTH; depth++) {
+                chain.add(t);
+                final Throwable cause = t.getCause();
+                t = cause == t ? null : cause;
+            }
+
+            types = new String[chain.size()];
+            messages = new String[chain.size()];
+            frames = new StackTraceElement[chain.size()][];
+            int h = 0;
+
+            for (int i = 0; i < types.length; i++) {
+                final Throwable link = chain.get(i);
+                types[i] = link.getClass().getName();
+                messages[i] = link.getMessage();
+                frames[i] = link.getStackTrace();
+
+                h = 31 * h + types[i].hashCode();
+                h = 31 * h + (null == messages[i] ? 0 : messages[i].hashCode());
+                h = 31 * h + Arrays.hashCode(frames[i]);
+            }
+
+            hash = h;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o)
+                return true;
+
+            if (!(o instanceof Signature))
+                return false;
+
+            final Signature other = (Signature) o;
+            return hash == other.hash
+                    && Arrays.equals(types, other.types)
+                    && Arrays.equals(messages, other.messages)
+                    && Arrays.deepEquals(frames, other.frames);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
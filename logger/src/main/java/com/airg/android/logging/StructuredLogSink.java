@@ -0,0 +1,37 @@
+/*
+ * ****************************************************************************
+ *   Copyright  2017 airG Inc.                                                 *
+ *                                                                             *
+ *   Licensed under the Apache License, Version 2.0 (the "License");           *
+ *   you may not use this file except in compliance with the License.          *
+ *   You may obtain a copy of the License at                                   *
+ *                                                                             *
+ *       http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                             *
+ *   Unless required by applicable law or agreed to in writing, software       *
+ *   distributed under the License is distributed on an "AS IS" BASIS,         *
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  *
+ *   See the License for the specific language governing permissions and       *
+ *   limitations under the License.                                            *
+ * ***************************************************************************
+ */
+
+package com.airg.android.logging;
+
+/**
+ * A {@link LogSink} that can write structured events (see {@link TaggedLogger#event(int, String)}) without having
+ * them rendered to text first. Plain text records are still delivered via {@link #write(int, String, String)}.
+ * <p>
+ * Events are not prefixed with the {@link LogContext}. The logging thread's context is available via
+ * {@link LogContext#current()} while {@link #write(int, String, LogEvent)} runs.
+ */
+public interface StructuredLogSink extends LogSink {
+    /**
+     * A structured event was logged
+     *
+     * @param level log level (see {@link android.util.Log})
+     * @param tag   log tag
+     * @param event the event. Events are recycled once this method returns, so don't hold on to it.
+     */
+    void write(final int level, final String tag, final LogEvent event);
+}
@@ -0,0 +1,36 @@
+/*
+ * ****************************************************************************
+ *   Copyright  2017 airG Inc.                                                 *
+ *                                                                             *
+ *   Licensed under the Apache License, Version 2.0 (the "License");           *
+ *   you may not use this file except in compliance with the License.          *
+ *   You may obtain a copy of the License at                                   *
+ *                                                                             *
+ *       http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                             *
+ *   Unless required by applicable law or agreed to in writing, software       *
+ *   distributed under the License is distributed on an "AS IS" BASIS,         *
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  *
+ *   See the License for the specific language governing permissions and       *
+ *   limitations under the License.                                            *
+ * ***************************************************************************
+ */
+
+package com.airg.android.logging;
+
+/**
+ * A {@link LogSink} that receives plain text records with the tag's id (see {@link TagRegistry}) rather than the tag
+ * itself, so per-tag state can be kept in arrays indexed by id. {@link #write(int, String, String)} is not called
+ * for records delivered via {@link #write(int, int, String)}. It only receives records whose tags aren't registered
+ * (and so have no id, see {@link TagRegistry}).
+ */
+public interface TagIdLogSink extends LogSink {
+    /**
+     * A record was logged
+     *
+     * @param level   log level (see {@link android.util.Log})
+     * @param tagId   log tag id. Use {@link TagRegistry#tag(int)} to look up the tag.
+     * @param message fully formatted message, including the {@link LogContext} prefix
+     */
+    void write(final int level, final int tagId, final String message);
+}
@@ -0,0 +1,303 @@
+/*
+ * ****************************************************************************
+ *   Copyright  2017 airG Inc.                                                 *
+ *                                                                             *
+ *   Licensed under the Apache License, Version 2.0 (the "License");           *
+ *   you may not use this file except in compliance with the License.          *
+ *   You may obtain a copy of the License at                                   *
+ *                                                                             *
+ *       http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                             *
+ *   Unless required by applicable law or agreed to in writing, software       *
+ *   distributed under the License is distributed on an "AS IS" BASIS,         *
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  *
+ *   See the License for the specific language governing permissions and       *
+ *   limitations under the License.                                            *
+ * ***************************************************************************
+ */
+
+package com.airg.android.logging;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Interns log tags to small integer ids, assigned in order of first use starting at <code>0</code>.
+ * <p>
+ * Each tag has a single {@link TaggedLogger} (returned by {@link Logger#tag(String)}) that carries the tag's id, and
+ * records are passed through the logger by id. Sinks that keep per-tag state (see {@link TagIdLogSink}) can index
+ * arrays by id rather than hash tag strings on every record. Ids are never reused, so only register a bounded set of
+ * tags (typically one per class).
+ * <p>
+ * Only tags obtained through {@link Logger#tag(String)} (or passed to {@link #id(String)}) are registered. Tags passed
+ * to the static <code>Logger</code> methods (e.g. {@link Logger#i(String, String)}) use the registered logger if there
+ * is one, and are otherwise resolved without registering them, so tags built on the fly don't accumulate. Records
+ * with such tags have no id.
+ * <p>
+ * Tags form a hierarchy on their dots: <code>NET</code> is the parent of <code>NET.HTTP</code>. A tag without a
+ * level of its own (see {@link Logger#setTagLevel(String, int)}) inherits its closest configured ancestor's level, or
+ * the root level. Sampling (see {@link Logger#setTagSampleRate(String, double)}) is inherited the same way. Effective
+ * levels and sampling are computed into each {@link TaggedLogger} whenever the configuration changes, so checking a
+ * record's level doesn't depend on the depth of the tag.
+ */
+@SuppressWarnings({"UnusedDeclaration", "WeakerAccess"})
+public final class TagRegistry {
+    private static final Object lock = new Object();
+    private static final ConcurrentHashMap<String, TaggedLogger> loggers = new ConcurrentHashMap<>();
+
+    // unregistered tags seen recently, with their effective level and sampling. Cleared when full or reconfigured.
+    private static final int MAX_UNREGISTERED = 256;
+    private static final ConcurrentHashMap<String, TaggedLogger> unregistered = new ConcurrentHashMap<>();
+
+    // ConcurrentHashMap doesn't take null keys
+    private static volatile TaggedLogger nullTagLogger = null;
+
+    // configured levels and sampling intervals (guarded by lock)
+    private static final Map<String, Integer> levels = new HashMap<>();
+    private static final Map<String, Integer> sampling = new HashMap<>();
+
+    // copy on grow. Entries below count are never changed.
+    private static volatile TaggedLogger[] byId = new TaggedLogger[64];
+    private static volatile int count = 0;
+
+    private TagRegistry() {
+        // no instances
+    }
+
+    /**
+     * Get the id of a tag, registering the tag if it's new
+     *
+     * @param tag log tag
+     * @return tag id
+     */
+    public static int id(final String tag) {
+        return logger(tag).id();
+    }
+
+    /**
+     * Get the tag with the given id
+     *
+     * @param id tag id
+     * @return the tag
+     */
+    public static String tag(final int id) {
+        final int n = count;
+
+        if (id < 0 || id >= n)
+            throw new IllegalArgumentException("Unknown tag id: " + id);
+
+        return byId[id].tag();
+    }
+
+    /**
+     * Number of registered tags. All ids are below this number.
+     *
+     * @return tag count
+     */
+    public static int size() {
+        return count;
+    }
+
+    /**
+     * The effective level of the tag with the given id
+     *
+     * @param id tag id
+     * @return minimum level of records that get logged
+     */
+    static int level(final int id) {
+        return byId[id].level;
+    }
+
+    static TaggedLogger logger(final int id) {
+        return byId[id];
+    }
+
+    static void setRootLevel(final int level) {
+        synchronized (lock) {
+            Logger.rootLevel = level;
+            updateLevels();
+        }
+    }
+
+    /**
+     * Set or clear the configured level of a tag
+     *
+     * @param tag   log tag
+     * @param level the level or <code>null</code> to inherit the parent's level
+     */
+    static void setLevel(final String tag, final Integer level) {
+        synchronized (lock) {
+            if (null == level)
+                levels.remove(tag);
+            else
+                levels.put(tag, level);
+
+            updateLevels();
+        }
+    }
+
+    /**
+     * Set or clear the sampling interval of a tag
+     *
+     * @param tag   log tag
+     * @param every log one in <code>every</code> records, or <code>null</code> to inherit the parent's sampling
+     */
+    static void setSampling(final String tag, final Integer every) {
+        synchronized (lock) {
+            if (null == every)
+                sampling.remove(tag);
+            else
+                sampling.put(tag, every);
+
+            updateLevels();
+        }
+    }
+
+    /**
+     * Replace the whole configuration at once
+     *
+     * @param rootLevel   root level or <code>null</code> to keep the current one
+     * @param tagLevels   tag levels
+     * @param tagSampling tag sampling intervals
+     */
+    static void configure(final Integer rootLevel,
+                          final Map<String, Integer> tagLevels,
+                          final Map<String, Integer> tagSampling) {
+        synchronized (lock) {
+            if (null != rootLevel)
+                Logger.rootLevel = rootLevel;
+
+            levels.clear();
+            levels.putAll(tagLevels);
+            sampling.clear();
+            sampling.putAll(tagSampling);
+            updateLevels();
+        }
+    }
+
+    /**
+     * Clear all configured tag levels
+     */
+    static void clearLevels() {
+        synchronized (lock) {
+            levels.clear();
+            updateLevels();
+        }
+    }
+
+    static int effectiveLevel(final String tag) {
+        synchronized (lock) {
+            return resolve(levels, tag, Logger.rootLevel);
+        }
+    }
+
+    static TaggedLogger logger(final String tag) {
+        final TaggedLogger known = null == tag ? nullTagLogger : loggers.get(tag);
+        return null == known ? register(tag) : known;
+    }
+
+    /**
+     * The logger of a registered tag, or an unregistered logger (with id <code>-1</code>) that has the tag's
+     * effective level and sampling
+     *
+     * @param tag log tag
+     * @return a logger for the tag
+     */
+    static TaggedLogger find(final String tag) {
+        if (null == tag)
+            return logger(null);
+
+        final TaggedLogger known = loggers.get(tag);
+
+        if (null != known)
+            return known;
+
+        final TaggedLogger seen = unregistered.get(tag);
+        return null == seen ? resolve(tag) : seen;
+    }
+
+    private static TaggedLogger resolve(final String tag) {
+        synchronized (lock) {
+            final TaggedLogger registered = loggers.get(tag);
+
+            if (null != registered)
+                return registered;
+
+            final TaggedLogger logger = new TaggedLogger(tag, -1);
+            logger.level = resolve(levels, tag, Logger.rootLevel);
+            logger.sampling = resolve(sampling, tag, 1);
+
+            if (unregistered.size() >= MAX_UNREGISTERED)
+                unregistered.clear();
+
+            unregistered.put(tag, logger);
+            return logger;
+        }
+    }
+
+    private static TaggedLogger register(final String tag) {
+        synchronized (lock) {
+            final TaggedLogger existing = null == tag ? nullTagLogger : loggers.get(tag);
+
+            if (null != existing)
+                return existing;
+
+            final int id = count;
+            final TaggedLogger logger = new TaggedLogger(tag, id);
+            logger.level = resolve(levels, tag, Logger.rootLevel);
+            logger.sampling = resolve(sampling, tag, 1);
+
+            if (id == byId.length)
+                byId = Arrays.copyOf(byId, id * 2);
+
+            byId[id] = logger;
+            count = id + 1;
+
+            if (null == tag) {
+                nullTagLogger = logger;
+            } else {
+                loggers.put(tag, logger);
+                unregistered.remove(tag);
+            }
+
+            return logger;
+        }
+    }
+
+    // guarded by lock
+    private static void updateLevels() {
+        final TaggedLogger[] loggers = byId;
+
+        // resolved again on next use
+        unregistered.clear();
+
+        for (int i = 0; i < count; i++) {
+            loggers[i].level = resolve(levels, loggers[i].tag(), Logger.rootLevel);
+            loggers[i].sampling = resolve(sampling, loggers[i].tag(), 1);
+        }
+    }
+
+    // guarded by lock. The value of the tag or its closest configured ancestor.
+    private static int resolve(final Map<String, Integer> values, final String tag, final int fallback) {
+        if (values.isEmpty() || null == tag)
+            return fallback;
+
+        String t = tag;
+
+        while (true) {
+            final Integer value = values.get(t);
+
+            if (null != value)
+                return value;
+
+            final int dot = t.lastIndexOf('.');
+
+            if (dot < 0)
+                return fallback;
+
+            t = t.substring(0, dot);
+        }
+    }
+}
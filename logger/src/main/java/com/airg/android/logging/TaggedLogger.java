@@ -18,10 +18,15 @@
 
 package com.airg.android.logging;
 
+import static android.util.Log.DEBUG;
+import static android.util.Log.ERROR;
+import static android.util.Log.INFO;
+import static android.util.Log.VERBOSE;
+import static android.util.Log.WARN;
+import static com.airg.android.logging.Logger.accepted;
 import static com.airg.android.logging.Logger.debug;
 import static com.airg.android.logging.Logger.error;
-import static com.airg.android.logging.Logger.expand;
-import static com.airg.android.logging.Logger.format;
+import static com.airg.android.logging.Logger.logFormatted;
 import static com.airg.android.logging.Logger.logThrowable;
 import static com.airg.android.logging.Logger.warn;
 
@@ -32,9 +37,18 @@ import static com.airg.android.logging.Logger.warn;
 @SuppressWarnings ( {"WeakerAccess", "unused"})
 public class TaggedLogger {
     private final String tag;
+    private final int id;
 
-    TaggedLogger (final String logtag) {
+    // effective level and sampling interval, maintained by TagRegistry
+    volatile int level;
+    volatile int sampling = 1;
+
+    // racy, but sampling doesn't need to be exact
+    private int sampleCounter = 0;
+
+    TaggedLogger (final String logtag, final int tagId) {
         tag = logtag;
+        id = tagId;
     }
 
     // ********** Exception Logging **********//
@@ -58,8 +72,7 @@ public class TaggedLogger {
      message to log
      */
     public void e (final Throwable throwable, final String msg) {
-        logThrowable (throwable);
-        error (tag, format (throwable, msg));
+        logThrowable (ERROR, this, throwable, msg);
     }
 
     /**
@@ -81,8 +94,7 @@ public class TaggedLogger {
      message to log
      */
     public void w (final Throwable throwable, final String msg) {
-        logThrowable (throwable);
-        warn (tag, format (throwable, msg));
+        logThrowable (WARN, this, throwable, msg);
     }
 
     /**
@@ -104,8 +116,7 @@ public class TaggedLogger {
      message to log
      */
     public void d (final Throwable throwable, final String msg) {
-        logThrowable (throwable);
-        debug (tag, format (throwable, msg));
+        logThrowable (DEBUG, this, throwable, msg);
     }
 
     // ********** Errors Logging **********//
@@ -119,7 +130,7 @@ public class TaggedLogger {
      message format arguments
      */
     public void e (final String fmt, final Object... args) {
-        error (tag, expand (fmt, args));
+        logFormatted (ERROR, this, fmt, args);
     }
 
     /**
@@ -129,7 +140,7 @@ public class TaggedLogger {
      message to log
      */
     public void e (final String str) {
-        error (tag, str);
+        error (this, str);
     }
 
     // ********** Warnings Logging **********//
@@ -143,7 +154,7 @@ public class TaggedLogger {
      message format arguments
      */
     public void w (final String fmt, final Object... args) {
-        warn (tag, expand (fmt, args));
+        logFormatted (WARN, this, fmt, args);
     }
 
     /**
@@ -153,7 +164,7 @@ public class TaggedLogger {
      message to log
      */
     public void w (final String str) {
-        warn (tag, str);
+        warn (this, str);
     }
 
     // ********** Info Logging **********//
@@ -167,7 +178,7 @@ public class TaggedLogger {
      message format arguments
      */
     public void i (final String fmt, final Object... args) {
-        Logger.info (tag, expand (fmt, args));
+        logFormatted (INFO, this, fmt, args);
     }
 
     /**
@@ -177,7 +188,7 @@ public class TaggedLogger {
      message to log
      */
     public void i (final String str) {
-        Logger.info (tag, str);
+        Logger.info (this, str);
     }
 
     // ********** Debug Logging **********//
@@ -191,7 +202,7 @@ public class TaggedLogger {
      message format arguments
      */
     public void d (final String fmt, final Object... args) {
-        debug (tag, expand (fmt, args));
+        logFormatted (DEBUG, this, fmt, args);
     }
 
     /**
@@ -201,7 +212,7 @@ public class TaggedLogger {
      message to log
      */
     public void d (final String str) {
-        debug (tag, str);
+        debug (this, str);
     }
 
     // ********** Verbose Logging **********//
@@ -215,7 +226,7 @@ public class TaggedLogger {
      message format arguments
      */
     public void v (final String fmt, final Object... args) {
-        Logger.verbose (tag, expand (fmt, args));
+        logFormatted (VERBOSE, this, fmt, args);
     }
 
     /**
@@ -225,7 +236,25 @@ public class TaggedLogger {
      message to log
      */
     public void v (final String str) {
-        Logger.verbose (tag, str);
+        Logger.verbose (this, str);
+    }
+
+    // ********** Structured Logging **********//
+
+    /**
+     Start a structured event (a message plus typed key/value fields). Add fields via the event's <code>put</code>
+     methods and finish with {@link LogEvent#log()}. Fields are only rendered to text if logcat or a plain
+     {@link LogSink} needs them. Events are subject to the tag's sampling interval and to repeat collapsing (see
+     {@link Logger#setCollapseWindow(long)}), like any other record.
+
+     @param level
+     log level
+     @param msg
+     event message
+     @return the event
+     */
+    public LogEvent event (final int level, final String msg) {
+        return LogEvent.obtain (level, this, msg, accepted (level, this));
     }
 
     /**
@@ -235,4 +264,31 @@ public class TaggedLogger {
     public String tag() {
         return tag;
     }
+
+    /**
+     * This logger's tag id (see {@link TagRegistry})
+     * @return the tag id
+     */
+    public int id() {
+        return id;
+    }
+
+    /**
+     * Would a record of the given level be logged? Takes tag levels (see {@link Logger#setTagLevel(String, int)})
+     * into account.
+     * @param level log level
+     * @return <code>true</code> if records of the level are logged
+     */
+    public boolean isLoggable(final int level) {
+        return level >= this.level;
+    }
+
+    /**
+     * Count a record against the tag's sampling interval
+     * @return <code>true</code> if the record should be logged
+     */
+    boolean sampled () {
+        final int every = sampling;
+        return every <= 1 || sampleCounter++ % every == 0;
+    }
 }
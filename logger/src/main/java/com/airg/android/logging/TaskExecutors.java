@@ -0,0 +1,187 @@
+/*
+ * ****************************************************************************
+ *   Copyright  2017 airG Inc.                                                 *
+ *                                                                             *
+ *   Licensed under the Apache License, Version 2.0 (the "License");           *
+ *   you may not use this file except in compliance with the License.          *
+ *   You may obtain a copy of the License at                                   *
+ *                                                                             *
+ *       http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                             *
+ *   Unless required by applicable law or agreed to in writing, software       *
+ *   distributed under the License is distributed on an "AS IS" BASIS,         *
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  *
+ *   See the License for the specific language governing permissions and       *
+ *   limitations under the License.                                            *
+ * ***************************************************************************
+ */
+package com.airg.android.logging;
+
+import java.lang.reflect.Method;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executors shared by all {@link LogCatcher} instances, so that idle instances don't hold on to threads and many
+ * concurrent captures don't need a platform thread each where the runtime offers something lighter.
+ */
+final class TaskExecutors {
+    private TaskExecutors() {
+        // no instances
+    }
+
+    /**
+     * A task per virtual thread if the runtime supports them (Java 21 and up), a shared pool of cached daemon threads
+     * otherwise (e.g. on Android)
+     */
+    static Executor lightweight() {
+        return LightweightHolder.EXECUTOR;
+    }
+
+    /**
+     * @return <code>true</code> if {@link #lightweight()} runs tasks on virtual threads
+     */
+    static boolean isVirtual() {
+        return LightweightHolder.VIRTUAL;
+    }
+
+    /**
+     * One daemon thread that runs capture deadlines
+     */
+    static ScheduledExecutorService scheduler() {
+        return SchedulerHolder.SCHEDULER;
+    }
+
+    /**
+     * An executor that runs tasks one at a time, in submission order, on another executor. Holds no thread while idle.
+     */
+    static Executor serial(final Executor executor) {
+        return new SerialExecutor(executor);
+    }
+
+    private static final class LightweightHolder {
+        private static final boolean VIRTUAL;
+        private static final Executor EXECUTOR;
+
+        static {
+            ExecutorService virtual = null;
+
+            try {
+                // looked up at runtime: not part of the API this library is compiled against
+                final Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+                virtual = (ExecutorService) factory.invoke(null);
+            } catch (Exception ignore) {
+                // not available
+            }
+
+            VIRTUAL = null != virtual;
+            EXECUTOR = VIRTUAL ? virtual : Executors.newCachedThreadPool(new DaemonThreadFactory("LogCatcher-task"));
+        }
+    }
+
+    private static final class SchedulerHolder {
+        private static final ScheduledExecutorService SCHEDULER =
+                Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("LogCatcher-deadline"));
+    }
+
+    private static final class DaemonThreadFactory implements ThreadFactory {
+        private final String prefix;
+        private final AtomicInteger count = new AtomicInteger(0);
+
+        private DaemonThreadFactory(final String namePrefix) {
+            prefix = namePrefix;
+        }
+
+        @Override
+        public Thread newThread(final Runnable r) {
+            final Thread thread = new Thread(r, prefix + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+    private static final class SerialExecutor implements Executor {
+        private final Executor executor;
+
+        // guarded by this
+        private final Queue<Runnable> tasks = new ArrayDeque<>();
+        private boolean draining = false;
+
+        private SerialExecutor(final Executor e) {
+            executor = e;
+        }
+
+        @Override
+        public void execute(final Runnable command) {
+            synchronized (this) {
+                tasks.add(command);
+
+                if (draining)
+                    return;
+
+                draining = true;
+            }
+
+            schedule();
+        }
+
+        private void schedule() {
+            try {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        drain();
+                    }
+                });
+            } catch (RuntimeException e) {
+                // rejected: let the next execute() try again
+                synchronized (this) {
+                    draining = false;
+                }
+
+                throw e;
+            }
+        }
+
+        private void drain() {
+            while (true) {
+                final Runnable task;
+
+                synchronized (this) {
+                    task = tasks.poll();
+
+                    if (null == task) {
+                        draining = false;
+                        return;
+                    }
+                }
+
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    // keep going, like a thread pool would with its next task
+                    e.printStackTrace();
+                } catch (Error e) {
+                    // this thread is done for, so the remaining tasks go on another run
+                    final boolean more;
+
+                    synchronized (this) {
+                        more = !tasks.isEmpty();
+                        draining = more;
+                    }
+
+                    if (more)
+                        schedule();
+
+                    throw e;
+                }
+            }
+        }
+    }
+}